@@ -9,6 +9,8 @@ import org.theseed.basic.BaseProcessor;
  *
  * 	cluster		perform agglomeration clustering
  *  freq		perform frequency analysis of correlations
+ *  recut		produce a cluster report from a saved merge tree
+ *  convert		convert a similarity file to binary form
  *
  * @author Bruce Parrello
  *
@@ -26,6 +28,12 @@ public class App {
         case "cluster" :
             processor = new ClusterProcessor();
             break;
+        case "recut" :
+            processor = new RecutProcessor();
+            break;
+        case "convert" :
+            processor = new ConvertProcessor();
+            break;
         case "freq" :
             processor = new CorrFreqProcessor();
             break;
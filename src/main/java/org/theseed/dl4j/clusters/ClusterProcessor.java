@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.kohsuke.args4j.Argument;
@@ -15,9 +16,22 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.BaseReportProcessor;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
 import org.theseed.clusters.ClusterGroup;
 import org.theseed.clusters.methods.ClusterMergeMethod;
+import org.theseed.dl4j.clusters.engines.BinarySimilaritySource;
+import org.theseed.dl4j.clusters.engines.Checkpointer;
+import org.theseed.dl4j.clusters.engines.ClusterEngine;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
+import org.theseed.dl4j.clusters.engines.CanopyClusterEngine;
+import org.theseed.dl4j.clusters.engines.ComponentClusterEngine;
+import org.theseed.dl4j.clusters.engines.FileSimilaritySource;
+import org.theseed.dl4j.clusters.engines.MatrixClusterEngine;
+import org.theseed.dl4j.clusters.engines.MergeTreeFile;
+import org.theseed.dl4j.clusters.engines.ParallelFileSimilaritySource;
+import org.theseed.dl4j.clusters.engines.PointCounter;
+import org.theseed.dl4j.clusters.engines.PruningSimilaritySource;
+import org.theseed.dl4j.clusters.engines.SimilarityMatrix;
+import org.theseed.dl4j.clusters.engines.SimilaritySource;
 import org.theseed.reports.ClusterReporter;
 
 /**
@@ -29,10 +43,100 @@ import org.theseed.reports.ClusterReporter;
  * between clusters is specified as a tuning parameter, and the merging is stopped when the
  * similarity of the closest clusters drops below a specified score.
  *
- * The clustering report is written to the standard output.
+ * Several clustering engines are available.  The GROUP engine supports every merge method and the size
+ * limit, but its running time is cubic in the number of data points.  The CHAIN engine uses the
+ * nearest-neighbor chain algorithm, which is quadratic, but it only supports the reducible merge methods
+ * (COMPLETE, AVERAGE, SINGLE) and does not support a size limit.  When similarities are tied, its COMPLETE and
+ * AVERAGE merges can form a different, but equally valid, hierarchy from the other engines.  The SLINK engine
+ * performs SINGLE clustering in memory proportional to the number of data points, but the input must be grouped by the
+ * first data point ID, with each group containing the similarities to the data points of the earlier groups
+ * (as in a full square matrix).  The SCAN engine performs the same merge loop as the GROUP engine, but
+ * keeps the similarities in a condensed primitive matrix, which uses far less memory.  For very large inputs,
+ * the matrix can be kept in a memory-mapped temporary file (--storage MAPPED), in which case the --points
+ * estimate is used to size the file up front.
+ *
+ * If the similarities are correlations in the range [-1, 1], the matrix can be stored in 16-bit (--storage SHORT)
+ * or 8-bit (--storage BYTE) fixed point.  Each stored value is within about 1.5e-5 (SHORT) or 0.004 (BYTE) of the
+ * original.  For SINGLE and COMPLETE this is the only error, but for AVERAGE each merge rounds the new averages
+ * again, so the error can grow by up to the same amount at each merge level.  Pairs whose similarities differ
+ * by less than the step size may be merged in a different order, and pairs near the minimum score can fall on
+ * either side of it:  in BYTE storage, a similarity of 0.7999 is stored as 0.803 and merges at a minimum of 0.8.
+ * Values outside the range are clamped.
+ *
+ * The GENERIC engine performs the same merges as the SCAN engine and supports the same options, but caches the
+ * best partner of each cluster and only recomputes the ones affected by each merge, which avoids rescanning the
+ * whole matrix.  The HEAP engine also performs the same merges, but keeps the candidate pairs at or above the
+ * minimum score in a priority queue and discards outdated entries when they reach the top.  It is the fastest
+ * exact engine for sparse input, where most pairs are missing.
+ *
+ * Three more engines perform SINGLE clustering only.  The MST engine computes the maximum-similarity spanning
+ * forest of the input with a parallel Boruvka algorithm, keeping only the similarities at or above the lowest
+ * threshold, in parallel using the number of threads specified by --threads.  It handles sparse input very
+ * efficiently, but does not support a size limit.  The KRUSKAL engine handles input too large for
+ * memory.  The similarities at or above the lowest threshold are sorted in bounded runs in the --tempDir
+ * directory and then merged and applied in order, so only the data point structures are kept in memory.  It
+ * honors the size limit exactly when the scores are distinct (tied scores under a size limit may be resolved
+ * differently from the other engines).  The UNION engine works without a size limit at the minimum score only.  It
+ * computes the connected components of the similarities at or above the minimum score in a single streaming
+ * pass, with input in any order, and never stores any similarities.  It does not support --cuts or --tree.
+ *
+ * The LOUVAIN engine is not agglomerative.  It treats the similarities at or above the threshold as the weights
+ * of a graph and finds the communities with the highest modularity using the Louvain method, with the local moves
+ * performed in parallel using the number of threads specified by --threads.  Each community is split into its
+ * connected components.  The merge method is ignored, similarities at or below zero are never used, and the size
+ * limit is not supported.  Each additional threshold from --cuts is clustered separately, and there is no merge
+ * tree.  Because it takes time roughly proportional to the number of similarities kept, it can handle graphs far
+ * too large for the other engines.
+ *
+ * The DBSCAN engine is also not agglomerative.  It treats each pair at or above the threshold as neighbors.  A
+ * data point with at least the number of points specified by --minPts in its neighborhood, counting itself, is a
+ * core point.  The core points connected through other core points form the clusters, each non-core point next to
+ * a core point joins the cluster of its most similar core neighbor, and the remaining points are reported as
+ * singletons.  It uses the --threads setting, and has the same restrictions as the LOUVAIN engine.
+ *
+ * If the input is highly fragmented, the --components option can be used with the CHAIN, SCAN, GENERIC, and
+ * HEAP engines.  The data points are split into the connected components of the graph formed by the
+ * similarities at or above the minimum score, and each component is clustered separately in parallel.  The
+ * results are the same.
+ *
+ * For inputs too large for exact clustering, the --canopy option requests an approximate clustering with the same
+ * engines.  The option value is a loose threshold no greater than the lowest clustering threshold.  The data
+ * points are grouped into overlapping canopies, each consisting of a center and its neighbors at or above the
+ * loose threshold, and each canopy is clustered separately in parallel.  Each data point is reported only in
+ * the canopy where it ends up in the largest cluster.
+ * Clusters that span several canopies will be split, and similarities below the loose threshold are ignored.  A
+ * lower loose threshold gives larger canopies and a more accurate result.  This option cannot be combined with
+ * --components.
+ *
+ * The --prune option drops the similarities below the lowest threshold as the input is read, which greatly reduces
+ * the memory needed for the components and the load time when most of the input is noise.  It implies --sparse.
+ * The results are exact for SINGLE and COMPLETE linkage.  For AVERAGE linkage, a cluster pair with any pruned
+ * similarity will not be merged, so the result is an approximation with tighter clusters.  Pruning is not
+ * supported by the GROUP engine.
+ *
+ * The clustering report is written to the standard output.  Additional thresholds can be specified using the
+ * --cuts option.  The merges are performed only once, down to the lowest threshold, and the resulting tree is cut
+ * at each additional threshold to produce a separate report in the --cutDir directory.  The additional thresholds
+ * are specified as a comma-delimited list, each item of which is either a single threshold or an inclusive range
+ * of the form "low:high:step".  For example, "0.5,0.6:0.9:0.1" specifies 0.5, 0.6, 0.7, 0.8, and 0.9.  The
+ * GROUP engine has to snapshot the clusters as it passes each threshold, but the other engines record the merges
+ * and replay them for each cut.
+ *
+ * The input file can also be a binary similarity file produced by the "convert" command.  This is detected
+ * automatically, and the file is memory-mapped instead of parsed.  The binary format is not supported by the
+ * GROUP engine.
  *
  * The positional parameters are the similarity threshold to use as a minimum cutoff and the
- * name of the input file containing the similarities.
+ * name of the input file containing the similarities.  If the input file is omitted, the similarities are
+ * read from the standard input.  Input compressed with gzip or zstd is decompressed automatically.  Neither
+ * compressed input nor the standard input can be estimated from the file size, so unless --points is specified,
+ * the structures start small and grow as the data points are read.  The GROUP engine requires an uncompressed
+ * input file.
+ *
+ * The file-size estimate of the number of data points can be far off.  The --count option requests a pre-pass
+ * over the ID columns to count the data points instead, so that the structures are sized correctly from the
+ * start.  SKETCH uses a HyperLogLog sketch, which needs almost no memory and is within a few percent; EXACT keeps
+ * a hash of every ID.  The pre-pass also works on compressed files, but not on the standard input.
  *
  * The command-line options are as follows:
  *
@@ -44,7 +148,8 @@ import org.theseed.reports.ClusterReporter;
  * --col2		index (1-based) or name of column containing the second data point ID (default "2")
  * --score		index (1-based) or name of column containing the similarity score (default "3")
  * --method		method for merging similarities (default COMPLETE)
- * --points		estimated number of data points (default computed from file size)
+ * --points		estimated number of data points (default computed using the --count method)
+ * --count		method for computing the number of data points when --points is not specified (default ESTIMATE)
  * --format		type of report to write (default INDENT)
  * --gto		GTO file for the reference genome for genome-based reports
  * --subFile	output file for subsystem ID mapping produced from the GENOME report
@@ -52,19 +157,45 @@ import org.theseed.reports.ClusterReporter;
  * --groups		group file for ANALYTICAL reports
  * --comment	title prefix for ANALYTICAL report
  * --maxSize	maximum permissible cluster size; the default allows unlimited clustering
+ * --engine		clustering engine to use (default GROUP)
+ * --storage	storage type for the similarity matrix used by the CHAIN, SCAN, GENERIC, and HEAP engines (default DOUBLE)
+ * --tempDir	directory for temporary files (default is the system temporary directory)
+ * --components	if specified, connected components will be clustered separately in parallel
+ * --canopy		if specified, the loose similarity threshold for an approximate clustering of overlapping canopies
+ * --cuts		comma-delimited list of additional thresholds and threshold ranges at which to cut the cluster tree
+ * --cutDir		output directory for the reports on the additional thresholds (default is the current directory)
+ * --tree		if specified, a file to contain the merge tree in binary form, for use by the "recut" command
+ * --checkpoint	if specified, a file for checkpoints of the merge loop (CHAIN, SCAN, GENERIC, and HEAP engines only)
+ * --ckMerges	number of merges between checkpoints (default 10000)
+ * --ckMinutes	number of minutes between checkpoints (default 30)
+ * --resume		if specified, the merge loop will resume from the checkpoint file
+ * --prune		if specified, similarities below the lowest threshold will be dropped during loading
+ * --loadThreads	number of threads to use for parsing the input file; not used by the GROUP engine (default 1)
+ * --threads	number of threads to use for the similarity updates in the matrix engines, the MST, LOUVAIN, and
+ * 				DBSCAN engines, and the --components and --canopy options (default 1)
+ * --minPts		minimum neighborhood size, including the point itself, for a core point in the DBSCAN engine
+ * 				(default 4)
  *
  * @author Bruce Parrello
  *
  */
-public class ClusterProcessor extends BaseReportProcessor implements ClusterReporter.IParms {
+public class ClusterProcessor extends BaseReportProcessor implements ClusterReporter.IParms, ClusterEngine.IParms {
 
     // FIELDS
     /** logging facility */
     protected static Logger log = LoggerFactory.getLogger(ClusterProcessor.class);
-    /** cluster group being built */
-    private ClusterGroup mainGroup;
+    /** clustering engine */
+    private ClusterEngine engine;
     /** cluster reporting object */
     private ClusterReporter reporter;
+    /** additional thresholds at which to cut the cluster tree */
+    private double[] cutScores;
+    /** threshold for the report currently being created */
+    private double reportScore;
+    /** checkpoint manager, or NULL if there are no checkpoints */
+    private Checkpointer checkpointer;
+    /** initial data point estimate for streamed input */
+    private static final int STREAM_POINT_ESTIMATE = 1000;
 
     // COMMAND-LINE OPTIONS
 
@@ -85,9 +216,13 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
     private ClusterMergeMethod method;
 
     /** estimated number of input data points */
-    @Option(name = "--points", metaVar = "4000", usage = "estimated number of input data points (0 = compute from file size)")
+    @Option(name = "--points", metaVar = "4000", usage = "estimated number of input data points (0 = compute using the count method)")
     private int points;
 
+    /** method for computing the number of data points */
+    @Option(name = "--count", usage = "method for computing the number of data points if no estimate is given")
+    private PointCounter.Type countType;
+
     /** reference genome file for GENOME reports */
     @Option(name = "--gto", metaVar = "83333.1.gto", usage = "reference genome for a GENOME-type report")
     private File genomeFile;
@@ -116,6 +251,70 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
     @Option(name = "--maxSize", metaVar = "10", usage = "maximum permissible cluster size")
     private int maxSize;
 
+    /** clustering engine type */
+    @Option(name = "--engine", usage = "clustering engine to use")
+    private ClusterEngine.Type engineType;
+
+    /** similarity matrix storage type */
+    @Option(name = "--storage", usage = "storage type for similarity matrices")
+    private SimilarityMatrix.Type storageType;
+
+    /** directory for temporary files */
+    @Option(name = "--tempDir", metaVar = "Temp", usage = "directory for temporary files")
+    private File tempDir;
+
+    /** if specified, connected components will be clustered separately */
+    @Option(name = "--components", usage = "if specified, connected components of the input will be clustered in parallel")
+    private boolean componentMode;
+
+    /** loose threshold for canopy clustering, or NaN to cluster exactly */
+    @Option(name = "--canopy", metaVar = "0.4", usage = "if specified, loose threshold for approximate canopy clustering")
+    private double canopyScore;
+
+    /** additional cut thresholds */
+    @Option(name = "--cuts", metaVar = "0.5,0.6:0.9:0.1", usage = "comma-delimited list of additional thresholds and low:high:step threshold ranges")
+    private String cutList;
+
+    /** output directory for additional cut reports */
+    @Option(name = "--cutDir", metaVar = "cutReports", usage = "output directory for the reports on additional thresholds")
+    private File cutDir;
+
+    /** merge tree output file */
+    @Option(name = "--tree", metaVar = "merges.tree", usage = "if specified, output file for the binary merge tree")
+    private File treeFile;
+
+    /** checkpoint file */
+    @Option(name = "--checkpoint", metaVar = "cluster.ckpt", usage = "if specified, file for merge loop checkpoints")
+    private File checkFile;
+
+    /** number of merges between checkpoints */
+    @Option(name = "--ckMerges", metaVar = "5000", usage = "number of merges between checkpoints")
+    private int checkMerges;
+
+    /** number of minutes between checkpoints */
+    @Option(name = "--ckMinutes", metaVar = "10", usage = "number of minutes between checkpoints")
+    private int checkMinutes;
+
+    /** if specified, the merge loop will resume from the last checkpoint */
+    @Option(name = "--resume", usage = "if specified, resume from the checkpoint file")
+    private boolean resumeFlag;
+
+    /** if specified, sub-threshold similarities will be dropped during loading */
+    @Option(name = "--prune", usage = "if specified, similarities below the threshold will be dropped during loading")
+    private boolean pruneMode;
+
+    /** number of threads for parsing the input */
+    @Option(name = "--loadThreads", metaVar = "8", usage = "number of threads for parsing the input file")
+    private int loadThreads;
+
+    /** number of threads for the similarity updates */
+    @Option(name = "--threads", metaVar = "16", usage = "number of threads for the similarity updates in the merge loop or the graph engines")
+    private int threads;
+
+    /** minimum neighborhood size for a DBSCAN core point */
+    @Option(name = "--minPts", metaVar = "5", usage = "minimum neighborhood size, including the point, for a DBSCAN core point")
+    private int minPoints;
+
     /** batch size for web queries */
     @Option(name = "--batchSize", aliases = { "-b", "--batch" }, metaVar = "50", usage = "batch size for web queries")
     private int batchSize;
@@ -124,17 +323,19 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
     @Argument(index = 0, metaVar = "minScore", usage = "minimum acceptable similarity score for clustering", required = true)
     private double minScore;
 
-    /** name of input file */
-    @Argument(index = 1, metaVar = "inFile", usage = "name of the input file containing the similarity scores for all pairs", required = true)
+    /** name of input file (if not STDIN) */
+    @Argument(index = 1, metaVar = "inFile", usage = "name of the input file containing the similarity scores for all pairs (if not STDIN)")
     private File inFile;
 
     @Override
     protected void setReporterDefaults() {
+        this.inFile = null;
         this.col1Name = "1";
         this.col2Name = "2";
         this.scoreName = "3";
         this.method = ClusterMergeMethod.COMPLETE;
         this.points = 0;
+        this.countType = PointCounter.Type.ESTIMATE;
         this.reportType = ClusterReporter.Type.TABULAR;
         this.genomeFile = null;
         this.sparseMode = false;
@@ -142,6 +343,22 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
         this.titlePrefix = null;
         this.maxSize = Integer.MAX_VALUE;
         this.batchSize = 100;
+        this.engineType = ClusterEngine.Type.GROUP;
+        this.storageType = SimilarityMatrix.Type.DOUBLE;
+        this.tempDir = new File(System.getProperty("java.io.tmpdir"));
+        this.componentMode = false;
+        this.canopyScore = Double.NaN;
+        this.cutList = null;
+        this.cutDir = new File(System.getProperty("user.dir"));
+        this.treeFile = null;
+        this.checkFile = null;
+        this.checkMerges = 10000;
+        this.checkMinutes = 30;
+        this.resumeFlag = false;
+        this.pruneMode = false;
+        this.loadThreads = 1;
+        this.threads = 1;
+        this.minPoints = 4;
     }
 
     @Override
@@ -152,48 +369,226 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
         // Validate the batch size.
         if (this.batchSize < 1)
             throw new ParseFailureException("Batch size must be at least 1.");
-        // Validate the input file.
-        if (! this.inFile.canRead())
+        // Validate the thread counts.
+        if (this.loadThreads < 1)
+            throw new ParseFailureException("Number of load threads must be at least 1.");
+        if (this.threads < 1)
+            throw new ParseFailureException("Number of threads must be at least 1.");
+        // Validate the core-point size.
+        if (this.minPoints < 1)
+            throw new ParseFailureException("Minimum neighborhood size must be at least 1.");
+        // Validate the temporary-file directory.
+        if (! this.tempDir.isDirectory())
+            throw new FileNotFoundException("Temporary directory " + this.tempDir + " is not found or invalid.");
+        // Validate the input file.  A compressed file or the standard input must be streamed.
+        boolean streamed;
+        String inName;
+        if (this.inFile == null) {
+            streamed = true;
+            inName = "the standard input";
+        } else if (! this.inFile.canRead())
             throw new FileNotFoundException("Input file " + this.inFile + " is not found or unreadable.");
-        // Estimate the number of data points.
-        if (this.points <= 0) {
+        else {
+            streamed = FileSimilaritySource.isCompressed(this.inFile);
+            inName = this.inFile.toString();
+        }
+        if (streamed) {
+            if (this.engineType == ClusterEngine.Type.GROUP)
+                throw new ParseFailureException("The GROUP engine cannot read compressed input or the standard input.");
+            if (this.loadThreads > 1) {
+                log.warn("Parallel loading is not possible for {}. A single thread will be used.", inName);
+                this.loadThreads = 1;
+            }
+        }
+        // Check for a binary input file.  The binary file tells us the exact number of data points.
+        BinarySimilaritySource binarySource = null;
+        if (BinarySimilaritySource.isBinary(this.inFile)) {
+            if (this.engineType == ClusterEngine.Type.GROUP)
+                throw new ParseFailureException("The GROUP engine cannot read a binary similarity file.");
+            binarySource = new BinarySimilaritySource(this.inFile);
+            this.points = binarySource.getPointCount();
+            log.info("{} is a binary similarity file with {} data points and {} similarities.", this.inFile,
+                    this.points, binarySource.getEdgeCount());
+        }
+        // Estimate the number of data points.  We can only estimate from the size of an uncompressed file, but
+        // a compressed file can be counted with a pre-pass.  For the standard input, the structures will grow as
+        // the data points are read.
+        if (this.points > 0)
+            log.info("Expecting {} data points in {}.", this.points, inName);
+        else if (this.countType != PointCounter.Type.ESTIMATE) {
+            if (this.inFile == null)
+                throw new ParseFailureException("Cannot count the data points in the standard input.");
+            log.info("Counting data points in {} using {} method.", inName, this.countType);
+            PointCounter counter = new PointCounter(this.inFile, this.col1Name, this.col2Name);
+            this.points = this.countType.count(counter);
+        } else if (streamed) {
+            this.points = STREAM_POINT_ESTIMATE;
+            log.info("Data point count for {} is unknown. Structures will be sized as the input is read.", inName);
+        } else {
             this.points = ClusterGroup.estimateDataPoints(this.inFile);
-            log.info("{} estimated data points in {}.", this.points, this.inFile);
-        } else
-            log.info("Expecting {} data points in {}.", this.points, this.inFile);
+            log.info("{} estimated data points in {}.", this.points, inName);
+        }
         log.info("Minimum merge score is {}.", this.minScore);
-        // Create the cluster group and load it.
-        this.mainGroup = new ClusterGroup(this.points, this.method);
-        this.mainGroup.load(this.inFile, col1Name, col2Name, scoreName, this.sparseMode);
-        if (this.mainGroup.size() < 2)
+        // Parse the additional thresholds.
+        if (this.cutList == null)
+            this.cutScores = new double[0];
+        else {
+            this.cutScores = parseCuts(this.cutList);
+            if (! this.cutDir.isDirectory())
+                throw new FileNotFoundException("Cut report directory " + this.cutDir + " is not found or invalid.");
+            log.info("{} additional thresholds will be reported in {}.", this.cutScores.length, this.cutDir);
+        }
+        // The GROUP, UNION, LOUVAIN, and DBSCAN engines do not record their merges, so they cannot produce a merge
+        // tree.  The UNION engine only computes the clusters at the minimum score.
+        if (this.treeFile != null && (this.engineType == ClusterEngine.Type.GROUP
+                || this.engineType == ClusterEngine.Type.UNION || this.engineType == ClusterEngine.Type.LOUVAIN
+                || this.engineType == ClusterEngine.Type.DBSCAN))
+            throw new ParseFailureException("The " + this.engineType + " engine cannot produce a merge tree file.");
+        if (this.cutScores.length > 0 && this.engineType == ClusterEngine.Type.UNION)
+            throw new ParseFailureException("The UNION engine cannot report additional thresholds.");
+        // Set up the checkpoints.
+        if (this.checkFile == null) {
+            if (this.resumeFlag)
+                throw new ParseFailureException("Cannot resume without a checkpoint file.");
+            this.checkpointer = null;
+        } else {
+            if (this.checkMerges < 1)
+                throw new ParseFailureException("Number of merges between checkpoints must be at least 1.");
+            if (this.checkMinutes < 1)
+                throw new ParseFailureException("Number of minutes between checkpoints must be at least 1.");
+            this.checkpointer = new Checkpointer(this.checkFile, this.checkMerges, this.checkMinutes, this.resumeFlag);
+        }
+        // Validate the pruning.  Pruned similarities are missing, so pruning implies sparse input.
+        if (this.pruneMode) {
+            if (this.engineType == ClusterEngine.Type.GROUP)
+                throw new ParseFailureException("The GROUP engine does not support pruning.");
+            if (this.method == ClusterMergeMethod.AVERAGE)
+                log.warn("Pruning with the AVERAGE method produces an approximate result.");
+            this.sparseMode = true;
+        }
+        // Create the clustering engine and load it.
+        if (! Double.isNaN(this.canopyScore)) {
+            if (this.componentMode)
+                throw new ParseFailureException("Canopy clustering cannot be combined with --components.");
+            this.engine = new CanopyClusterEngine(this, this.engineType, this.canopyScore);
+            log.info("Using {} clustering engine on canopies with loose threshold {}.", this.engineType,
+                    this.canopyScore);
+        } else if (this.componentMode) {
+            this.engine = new ComponentClusterEngine(this, this.engineType);
+            log.info("Using {} clustering engine on connected components.", this.engineType);
+        } else {
+            this.engine = this.engineType.create(this);
+            log.info("Using {} clustering engine.", this.engineType);
+        }
+        if (this.checkpointer != null && ! (this.engine instanceof MatrixClusterEngine))
+            throw new ParseFailureException("Checkpoints are only supported by the CHAIN, SCAN, GENERIC, and HEAP engines "
+                    + "without components or canopies.");
+        SimilaritySource source;
+        if (binarySource != null)
+            source = binarySource;
+        else if (this.loadThreads > 1)
+            source = new ParallelFileSimilaritySource(this.inFile, this.col1Name, this.col2Name, this.scoreName,
+                    this.loadThreads);
+        else
+            source = new FileSimilaritySource(this.inFile, this.col1Name, this.col2Name, this.scoreName);
+        if (this.pruneMode)
+            source = new PruningSimilaritySource(source, this.getFloorScore());
+        this.engine.load(source);
+        if (this.engine.size() < 2)
             throw new ParseFailureException("Too few datapoints in input file for clustering.");
-        // Store the size limit.
-        this.mainGroup.setMaxSize(this.maxSize);
+        // Report the size limit.
         if (this.maxSize == Integer.MAX_VALUE)
             log.info("Unlimited cluster size allowed.");
         else
             log.info("Maximum cluster size is {}.", this.maxSize);
         // Create the output report.
+        this.reportScore = this.minScore;
         this.reporter = this.reportType.create(this);
     }
 
+    /**
+     * Parse the list of additional thresholds.
+     *
+     * @param cutString		comma-delimited list of thresholds and low:high:step threshold ranges
+     *
+     * @return an array of the thresholds specified
+     *
+     * @throws ParseFailureException
+     */
+    protected static double[] parseCuts(String cutString) throws ParseFailureException {
+        List<Double> retVal = new ArrayList<Double>();
+        for (String item : cutString.split(",")) {
+            String[] parts = item.trim().split(":");
+            try {
+                if (parts.length == 1)
+                    retVal.add(Double.valueOf(parts[0]));
+                else if (parts.length == 3) {
+                    double low = Double.parseDouble(parts[0]);
+                    double high = Double.parseDouble(parts[1]);
+                    double step = Double.parseDouble(parts[2]);
+                    if (step <= 0.0 || high < low)
+                        throw new ParseFailureException("Invalid threshold range \"" + item + "\".");
+                    // We compute each threshold from the low end to avoid accumulating rounding errors.
+                    int steps = (int) Math.floor((high - low) / step + 1e-9);
+                    for (int i = 0; i <= steps; i++)
+                        retVal.add(low + i * step);
+                } else
+                    throw new ParseFailureException("Invalid threshold specification \"" + item + "\".");
+            } catch (NumberFormatException e) {
+                throw new ParseFailureException("Invalid number in threshold specification \"" + item + "\".");
+            }
+        }
+        double[] retArray = new double[retVal.size()];
+        for (int i = 0; i < retArray.length; i++)
+            retArray[i] = retVal.get(i);
+        return retArray;
+    }
+
     @Override
     protected void runReporter(PrintWriter writer) throws Exception {
-        // Perform the merges.
-        int mergeCount = 0;
-        while(this.mainGroup.merge(this.minScore)) {
-            mergeCount++;
-            if (mergeCount % 100 == 0)
-                log.info("{} merges performed.", mergeCount);
+        // Perform the clustering.  The main threshold is first, followed by the additional cuts.
+        double[] thresholds = new double[this.cutScores.length + 1];
+        thresholds[0] = this.minScore;
+        System.arraycopy(this.cutScores, 0, thresholds, 1, this.cutScores.length);
+        List<List<ClusterResult>> cuts = this.engine.cluster(thresholds);
+        List<String> dataPoints = this.engine.getDataPoints();
+        // Save the merge tree.
+        if (this.treeFile != null)
+            MergeTreeFile.save(this.treeFile, this.method, this.getFloorScore(), this.maxSize, dataPoints,
+                    this.engine.getMerges());
+        // Write the main report.
+        writeReport(this.reporter, writer, dataPoints, cuts.get(0), this.minScore);
+        // Write the reports for the additional cuts.
+        for (int i = 1; i < thresholds.length; i++) {
+            File cutFile = new File(this.cutDir, String.format("cut_%1.4f.txt", thresholds[i]));
+            this.reportScore = thresholds[i];
+            ClusterReporter cutReporter = this.reportType.create(this);
+            try (PrintWriter cutWriter = new PrintWriter(cutFile)) {
+                writeReport(cutReporter, cutWriter, dataPoints, cuts.get(i), thresholds[i]);
+            }
+            log.info("Report for threshold {} written to {}.", thresholds[i], cutFile);
         }
-        // Get the cluster list.
-        List<Cluster> clusters = this.mainGroup.getClusters();
-        log.info("{} merges resulting in {} clusters.", mergeCount, clusters.size());
+    }
+
+    /**
+     * Write a clustering report.
+     *
+     * @param clusterReporter	reporting object to use
+     * @param writer			output print writer for the report
+     * @param dataPoints		list of data point IDs
+     * @param clusters			list of clusters to report, sorted from largest to smallest
+     * @param threshold			threshold at which the clusters were formed
+     *
+     * @throws IOException
+     */
+    protected static void writeReport(ClusterReporter clusterReporter, PrintWriter writer, List<String> dataPoints,
+            List<ClusterResult> clusters, double threshold) throws IOException {
+        log.info("{} data points formed {} clusters at threshold {}.", dataPoints.size(), clusters.size(), threshold);
         // Get some useful statistics.
-        Cluster largest = clusters.get(0);
+        ClusterResult largest = clusters.get(0);
         int nonTrivial = 0;
         int clustered = 0;
-        for (Cluster cluster : clusters) {
+        for (ClusterResult cluster : clusters) {
             if (cluster.size() > 1) {
                 nonTrivial++;
                 clustered += cluster.size();
@@ -202,11 +597,11 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
         log.info("Largest cluster size is {} with height {}, {} nontrivial clusters found containing {} data points.",
                 largest.size(), largest.getHeight(), nonTrivial, clustered);
         // Now write the report.
-        this.reporter.openReport(writer);
-        this.reporter.scanGroup(this.mainGroup);
-        for (Cluster cluster : clusters)
-            this.reporter.writeCluster(cluster);
-        this.reporter.closeReport();
+        clusterReporter.openReport(writer);
+        clusterReporter.scanPoints(dataPoints);
+        for (ClusterResult cluster : clusters)
+            clusterReporter.writeCluster(cluster);
+        clusterReporter.closeReport();
     }
 
     @Override
@@ -226,7 +621,15 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
 
     @Override
     public double getMinSimilarity() {
-        return this.minScore;
+        return this.reportScore;
+    }
+
+    @Override
+    public double getFloorScore() {
+        double retVal = this.minScore;
+        for (double cutScore : this.cutScores)
+            retVal = Math.min(retVal, cutScore);
+        return retVal;
     }
 
     @Override
@@ -249,4 +652,39 @@ public class ClusterProcessor extends BaseReportProcessor implements ClusterRepo
         return this.subFile;
     }
 
+    @Override
+    public boolean isSparse() {
+        return this.sparseMode;
+    }
+
+    @Override
+    public int getPointEstimate() {
+        return this.points;
+    }
+
+    @Override
+    public SimilarityMatrix.Type getStorage() {
+        return this.storageType;
+    }
+
+    @Override
+    public File getTempDir() {
+        return this.tempDir;
+    }
+
+    @Override
+    public Checkpointer getCheckpointer() {
+        return this.checkpointer;
+    }
+
+    @Override
+    public int getThreads() {
+        return this.threads;
+    }
+
+    @Override
+    public int getMinPoints() {
+        return this.minPoints;
+    }
+
 }
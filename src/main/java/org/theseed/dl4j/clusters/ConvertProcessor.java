@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.dl4j.clusters.engines.BinarySimilaritySource;
+import org.theseed.dl4j.clusters.engines.FileSimilaritySource;
+import org.theseed.dl4j.clusters.engines.ParallelFileSimilaritySource;
+import org.theseed.dl4j.clusters.engines.SimilaritySource;
+
+/**
+ * This command converts a tab-delimited similarity file to the binary similarity format.  The binary file
+ * contains a dictionary of the data point IDs followed by columns of data point indices and single-precision
+ * scores, and the "cluster" command can memory-map it directly instead of parsing text.  Self-pairs and
+ * scores that are not finite are dropped during the conversion.  Input compressed with gzip or zstd is
+ * decompressed automatically.
+ *
+ * The positional parameters are the name of the input file and the name of the output file.
+ *
+ * The command-line options are as follows:
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ *
+ * --col1			index (1-based) or name of column containing the first data point ID (default "1")
+ * --col2			index (1-based) or name of column containing the second data point ID (default "2")
+ * --score			index (1-based) or name of column containing the similarity score (default "3")
+ * --loadThreads	number of threads to use for parsing the input file (default 1)
+ * --tempDir		directory for temporary files (default is the system temporary directory)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ConvertProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ConvertProcessor.class);
+
+    // COMMAND-LINE OPTIONS
+
+    /** input column containing first data point ID */
+    @Option(name = "--col1", aliases = { "--c1" }, metaVar = "id1", usage = "index (1-based) or name of column containing the first data point ID")
+    private String col1Name;
+
+    /** input column containing second data point ID */
+    @Option(name = "--col2", aliases = { "--c2" }, metaVar = "id2", usage = "index (1-based) or name of column containing the second data point ID")
+    private String col2Name;
+
+    /** input column containing similarity score */
+    @Option(name = "--score", metaVar = "sim", usage = "index (1-based) or name of column containing the similarity score")
+    private String scoreName;
+
+    /** number of threads for parsing the input */
+    @Option(name = "--loadThreads", metaVar = "8", usage = "number of threads for parsing the input file")
+    private int loadThreads;
+
+    /** directory for temporary files */
+    @Option(name = "--tempDir", metaVar = "Temp", usage = "directory for temporary files")
+    private File tempDir;
+
+    /** name of input file */
+    @Argument(index = 0, metaVar = "inFile", usage = "name of the tab-delimited input file containing the similarity scores", required = true)
+    private File inFile;
+
+    /** name of output file */
+    @Argument(index = 1, metaVar = "outFile", usage = "name of the binary output file", required = true)
+    private File outFile;
+
+    @Override
+    protected void setDefaults() {
+        this.col1Name = "1";
+        this.col2Name = "2";
+        this.scoreName = "3";
+        this.loadThreads = 1;
+        this.tempDir = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Override
+    protected boolean validateParms() throws IOException, ParseFailureException {
+        if (this.loadThreads < 1)
+            throw new ParseFailureException("Number of load threads must be at least 1.");
+        if (! this.tempDir.isDirectory())
+            throw new FileNotFoundException("Temporary directory " + this.tempDir + " is not found or invalid.");
+        if (! this.inFile.canRead())
+            throw new FileNotFoundException("Input file " + this.inFile + " is not found or unreadable.");
+        return true;
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        SimilaritySource source;
+        if (this.loadThreads > 1 && FileSimilaritySource.isCompressed(this.inFile))
+            log.warn("Parallel loading is not possible for compressed input. A single thread will be used.");
+        if (this.loadThreads > 1 && ! FileSimilaritySource.isCompressed(this.inFile))
+            source = new ParallelFileSimilaritySource(this.inFile, this.col1Name, this.col2Name, this.scoreName,
+                    this.loadThreads);
+        else
+            source = new FileSimilaritySource(this.inFile, this.col1Name, this.col2Name, this.scoreName);
+        BinarySimilaritySource.convert(source, this.outFile, this.tempDir);
+    }
+
+}
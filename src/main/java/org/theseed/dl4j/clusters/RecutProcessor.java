@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseReportProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
+import org.theseed.dl4j.clusters.engines.MergeTreeFile;
+import org.theseed.reports.ClusterReporter;
+
+/**
+ * This command produces a cluster report from a merge tree saved by the "cluster" command (using the --tree option).
+ * The tree is cut at a new minimum score and size limit, without rereading the similarities, so that different
+ * thresholds can be tried quickly on a clustering that took a long time to compute.
+ *
+ * The minimum score should be no lower than the lowest threshold used to build the tree, since merges below that
+ * were never computed.  Likewise, the size limit should be no higher than the one used to build the tree.  If the
+ * size limit is lower, merges that would produce an oversized cluster are skipped.  Because the merge partners are
+ * not recomputed, this may not be the same as a fresh clustering with the lower size limit.
+ *
+ * The clustering report is written to the standard output.
+ *
+ * The positional parameters are the similarity threshold to use as a minimum cutoff and the name of the merge
+ * tree file.
+ *
+ * The command-line options are as follows:
+ *
+ * -h	display command-line usage
+ * -v	display more frequent log messages
+ * -o	output file for the cluster report (if not STDOUT)
+ *
+ * --format		type of report to write (default TABULAR)
+ * --gto		GTO file for the reference genome for genome-based reports
+ * --subFile	output file for subsystem ID mapping produced from the GENOME report
+ * --groups		group file for ANALYTICAL reports
+ * --comment	title prefix for ANALYTICAL report
+ * --maxSize	maximum permissible cluster size; the default is the size limit used to build the tree
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RecutProcessor extends BaseReportProcessor implements ClusterReporter.IParms {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(RecutProcessor.class);
+    /** merge tree being cut */
+    private MergeTreeFile tree;
+    /** cluster reporting object */
+    private ClusterReporter reporter;
+
+    // COMMAND-LINE OPTIONS
+
+    /** reference genome file for GENOME reports */
+    @Option(name = "--gto", metaVar = "83333.1.gto", usage = "reference genome for a GENOME-type report")
+    private File genomeFile;
+
+    /** output format */
+    @Option(name = "--format", usage = "output report type")
+    private ClusterReporter.Type reportType;
+
+    /** subsystem ID mapping output file */
+    @Option(name = "--subFile", usage = "if specified, an output file for subsystem ID mappings in the GENOME report")
+    private File subFile;
+
+    /** groups.tbl file for ANALYTICAL report */
+    @Option(name = "--groups", metaVar = "groups.tbl", usage = "groups definition file for FEATURES report")
+    private File groupFile;
+
+    /** title prefix */
+    @Option(name = "--comment", metaVar = "Operon-Weighted", usage = "prefix to add to titles on human-readable reports")
+    private String titlePrefix;
+
+    /** maximum cluster size */
+    @Option(name = "--maxSize", metaVar = "10", usage = "maximum permissible cluster size (0 = use tree's limit)")
+    private int maxSize;
+
+    /** batch size for web queries */
+    @Option(name = "--batchSize", aliases = { "-b", "--batch" }, metaVar = "50", usage = "batch size for web queries")
+    private int batchSize;
+
+    /** minimum similarity for joining */
+    @Argument(index = 0, metaVar = "minScore", usage = "minimum acceptable similarity score for clustering", required = true)
+    private double minScore;
+
+    /** name of merge tree file */
+    @Argument(index = 1, metaVar = "treeFile", usage = "name of the merge tree file produced by the cluster command", required = true)
+    private File treeFile;
+
+    @Override
+    protected void setReporterDefaults() {
+        this.reportType = ClusterReporter.Type.TABULAR;
+        this.genomeFile = null;
+        this.subFile = null;
+        this.groupFile = null;
+        this.titlePrefix = null;
+        this.maxSize = 0;
+        this.batchSize = 100;
+    }
+
+    @Override
+    protected void validateReporterParms() throws IOException, ParseFailureException {
+        // Validate the batch size.
+        if (this.batchSize < 1)
+            throw new ParseFailureException("Batch size must be at least 1.");
+        // Load the merge tree.
+        if (! this.treeFile.canRead())
+            throw new FileNotFoundException("Merge tree file " + this.treeFile + " is not found or unreadable.");
+        this.tree = new MergeTreeFile(this.treeFile);
+        log.info("Tree was built using method {} with a floor of {}.", this.tree.getMethod(), this.tree.getFloorScore());
+        // Validate the size limit.
+        if (this.maxSize == 0)
+            this.maxSize = this.tree.getMaxSize();
+        else if (this.maxSize < 2)
+            throw new ParseFailureException("Maximum cluster size must be at least 2.");
+        log.info("Minimum merge score is {}.", this.minScore);
+        // Create the output report.
+        this.reporter = this.reportType.create(this);
+    }
+
+    @Override
+    protected void runReporter(PrintWriter writer) throws Exception {
+        List<ClusterResult> clusters = this.tree.getClusters(this.minScore, this.maxSize);
+        ClusterProcessor.writeReport(this.reporter, writer, this.tree.getDataPoints(), clusters, this.minScore);
+    }
+
+    @Override
+    public File getGenomeFile() {
+        return this.genomeFile;
+    }
+
+    @Override
+    public File getGroupFile() {
+        return this.groupFile;
+    }
+
+    @Override
+    public ClusterMergeMethod getMethod() {
+        return this.tree.getMethod();
+    }
+
+    @Override
+    public double getMinSimilarity() {
+        return this.minScore;
+    }
+
+    @Override
+    public String getTitlePrefix() {
+        return this.titlePrefix;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    @Override
+    public File getSubFile() {
+        return this.subFile;
+    }
+
+}
@@ -0,0 +1,267 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object reads a binary similarity file.  The binary format is columnar, so it can be memory-mapped and read
+ * without any parsing.  The file consists of a header, the data point ID dictionary, and then three columns, each
+ * containing one entry per similarity:  the index of the first data point (int32), the index of the second data
+ * point (int32), and the similarity score (float32).
+ *
+ * The header consists of a 4-byte marker, the number of data points (int32), and the number of similarities
+ * (int64).  The dictionary consists of the data point IDs in index order, each in modified UTF-8 with a 2-byte
+ * length prefix.  All numbers are big-endian.
+ *
+ * Because the scores are stored in single precision, clustering from a binary file can differ from clustering
+ * the original text file when two scores differ only beyond the seventh significant digit.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BinarySimilaritySource extends SimilaritySource {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(BinarySimilaritySource.class);
+    /** input file */
+    private File inFile;
+    /** number of data points */
+    private int pointCount;
+    /** number of similarities */
+    private long edgeCount;
+    /** file position of the first column */
+    private long columnStart;
+    /** file type marker */
+    private static final int MAGIC = 0x53494D31;
+    /** number of similarities to map at one time */
+    private static final int BLOCK_SIZE = 1 << 24;
+
+    /**
+     * Open a binary similarity file and read its header.
+     *
+     * @param inFile	binary similarity file
+     *
+     * @throws IOException
+     */
+    public BinarySimilaritySource(File inFile) throws IOException {
+        this.inFile = inFile;
+        try (DataInputStream inStream = new DataInputStream(new FileInputStream(inFile))) {
+            if (inStream.readInt() != MAGIC)
+                throw new IOException("File " + inFile + " is not a binary similarity file.");
+            this.pointCount = inStream.readInt();
+            this.edgeCount = inStream.readLong();
+        }
+        // The columns are at the end of the file, after the variable-length dictionary.
+        this.columnStart = inFile.length() - this.edgeCount * 12;
+        if (this.pointCount < 0 || this.edgeCount < 0 || this.columnStart < 16 + this.pointCount * 2L)
+            throw new IOException("Binary similarity file " + inFile + " is truncated or corrupt.");
+    }
+
+    /**
+     * Determine whether a file is a binary similarity file.  The marker alone is not trusted, since a text file could
+     * start with the same four characters.  The header counts must also be consistent with the file length, and the
+     * dictionary entries must end exactly where the columns begin.
+     *
+     * @return TRUE if the specified file is a binary similarity file
+     *
+     * @param file	file to check, or NULL for the standard input
+     *
+     * @throws IOException
+     */
+    public static boolean isBinary(File file) throws IOException {
+        boolean retVal = false;
+        if (file != null && file.length() >= 16) {
+            final long fileSize = file.length();
+            try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (inStream.readInt() == MAGIC) {
+                    final int pointCount = inStream.readInt();
+                    final long edgeCount = inStream.readLong();
+                    if (pointCount >= 0 && edgeCount >= 0 && edgeCount <= fileSize / 12) {
+                        final long columnStart = fileSize - edgeCount * 12;
+                        // Walk the dictionary using the length prefixes.
+                        byte[] buffer = new byte[65535];
+                        long pos = 16;
+                        int i = 0;
+                        while (i < pointCount && pos + 2 <= columnStart) {
+                            int len = inStream.readUnsignedShort();
+                            pos += 2 + len;
+                            if (pos <= columnStart)
+                                inStream.readFully(buffer, 0, len);
+                            i++;
+                        }
+                        retVal = (i == pointCount && pos == columnStart);
+                    }
+                    if (! retVal)
+                        log.warn("File {} starts with the binary marker, but its header is not consistent.  It will be "
+                                + "read as text.", file);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public long scan(PointDictionary points, Visitor visitor) throws IOException {
+        // Read the dictionary.  The data points are interned in order, so that data points without any
+        // similarities are still included.
+        int[] pointMap = new int[this.pointCount];
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(this.inFile)))) {
+            inStream.skipBytes(16);
+            long pos = 16;
+            for (int i = 0; i < this.pointCount; i++) {
+                String id = inStream.readUTF();
+                pointMap[i] = points.intern(id);
+                pos += 2 + utfLength(id);
+            }
+            if (pos != this.columnStart)
+                throw new IOException("Binary similarity file " + this.inFile + " has an invalid dictionary.");
+        }
+        log.info("{} data points read from {}.", this.pointCount, this.inFile);
+        // Now map the columns a block at a time.
+        final long p1Start = this.columnStart;
+        final long p2Start = p1Start + this.edgeCount * 4;
+        final long scoreStart = p2Start + this.edgeCount * 4;
+        try (FileChannel channel = FileChannel.open(this.inFile.toPath(), StandardOpenOption.READ)) {
+            for (long pos = 0; pos < this.edgeCount; pos += BLOCK_SIZE) {
+                final int n = (int) Math.min(BLOCK_SIZE, this.edgeCount - pos);
+                IntBuffer p1s = channel.map(FileChannel.MapMode.READ_ONLY, p1Start + pos * 4, n * 4L).asIntBuffer();
+                IntBuffer p2s = channel.map(FileChannel.MapMode.READ_ONLY, p2Start + pos * 4, n * 4L).asIntBuffer();
+                FloatBuffer scores = channel.map(FileChannel.MapMode.READ_ONLY, scoreStart + pos * 4, n * 4L).asFloatBuffer();
+                for (int i = 0; i < n; i++) {
+                    int p1 = p1s.get(i);
+                    int p2 = p2s.get(i);
+                    if (p1 < 0 || p1 >= this.pointCount || p2 < 0 || p2 >= this.pointCount)
+                        throw new IOException("Invalid data point index in similarity " + (pos + i) + " of " + this.inFile + ".");
+                    visitor.accept(pointMap[p1], pointMap[p2], scores.get(i));
+                }
+                if (log.isInfoEnabled() && this.edgeCount > BLOCK_SIZE)
+                    log.info("{} similarities read.", pos + n);
+            }
+        }
+        log.info("{} similarities read for {} data points.", this.edgeCount, points.size());
+        return this.edgeCount;
+    }
+
+    /**
+     * Convert similarities from another source to a binary similarity file.  The three columns are written to
+     * temporary files as the similarities are read, and then copied to the output file after the dictionary.
+     *
+     * @param source	source of the similarities
+     * @param outFile	output binary similarity file
+     * @param tempDir	directory for temporary files
+     *
+     * @return the number of similarities written
+     *
+     * @throws IOException
+     */
+    public static long convert(SimilaritySource source, File outFile, File tempDir) throws IOException {
+        PointDictionary points = new PointDictionary(1000);
+        File[] tempFiles = new File[3];
+        long retVal;
+        try {
+            for (int i = 0; i < tempFiles.length; i++)
+                tempFiles[i] = File.createTempFile("col", ".tmp", tempDir);
+            try (DataOutputStream p1Stream = openColumn(tempFiles[0]);
+                    DataOutputStream p2Stream = openColumn(tempFiles[1]);
+                    DataOutputStream scoreStream = openColumn(tempFiles[2])) {
+                retVal = source.scan(points, (p1, p2, score) -> {
+                    try {
+                        p1Stream.writeInt(p1);
+                        p2Stream.writeInt(p2);
+                        scoreStream.writeFloat((float) score);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // Now assemble the output file.
+            final int n = points.size();
+            try (OutputStream rawStream = new BufferedOutputStream(new FileOutputStream(outFile));
+                    DataOutputStream outStream = new DataOutputStream(rawStream)) {
+                outStream.writeInt(MAGIC);
+                outStream.writeInt(n);
+                outStream.writeLong(retVal);
+                for (int i = 0; i < n; i++)
+                    outStream.writeUTF(points.get(i));
+                outStream.flush();
+                for (File tempFile : tempFiles)
+                    Files.copy(tempFile.toPath(), rawStream);
+            }
+            log.info("{} similarities for {} data points written to {}.", retVal, n, outFile);
+        } finally {
+            for (File tempFile : tempFiles) {
+                if (tempFile != null)
+                    Files.deleteIfExists(tempFile.toPath());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of bytes in the modified UTF-8 encoding of a string
+     *
+     * @param string	string to measure
+     */
+    private static int utfLength(String string) {
+        int retVal = 0;
+        final int n = string.length();
+        for (int i = 0; i < n; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F)
+                retVal++;
+            else if (c > 0x07FF)
+                retVal += 3;
+            else
+                retVal += 2;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return an output stream for a temporary column file
+     *
+     * @param file	temporary file to open
+     *
+     * @throws IOException
+     */
+    private static DataOutputStream openColumn(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    /**
+     * @return the number of data points in the file
+     */
+    public int getPointCount() {
+        return this.pointCount;
+    }
+
+    /**
+     * @return the number of similarities in the file
+     */
+    public long getEdgeCount() {
+        return this.edgeCount;
+    }
+
+}
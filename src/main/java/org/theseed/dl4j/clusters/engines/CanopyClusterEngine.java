@@ -0,0 +1,415 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs approximate clustering by splitting the data points into overlapping canopies and
+ * clustering each canopy exactly with an inner engine.  Only the similarities at or above a loose threshold are
+ * kept, and they are indexed as an adjacency list.  The data points are then visited from the highest number of
+ * neighbors to the lowest.  Each one that is still a candidate becomes the center of a new canopy containing
+ * itself and all of its neighbors.  Neighbors whose similarity to the center is at or above the minimum score
+ * stop being candidates, so they will never be the center of a canopy of their own.  Every data point is in at
+ * least one canopy, either as a center or as a neighbor of one.
+ *
+ * The canopies are clustered in parallel on a fork-join pool, using the number of threads specified by the
+ * controlling processor, and each canopy uses the similarities among its own members.  To reconcile the overlaps,
+ * each data point is assigned to the canopy in which it ends up in the largest cluster, with ties going to the
+ * canopy whose center has the most neighbors, and the merges of each canopy are projected onto the data points
+ * assigned to it.  The points assigned elsewhere still shape the clusters, but are not reported.  The projected
+ * merge lists are disjoint, so they are simply combined into a single merge tree.  If one canopy contains every
+ * data point, the result is the same as an exact clustering.  The members of each canopy are numbered in the same
+ * order as the main data points, so this holds even when similarities are tied.
+ *
+ * The result is an approximation.  A cluster that spans several canopies will be split, and the similarities
+ * below the loose threshold are treated as missing.  Lowering the loose threshold makes the canopies larger and
+ * the result closer to an exact clustering, at the cost of more time and memory.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CanopyClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** controlling command processor */
+    private IParms processor;
+    /** type of engine for each canopy */
+    private ClusterEngine.Type innerType;
+    /** loose similarity threshold for canopy membership */
+    private double looseScore;
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** list of similarity edges at or above the loose threshold */
+    private EdgeList edges;
+    /** position of the first adjacency entry for each data point */
+    private int[] adjStarts;
+    /** edge index of each adjacency entry */
+    private int[] adjEdges;
+
+    /**
+     * This object presents the similarities among the members of a canopy as a similarity source.  The members
+     * are interned first, in order, so the canopy index of each member is its position in the member list.
+     */
+    private class CanopySource extends SimilaritySource {
+
+        /** main data point indices of the canopy members */
+        private int[] members;
+        /** canopy index for each main data point index, or -1 if the point is not a member */
+        private int[] localIndex;
+
+        /**
+         * Construct a similarity source for a canopy.
+         *
+         * @param members		array of the main data point indices of the members
+         * @param localIndex	work array for mapping main data point indices to canopy indices; it must be
+         * 						all -1 on entry, and is restored to all -1 after the scan
+         */
+        public CanopySource(int[] members, int[] localIndex) {
+            this.members = members;
+            this.localIndex = localIndex;
+        }
+
+        @Override
+        public long scan(PointDictionary canopyPoints, Visitor visitor) {
+            final CanopyClusterEngine parent = CanopyClusterEngine.this;
+            final int size = this.members.length;
+            long retVal = 0;
+            try {
+                for (int k = 0; k < size; k++) {
+                    int g = this.members[k];
+                    canopyPoints.intern(parent.points.get(g));
+                    this.localIndex[g] = k;
+                }
+                // Each edge is listed for both of its data points, so we only pass it from the one with the
+                // lower canopy index.
+                for (int k = 0; k < size; k++) {
+                    int g = this.members[k];
+                    for (int a = parent.adjStarts[g]; a < parent.adjStarts[g + 1]; a++) {
+                        int e = parent.adjEdges[a];
+                        int other = parent.otherPoint(e, g);
+                        int k2 = this.localIndex[other];
+                        if (k2 > k) {
+                            visitor.accept(k, k2, parent.edges.getScore(e));
+                            retVal++;
+                        }
+                    }
+                }
+            } finally {
+                for (int g : this.members)
+                    this.localIndex[g] = -1;
+            }
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Construct a canopy engine.
+     *
+     * @param processor		controlling command processor
+     * @param innerType		type of engine to use for each canopy
+     * @param looseScore	loose similarity threshold for canopy membership
+     *
+     * @throws ParseFailureException
+     */
+    public CanopyClusterEngine(IParms processor, ClusterEngine.Type innerType, double looseScore)
+            throws ParseFailureException {
+        super(processor);
+        this.processor = processor;
+        this.innerType = innerType;
+        this.looseScore = looseScore;
+        if (looseScore > this.getMinScore())
+            throw new ParseFailureException("Loose canopy threshold cannot be above the lowest clustering threshold.");
+        if (! innerType.create(processor).isPartitionable())
+            throw new ParseFailureException("The " + innerType + " engine cannot be used on canopies.");
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.edges = new EdgeList(this.getPointEstimate());
+        final double loose = this.looseScore;
+        long pairs = source.scan(this.points, (p1, p2, score) -> {
+            if (score >= loose && p1 != p2)
+                this.edges.accept(p1, p2, score);
+        });
+        log.info("{} of {} similarities kept for {} data points.", this.edges.size(), pairs, this.points.size());
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final int n = this.points.size();
+        this.buildAdjacency();
+        // Form the canopies.  The members of all the canopies are kept in one array, with a start position for each
+        // canopy.
+        boolean[] candidate = new boolean[n];
+        Arrays.fill(candidate, true);
+        int[] stamps = new int[n];
+        Arrays.fill(stamps, -1);
+        int[] memberList = new int[Math.max(n, 16)];
+        int memberCount = 0;
+        int[] canopyStarts = new int[Math.max(n / 16, 16) + 1];
+        int nCanopies = 0;
+        final double tight = this.getMinScore();
+        for (int p : this.centerOrder()) {
+            if (candidate[p]) {
+                final int c = nCanopies;
+                // Insure there is room for the canopy and all of its members.
+                final int maxMembers = this.adjStarts[p + 1] - this.adjStarts[p] + 1;
+                if (memberCount + maxMembers > memberList.length)
+                    memberList = Arrays.copyOf(memberList, growLength(memberList.length, memberCount + maxMembers));
+                if (c + 2 > canopyStarts.length)
+                    canopyStarts = Arrays.copyOf(canopyStarts, growLength(canopyStarts.length, c + 2));
+                candidate[p] = false;
+                stamps[p] = c;
+                memberList[memberCount++] = p;
+                for (int a = this.adjStarts[p]; a < this.adjStarts[p + 1]; a++) {
+                    int e = this.adjEdges[a];
+                    int q = this.otherPoint(e, p);
+                    if (stamps[q] != c) {
+                        stamps[q] = c;
+                        memberList[memberCount++] = q;
+                    }
+                    if (this.edges.getScore(e) >= tight)
+                        candidate[q] = false;
+                }
+                // Sort the members so the canopy indices are in the same order as the main ones.
+                Arrays.sort(memberList, canopyStarts[c], memberCount);
+                nCanopies++;
+                canopyStarts[nCanopies] = memberCount;
+            }
+        }
+        stamps = null;
+        candidate = null;
+        log.info("{} canopies formed with {} total members for {} data points.", nCanopies, memberCount, n);
+        // Queue the canopies with more than one member, largest first for better load balancing.
+        final int[] starts = canopyStarts;
+        final int[] allMembers = memberList;
+        List<Integer> queue = new ArrayList<Integer>();
+        for (int c = 0; c < nCanopies; c++) {
+            if (starts[c + 1] - starts[c] > 1)
+                queue.add(c);
+        }
+        queue.sort((a, b) -> Integer.compare(starts[b + 1] - starts[b], starts[a + 1] - starts[a]));
+        log.info("{} non-trivial canopies to cluster.", queue.size());
+        // Cluster the canopies in parallel.  For each one we keep the merges and the size of each member's cluster.
+        // Each thread needs its own index-mapping array.
+        MergeList[] canopyMerges = new MergeList[nCanopies];
+        int[][] canopySizes = new int[nCanopies][];
+        ThreadLocal<int[]> localIndexes = ThreadLocal.withInitial(() -> {
+            int[] retVal = new int[n];
+            Arrays.fill(retVal, -1);
+            return retVal;
+        });
+        ForkJoinPool pool = new ForkJoinPool(this.processor.getThreads());
+        try {
+            pool.submit(() -> queue.parallelStream()
+                    .forEach(c -> {
+                        int[] members = Arrays.copyOfRange(allMembers, starts[c], starts[c + 1]);
+                        MergeList found = this.clusterCanopy(new CanopySource(members, localIndexes.get()),
+                                members.length);
+                        canopySizes[c] = clusterSizes(found, members.length);
+                        canopyMerges[c] = found;
+                    })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error clustering canopies: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        // Assign each data point to the canopy where its cluster is largest.  Ties go to the earlier canopy, whose
+        // center has more neighbors.
+        int[] home = new int[n];
+        int[] homeSizes = new int[n];
+        for (int c = 0; c < nCanopies; c++) {
+            for (int i = starts[c]; i < starts[c + 1]; i++) {
+                int g = allMembers[i];
+                int size = (canopySizes[c] == null ? 1 : canopySizes[c][i - starts[c]]);
+                if (size > homeSizes[g]) {
+                    homeSizes[g] = size;
+                    home[g] = c;
+                }
+            }
+        }
+        // Project the merges of each canopy onto its assigned data points and combine them.
+        MergeList merges = new MergeList(n);
+        for (int c : queue) {
+            int[] members = Arrays.copyOfRange(allMembers, starts[c], starts[c + 1]);
+            merges.addAll(project(canopyMerges[c], members, home, c), members);
+            canopyMerges[c] = null;
+        }
+        log.info("{} merges performed.", merges.size());
+        // Release the edge memory.
+        this.edges = null;
+        this.adjStarts = null;
+        this.adjEdges = null;
+        merges.sort();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+    /**
+     * Build the adjacency list of the edges.  Each edge is listed once for each of its data points.
+     */
+    private void buildAdjacency() {
+        final int n = this.points.size();
+        final int m = this.edges.size();
+        if (2L * m > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many similarities for canopy adjacency list.");
+        this.adjStarts = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            this.adjStarts[this.edges.getP1(e) + 1]++;
+            this.adjStarts[this.edges.getP2(e) + 1]++;
+        }
+        for (int i = 0; i < n; i++)
+            this.adjStarts[i + 1] += this.adjStarts[i];
+        int[] fill = Arrays.copyOf(this.adjStarts, n);
+        this.adjEdges = new int[2 * m];
+        for (int e = 0; e < m; e++) {
+            this.adjEdges[fill[this.edges.getP1(e)]++] = e;
+            this.adjEdges[fill[this.edges.getP2(e)]++] = e;
+        }
+    }
+
+    /**
+     * @return the data points in the order they should be considered as canopy centers, from the most
+     * 		   neighbors to the fewest, with ties broken by data point index
+     */
+    private int[] centerOrder() {
+        final int n = this.points.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long degree = this.adjStarts[i + 1] - this.adjStarts[i];
+            keys[i] = (-degree << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] retVal = new int[n];
+        for (int i = 0; i < n; i++)
+            retVal[i] = (int) keys[i];
+        return retVal;
+    }
+
+    /**
+     * @return the data point at the other end of an edge
+     *
+     * @param e		index of the edge
+     * @param p		data point at one end of the edge
+     */
+    private int otherPoint(int e, int p) {
+        int retVal = this.edges.getP1(e);
+        if (retVal == p)
+            retVal = this.edges.getP2(e);
+        return retVal;
+    }
+
+    /**
+     * @return a new array length at least as big as the minimum and at least double the old length
+     *
+     * @param oldLen	old array length
+     * @param minLen	minimum new length
+     */
+    private static int growLength(int oldLen, int minLen) {
+        long retVal = Math.max((long) minLen, oldLen * 2L);
+        if (minLen > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many canopy members.");
+        return (int) Math.min(retVal, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Cluster a single canopy.
+     *
+     * @param source		similarity source for the canopy
+     * @param size			number of data points in the canopy
+     *
+     * @return the merges performed in the canopy, using canopy indices
+     */
+    private MergeList clusterCanopy(CanopySource source, int size) {
+        MergeList retVal;
+        try {
+            IParms parms = new ComponentClusterEngine.ComponentParms(this.processor, size);
+            ClusterEngine engine = this.innerType.create(parms);
+            engine.load(source);
+            engine.cluster(new double[0]);
+            retVal = engine.getMerges();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ParseFailureException e) {
+            throw new IllegalStateException("Error creating canopy engine: " + e.getMessage(), e);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the size of the cluster containing each data point of a canopy after all of its merges
+     *
+     * @param canopyMerges	list of merges in the canopy, using canopy indices
+     * @param size			number of data points in the canopy
+     */
+    private static int[] clusterSizes(MergeList canopyMerges, int size) {
+        UnionFind forest = new UnionFind(size);
+        forest.ensureSize(size);
+        for (int k = 0; k < canopyMerges.size(); k++)
+            forest.union(canopyMerges.getLeft(k), canopyMerges.getRight(k));
+        int[] counts = new int[size];
+        for (int k = 0; k < size; k++)
+            counts[forest.find(k)]++;
+        int[] retVal = new int[size];
+        for (int k = 0; k < size; k++)
+            retVal[k] = counts[forest.find(k)];
+        return retVal;
+    }
+
+    /**
+     * Project the merges of a canopy onto the data points assigned to it.  The merges are replayed in order, and
+     * each cluster is represented by one of its assigned data points, if it has any.  A merge is kept only if
+     * both of the clusters merged contain assigned data points.
+     *
+     * @param canopyMerges	sorted list of merges in the canopy, using canopy indices
+     * @param members		array of the main data point indices of the canopy members
+     * @param home			array of the canopy to which each data point is assigned
+     * @param c				index of the canopy
+     *
+     * @return the projected merges, using canopy indices
+     */
+    private static MergeList project(MergeList canopyMerges, int[] members, int[] home, int c) {
+        final int size = members.length;
+        UnionFind forest = new UnionFind(size);
+        forest.ensureSize(size);
+        int[] reps = new int[size];
+        for (int k = 0; k < size; k++)
+            reps[k] = (home[members[k]] == c ? k : -1);
+        MergeList retVal = new MergeList(size);
+        for (int k = 0; k < canopyMerges.size(); k++) {
+            int r1 = forest.find(canopyMerges.getLeft(k));
+            int r2 = forest.find(canopyMerges.getRight(k));
+            if (r1 != r2) {
+                int rep1 = reps[r1];
+                int rep2 = reps[r2];
+                forest.union(r1, r2);
+                reps[forest.find(r1)] = (rep1 >= 0 ? rep1 : rep2);
+                if (rep1 >= 0 && rep2 >= 0)
+                    retVal.add(rep1, rep2, canopyMerges.getScore(k));
+            }
+        }
+        return retVal;
+    }
+
+}
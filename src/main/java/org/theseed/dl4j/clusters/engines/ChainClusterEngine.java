@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine uses the nearest-neighbor chain algorithm.  A chain of clusters is built in which each cluster
+ * is the most similar neighbor of its predecessor.  When the last two clusters in the chain are mutual nearest
+ * neighbors, they are merged.  For a reducible merge method (COMPLETE, AVERAGE, SINGLE), this produces the same
+ * merges as repeatedly merging the closest pair, but it takes O(n^2) time instead of O(n^3).
+ *
+ * When similarities are tied, the merges are still performed in an order that repeatedly merging the closest pair
+ * could have chosen, but not necessarily the order the SCAN engine chooses.  For the SINGLE method the clusters are
+ * the same regardless.  For COMPLETE and AVERAGE, tied similarities can produce a different, but equally valid,
+ * hierarchy.  Use the GENERIC or HEAP engine if the result must match the SCAN engine exactly.
+ *
+ * A cluster whose most similar neighbor is below the minimum score can never be merged, because in a reducible
+ * method merging never increases a similarity.  Such clusters are retired from the search.
+ *
+ * The size limit makes the merges non-reducible, so it is not supported by this engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ChainClusterEngine extends MatrixClusterEngine {
+
+    /**
+     * Construct a nearest-neighbor chain engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public ChainClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (! isReducible(this.getMethod()))
+            throw new ParseFailureException("Merge method " + this.getMethod() + " is not supported by the CHAIN engine.");
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The CHAIN engine does not support a maximum cluster size.");
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final int n = this.matrix.size();
+        final double minScore = this.getMinScore();
+        this.startClustering();
+        int[] chain = new int[n];
+        int chainLen = 0;
+        while (this.nActive > 1) {
+            if (chainLen == 0)
+                chain[chainLen++] = this.active[0];
+            int a = chain[chainLen - 1];
+            // Find the nearest neighbor.  Ties go to the predecessor in the chain, which guarantees the
+            // chain terminates.
+            int prev = (chainLen > 1 ? chain[chainLen - 2] : -1);
+            int b = prev;
+            double best = (prev >= 0 ? this.matrix.get(a, prev) : Double.NEGATIVE_INFINITY);
+            for (int k = 0; k < this.nActive; k++) {
+                int c = this.active[k];
+                if (c != a) {
+                    double s = this.matrix.get(a, c);
+                    if (s > best) {
+                        best = s;
+                        b = c;
+                    }
+                }
+            }
+            if (b < 0 || best < minScore || best == Double.NEGATIVE_INFINITY) {
+                // This cluster can never be merged.  Retire it.
+                chainLen--;
+                this.retire(a);
+            } else if (b == prev) {
+                // We have mutual nearest neighbors.  Merge the second into the first.
+                chainLen -= 2;
+                this.mergeClusters(b, a, best);
+                if (log.isInfoEnabled() && this.mergeList.size() % 1000 == 0)
+                    log.info("{} merges performed.", this.mergeList.size());
+            } else
+                chain[chainLen++] = b;
+        }
+        // Release the similarity memory before building the clusters.
+        MergeList merges = this.finishClustering();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+}
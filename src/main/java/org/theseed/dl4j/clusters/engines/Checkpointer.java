@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This object manages the checkpoints for a long-running merge loop.  A checkpoint is the list of merges performed
+ * so far, saved in merge-tree format.  Because the merges are deterministic, an engine can resume by reloading the
+ * similarities, replaying the saved merges, and continuing the loop.
+ *
+ * A checkpoint is due after a specified number of merges or a specified number of minutes, whichever comes first.
+ * The merge list is copied and then written by a background thread, so the merge loop is not stalled.  If the
+ * previous checkpoint is still being written when a new one comes due, the new one is deferred.  Each checkpoint
+ * is written to a temporary file and then renamed, so an interruption never leaves a partial checkpoint.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Checkpointer implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(Checkpointer.class);
+    /** checkpoint file */
+    private File checkFile;
+    /** temporary file for writing checkpoints */
+    private File tempFile;
+    /** number of merges between checkpoints */
+    private int mergeInterval;
+    /** number of milliseconds between checkpoints */
+    private long timeInterval;
+    /** TRUE if we are resuming from an existing checkpoint */
+    private boolean resume;
+    /** merge method for the clustering */
+    private ClusterMergeMethod method;
+    /** floor score for the clustering */
+    private double floorScore;
+    /** maximum cluster size for the clustering */
+    private int maxSize;
+    /** list of data point IDs */
+    private List<String> ids;
+    /** number of merges at the last checkpoint */
+    private int lastCount;
+    /** time of the last checkpoint */
+    private long lastTime;
+    /** background thread for writing checkpoints */
+    private ExecutorService writer;
+    /** result of the checkpoint being written, or NULL if there is none */
+    private Future<?> pending;
+
+    /**
+     * Construct a checkpoint manager.
+     *
+     * @param checkFile		checkpoint file
+     * @param merges		number of merges between checkpoints
+     * @param minutes		number of minutes between checkpoints
+     * @param resume		TRUE to resume from an existing checkpoint
+     */
+    public Checkpointer(File checkFile, int merges, int minutes, boolean resume) {
+        this.checkFile = checkFile;
+        this.tempFile = new File(checkFile.getAbsoluteFile().getParentFile(), checkFile.getName() + ".tmp");
+        this.mergeInterval = merges;
+        this.timeInterval = minutes * 60000L;
+        this.resume = resume;
+        this.pending = null;
+        this.writer = null;
+    }
+
+    /**
+     * Initialize for a clustering run.  If we are resuming, the saved merges are loaded and returned.
+     *
+     * @param method		merge method for the clustering
+     * @param floorScore	floor score for the clustering
+     * @param maxSize		maximum cluster size for the clustering
+     * @param ids			list of data point IDs, in index order
+     *
+     * @return the list of merges to replay, or NULL if we are not resuming
+     *
+     * @throws IOException
+     */
+    public MergeList start(ClusterMergeMethod method, double floorScore, int maxSize, List<String> ids) throws IOException {
+        this.method = method;
+        this.floorScore = floorScore;
+        this.maxSize = maxSize;
+        this.ids = ids;
+        this.lastTime = System.currentTimeMillis();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread retVal = new Thread(r, "checkpoint-writer");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        MergeList retVal = null;
+        if (this.resume) {
+            if (! this.checkFile.exists())
+                log.warn("Checkpoint file {} not found.  Starting from the beginning.", this.checkFile);
+            else {
+                MergeTreeFile saved = new MergeTreeFile(this.checkFile);
+                if (saved.getMethod() != method || saved.getFloorScore() != floorScore || saved.getMaxSize() != maxSize)
+                    throw new IOException("Checkpoint file " + this.checkFile + " was created with different clustering parameters.");
+                if (! saved.getDataPoints().equals(ids))
+                    throw new IOException("Checkpoint file " + this.checkFile + " was created from different input data.");
+                retVal = saved.getMerges();
+                log.info("Resuming from checkpoint with {} merges.", retVal.size());
+            }
+        }
+        this.lastCount = (retVal == null ? 0 : retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Write a checkpoint if one is due.
+     *
+     * @param merges	list of merges performed so far
+     */
+    public void check(MergeList merges) {
+        final int count = merges.size();
+        if (count - this.lastCount >= this.mergeInterval || System.currentTimeMillis() - this.lastTime >= this.timeInterval) {
+            if (this.pending == null || this.pending.isDone()) {
+                final MergeList snapshot = merges.copy();
+                this.pending = this.writer.submit(() -> this.write(snapshot));
+                this.lastCount = count;
+                this.lastTime = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Write a checkpoint.  Errors are logged rather than thrown, since a failed checkpoint should not stop
+     * the clustering.
+     *
+     * @param merges	list of merges to save
+     */
+    private void write(MergeList merges) {
+        try {
+            MergeTreeFile.save(this.tempFile, this.method, this.floorScore, this.maxSize, this.ids, merges);
+            Files.move(this.tempFile.toPath(), this.checkFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.info("Checkpoint of {} merges written to {}.", merges.size(), this.checkFile);
+        } catch (IOException e) {
+            log.error("Error writing checkpoint to {}: {}", this.checkFile, e.toString());
+        }
+    }
+
+    /**
+     * Write a final checkpoint and wait for the background thread to finish.
+     *
+     * @param merges	list of all the merges performed
+     */
+    public void finish(MergeList merges) {
+        this.close();
+        this.write(merges);
+    }
+
+    @Override
+    public void close() {
+        if (this.writer != null) {
+            this.writer.shutdown();
+            try {
+                this.writer.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.writer = null;
+        }
+    }
+
+}
@@ -0,0 +1,373 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This is the base class for clustering engines.  An engine loads the similarity scores from a
+ * similarity source and then computes the clusters.  The different engines use different algorithms
+ * and data structures, but all of them are driven by the same clustering parameters.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class ClusterEngine {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ClusterEngine.class);
+    /** method for computing similarities between clusters */
+    private ClusterMergeMethod method;
+    /** minimum similarity for a merge */
+    private double minScore;
+    /** maximum permissible cluster size */
+    private int maxSize;
+    /** TRUE if the similarities are presumed to be incomplete */
+    private boolean sparse;
+    /** estimated number of data points */
+    private int pointEstimate;
+    /** list of merges performed, or NULL if the engine does not record merges */
+    private MergeList merges;
+
+    /**
+     * This interface describes the parameters a command processor must support for the engines.
+     */
+    public interface IParms {
+
+        /**
+         * @return the clustering method
+         */
+        ClusterMergeMethod getMethod();
+
+        /**
+         * @return the lowest similarity score at which clusters are merged
+         */
+        double getFloorScore();
+
+        /**
+         * @return the maximum allowed cluster size
+         */
+        int getMaxSize();
+
+        /**
+         * @return TRUE if the similarities are presumed to be incomplete
+         */
+        boolean isSparse();
+
+        /**
+         * @return the estimated number of data points
+         */
+        int getPointEstimate();
+
+        /**
+         * @return the type of storage for similarity matrices
+         */
+        SimilarityMatrix.Type getStorage();
+
+        /**
+         * @return the directory for temporary files
+         */
+        File getTempDir();
+
+        /**
+         * @return the checkpoint manager for long-running merge loops, or NULL if there are no checkpoints
+         */
+        Checkpointer getCheckpointer();
+
+        /**
+         * @return the number of threads to use for the similarity updates in the merge loop
+         */
+        int getThreads();
+
+        /**
+         * @return the minimum number of data points, including itself, in the neighborhood of a core point for
+         * 		   density-based clustering
+         */
+        int getMinPoints();
+
+    }
+
+    /**
+     * This enum describes the different engine types.
+     */
+    public static enum Type {
+        /** merge loop on a cluster group */
+        GROUP {
+            @Override
+            public ClusterEngine create(IParms processor) {
+                return new GroupClusterEngine(processor);
+            }
+        },
+        /** nearest-neighbor chain */
+        CHAIN {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new ChainClusterEngine(processor);
+            }
+        },
+        /** SLINK pointer representation for single linkage */
+        SLINK {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new SlinkClusterEngine(processor);
+            }
+        },
+        /** full scan of a condensed similarity matrix */
+        SCAN {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new ScanClusterEngine(processor);
+            }
+        },
+        /** merge loop with cached best partners on a condensed similarity matrix */
+        GENERIC {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new GenericClusterEngine(processor);
+            }
+        },
+        /** merge loop scheduled by a priority queue of candidate pairs */
+        HEAP {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new HeapClusterEngine(processor);
+            }
+        },
+        /** maximum spanning forest for single linkage */
+        MST {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new MstClusterEngine(processor);
+            }
+        },
+        /** Kruskal's algorithm on an externally-sorted edge list for single linkage */
+        KRUSKAL {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new KruskalClusterEngine(processor);
+            }
+        },
+        /** streaming union-find for single linkage at a fixed threshold */
+        UNION {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new UnionClusterEngine(processor);
+            }
+        },
+        /** Louvain community detection on the similarity graph */
+        LOUVAIN {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new LouvainClusterEngine(processor);
+            }
+        },
+        /** density-based clustering of the neighbor graph */
+        DBSCAN {
+            @Override
+            public ClusterEngine create(IParms processor) throws ParseFailureException {
+                return new DbscanClusterEngine(processor);
+            }
+        };
+
+        /**
+         * @return an engine of this type
+         *
+         * @param processor		controlling command processor
+         *
+         * @throws ParseFailureException
+         */
+        public abstract ClusterEngine create(IParms processor) throws ParseFailureException;
+    }
+
+    /**
+     * Construct a clustering engine.
+     *
+     * @param processor		controlling command processor
+     */
+    public ClusterEngine(IParms processor) {
+        this.method = processor.getMethod();
+        this.minScore = processor.getFloorScore();
+        this.merges = null;
+        this.maxSize = processor.getMaxSize();
+        this.sparse = processor.isSparse();
+        this.pointEstimate = processor.getPointEstimate();
+    }
+
+    /**
+     * Load the similarity scores.
+     *
+     * @param source	source of the similarity scores
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    public abstract void load(SimilaritySource source) throws IOException, ParseFailureException;
+
+    /**
+     * @return the number of data points loaded
+     */
+    public abstract int size();
+
+    /**
+     * @return the IDs of the data points loaded
+     */
+    public abstract List<String> getDataPoints();
+
+    /**
+     * @return TRUE if this engine can be used to cluster the connected components of the input separately
+     */
+    public boolean isPartitionable() {
+        return false;
+    }
+
+    /**
+     * Perform the clustering at the minimum score.
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     */
+    public List<ClusterResult> cluster() {
+        return this.cluster(new double[] { this.minScore }).get(0);
+    }
+
+    /**
+     * Perform the clustering down to the minimum score and return the clusters present at each of one or more
+     * thresholds.  Because merges never increase the similarity between clusters, the clusters at a threshold
+     * are exactly those formed by the merges at or above it.  An empty threshold array performs the merges
+     * without building any cluster lists.
+     *
+     * @param thresholds	array of similarity thresholds, all at or above the minimum score
+     *
+     * @return a list of cluster lists, one per threshold in the same order, each sorted from largest to smallest
+     */
+    public abstract List<List<ClusterResult>> cluster(double[] thresholds);
+
+    /**
+     * Save a list of merges and use it to compute the clusters at each of one or more thresholds.  Merges that
+     * would exceed the size limit are skipped.  This has no effect on merges that already honor the limit.
+     *
+     * @param mergeList		list of merges performed, in order from highest score to lowest
+     * @param points		dictionary of data point IDs
+     * @param thresholds	array of similarity thresholds
+     *
+     * @return a list of cluster lists, one per threshold in the same order
+     */
+    protected List<List<ClusterResult>> cut(MergeList mergeList, PointDictionary points, double[] thresholds) {
+        this.merges = mergeList;
+        List<List<ClusterResult>> retVal = new ArrayList<List<ClusterResult>>(thresholds.length);
+        for (double threshold : thresholds)
+            retVal.add(mergeList.getClusters(points, threshold, this.maxSize));
+        return retVal;
+    }
+
+    /**
+     * Build the cluster list for a labeling of the data points.  This is used by the engines that compute the
+     * clusters directly instead of recording merges.  Every cluster with more than one member is reported with a
+     * height of 1.
+     *
+     * @param ids		list of data point IDs
+     * @param labels	cluster number of each data point
+     * @param count		number of clusters
+     * @param scores	similarity score to report for each cluster with more than one member
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     */
+    protected static List<ClusterResult> labelClusters(List<String> ids, int[] labels, int count, double[] scores) {
+        final int n = labels.length;
+        // Count the members of each cluster and compute where each starts in a combined member array.
+        int[] starts = new int[count + 1];
+        for (int i = 0; i < n; i++)
+            starts[labels[i] + 1]++;
+        for (int c = 0; c < count; c++)
+            starts[c + 1] += starts[c];
+        int[] fill = Arrays.copyOf(starts, count);
+        int[] members = new int[n];
+        for (int i = 0; i < n; i++)
+            members[fill[labels[i]]++] = i;
+        List<ClusterResult> retVal = new ArrayList<ClusterResult>(count);
+        for (int c = 0; c < count; c++) {
+            int[] clusterMembers = Arrays.copyOfRange(members, starts[c], starts[c + 1]);
+            ClusterResult cluster;
+            if (clusterMembers.length == 1)
+                cluster = new ClusterResult(ids, clusterMembers, 0, 0.0);
+            else
+                cluster = new ClusterResult(ids, clusterMembers, 1, scores[c]);
+            retVal.add(cluster);
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the list of merges performed, or NULL if this engine does not record merges
+     */
+    public MergeList getMerges() {
+        return this.merges;
+    }
+
+    /**
+     * @return TRUE if the merge method is reducible and has a Lance-Williams formula
+     *
+     * @param method	merge method to check
+     */
+    public static boolean isReducible(ClusterMergeMethod method) {
+        boolean retVal;
+        switch (method) {
+        case SINGLE :
+        case COMPLETE :
+        case AVERAGE :
+            retVal = true;
+            break;
+        default :
+            retVal = false;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the merge method
+     */
+    public ClusterMergeMethod getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return the minimum similarity for a merge
+     */
+    public double getMinScore() {
+        return this.minScore;
+    }
+
+    /**
+     * @return the maximum permissible cluster size
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return TRUE if the similarities are presumed to be incomplete
+     */
+    public boolean isSparse() {
+        return this.sparse;
+    }
+
+    /**
+     * @return the estimated number of data points
+     */
+    public int getPointEstimate() {
+        return this.pointEstimate;
+    }
+
+}
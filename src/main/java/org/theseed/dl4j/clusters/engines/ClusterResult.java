@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.theseed.clusters.Cluster;
+
+/**
+ * This object represents a finished cluster produced by a clustering engine.  It contains the cluster ID,
+ * the IDs of the member data points, the height of the merge tree, and the similarity score of the last merge.
+ * The cluster reports work from this object, so that every engine can use the same reports.
+ *
+ * The engines that work on data point indices store the members as an index array, and the IDs are only looked
+ * up when the report asks for them.
+ *
+ * The natural ordering is by size (largest first) and then by ID.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ClusterResult implements Comparable<ClusterResult> {
+
+    // FIELDS
+    /** ID of this cluster */
+    private String id;
+    /** IDs of the data points in this cluster */
+    private List<String> members;
+    /** height of the merge tree */
+    private int height;
+    /** similarity score of the last merge */
+    private double score;
+
+    /**
+     * Construct a cluster result.
+     *
+     * @param id		ID of the cluster
+     * @param members	list of member data point IDs
+     * @param height	height of the cluster's merge tree
+     * @param score		similarity score of the last merge
+     */
+    public ClusterResult(String id, List<String> members, int height, double score) {
+        this.id = id;
+        this.members = members;
+        this.height = height;
+        this.score = score;
+    }
+
+    /**
+     * This is a read-only list view of member IDs stored as data point indices.
+     */
+    private static class IndexedMemberList extends AbstractList<String> implements RandomAccess {
+
+        /** list of data point IDs by index */
+        private List<String> ids;
+        /** indices of the members */
+        private int[] members;
+
+        /**
+         * Construct a member list view.
+         *
+         * @param ids		list of data point IDs by index
+         * @param members	indices of the members
+         */
+        public IndexedMemberList(List<String> ids, int[] members) {
+            this.ids = ids;
+            this.members = members;
+        }
+
+        @Override
+        public String get(int index) {
+            return this.ids.get(this.members[index]);
+        }
+
+        @Override
+        public int size() {
+            return this.members.length;
+        }
+
+    }
+
+    /**
+     * Construct a cluster result from data point indices.  The ID of the cluster is the ID of the first member.
+     *
+     * @param ids		list of data point IDs by index
+     * @param members	indices of the member data points
+     * @param height	height of the cluster's merge tree
+     * @param score		similarity score of the last merge
+     */
+    public ClusterResult(List<String> ids, int[] members, int height, double score) {
+        this(ids.get(members[0]), new IndexedMemberList(ids, members), height, score);
+    }
+
+    /**
+     * @return a cluster result built from a cluster in a cluster group
+     *
+     * @param cluster	source cluster
+     */
+    public static ClusterResult from(Cluster cluster) {
+        List<String> members = new ArrayList<String>(cluster.size());
+        for (String member : cluster.getMembers())
+            members.add(member);
+        return new ClusterResult(cluster.getId(), members, cluster.getHeight(), cluster.getScore());
+    }
+
+    /**
+     * @return the ID of this cluster
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the IDs of the data points in this cluster
+     */
+    public List<String> getMembers() {
+        return this.members;
+    }
+
+    /**
+     * @return the number of data points in this cluster
+     */
+    public int size() {
+        return this.members.size();
+    }
+
+    /**
+     * @return the height of this cluster's merge tree
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the similarity score of the last merge
+     */
+    public double getScore() {
+        return this.score;
+    }
+
+    @Override
+    public int compareTo(ClusterResult o) {
+        int retVal = o.members.size() - this.members.size();
+        if (retVal == 0)
+            retVal = this.id.compareTo(o.id);
+        return retVal;
+    }
+
+    @Override
+    public String toString() {
+        return this.id + " (" + this.members.size() + ")";
+    }
+
+}
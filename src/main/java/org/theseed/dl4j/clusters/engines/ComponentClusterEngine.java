@@ -0,0 +1,328 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This engine splits the data points into connected components before clustering.  In a reducible merge method,
+ * the similarity between two clusters is never greater than the best similarity between their members, so two
+ * data points can only end up in the same cluster if they are connected by a path of similarities at or above the
+ * minimum score.  Each connected component of that threshold graph can therefore be clustered independently, and
+ * the results are the same as clustering the whole set at once.
+ *
+ * The similarities are loaded into an edge list, and the components are found using a disjoint-set forest that is
+ * updated as each similarity is read.  Each non-trivial component is then clustered by its own inner engine on a
+ * fork-join pool with the number of threads specified by the controlling processor.  The members of each component
+ * are numbered in the same order as in the full data set, so ties are resolved the same way they would be without
+ * the split, and the merges are combined in component order, so the merge tree is the same from run to run.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ComponentClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** controlling command processor */
+    private IParms processor;
+    /** type of engine for each component */
+    private ClusterEngine.Type innerType;
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** list of similarity edges */
+    private EdgeList edges;
+    /** connected components of the similarities at or above the minimum score */
+    private UnionFind components;
+
+    /**
+     * This object describes the parameters for clustering a single component.  It is the same as the parameters
+     * of the main engine, except that the exact number of data points is known.  It is also used by the canopy
+     * engine for clustering each canopy.
+     */
+    static class ComponentParms implements IParms {
+
+        /** parameters of the main engine */
+        private IParms parent;
+        /** number of data points in the component */
+        private int size;
+
+        /**
+         * Construct the parameters for a component.
+         *
+         * @param parent	parameters of the main engine
+         * @param size		number of data points in the component
+         */
+        public ComponentParms(IParms parent, int size) {
+            this.parent = parent;
+            this.size = size;
+        }
+
+        @Override
+        public ClusterMergeMethod getMethod() {
+            return this.parent.getMethod();
+        }
+
+        @Override
+        public double getFloorScore() {
+            return this.parent.getFloorScore();
+        }
+
+        @Override
+        public int getMaxSize() {
+            return this.parent.getMaxSize();
+        }
+
+        @Override
+        public boolean isSparse() {
+            return true;
+        }
+
+        @Override
+        public int getPointEstimate() {
+            return this.size;
+        }
+
+        @Override
+        public SimilarityMatrix.Type getStorage() {
+            return this.parent.getStorage();
+        }
+
+        @Override
+        public File getTempDir() {
+            return this.parent.getTempDir();
+        }
+
+        @Override
+        public Checkpointer getCheckpointer() {
+            return null;
+        }
+
+        @Override
+        public int getThreads() {
+            // The components are already clustered in parallel.
+            return 1;
+        }
+
+        @Override
+        public int getMinPoints() {
+            return this.parent.getMinPoints();
+        }
+
+    }
+
+    /**
+     * This object presents the edges of a single component as a similarity source.  The members are interned in
+     * ascending order of their main data point indices before any edges are passed, so the component indices are
+     * in the same order as the main ones, and each data point ID is only interned once.
+     */
+    private class ComponentSource extends SimilaritySource {
+
+        /** sorted edge indices */
+        private int[] edgeOrder;
+        /** position of the first edge for the component */
+        private int start;
+        /** position past the last edge for the component */
+        private int end;
+        /** main data point index for each component index */
+        private int[] globals;
+        /** component index for each main data point index, shared by all the components */
+        private int[] localIndex;
+
+        /**
+         * Construct a similarity source for a component.
+         *
+         * @param edgeOrder		array of edge indices sorted by component
+         * @param start			position of the component's first edge
+         * @param end			position past the component's last edge
+         * @param globals		array of the main data point indices of the members, in ascending order
+         * @param localIndex	array mapping main data point indices to component indices; since the components
+         * 						are disjoint, one array can be shared by all of them
+         */
+        public ComponentSource(int[] edgeOrder, int start, int end, int[] globals, int[] localIndex) {
+            this.edgeOrder = edgeOrder;
+            this.start = start;
+            this.end = end;
+            this.globals = globals;
+            this.localIndex = localIndex;
+        }
+
+        @Override
+        public long scan(PointDictionary compPoints, Visitor visitor) {
+            final ComponentClusterEngine parent = ComponentClusterEngine.this;
+            for (int g : this.globals)
+                compPoints.intern(parent.points.get(g));
+            final EdgeList edgeList = parent.edges;
+            for (int i = this.start; i < this.end; i++) {
+                int k = this.edgeOrder[i];
+                visitor.accept(this.localIndex[edgeList.getP1(k)], this.localIndex[edgeList.getP2(k)],
+                        edgeList.getScore(k));
+            }
+            return this.end - this.start;
+        }
+
+    }
+
+    /**
+     * Construct a connected-component engine.
+     *
+     * @param processor		controlling command processor
+     * @param innerType		type of engine to use for each component
+     *
+     * @throws ParseFailureException
+     */
+    public ComponentClusterEngine(IParms processor, ClusterEngine.Type innerType) throws ParseFailureException {
+        super(processor);
+        this.processor = processor;
+        this.innerType = innerType;
+        if (! isReducible(this.getMethod()))
+            throw new ParseFailureException("Merge method " + this.getMethod() + " cannot be partitioned into components.");
+        if (! innerType.create(processor).isPartitionable())
+            throw new ParseFailureException("The " + innerType + " engine cannot be used on components.");
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.edges = new EdgeList(this.getPointEstimate());
+        this.components = new UnionFind(this.getPointEstimate());
+        final double minScore = this.getMinScore();
+        final EdgeList edgeList = this.edges;
+        final UnionFind forest = this.components;
+        source.scan(this.points, (p1, p2, score) -> {
+            edgeList.accept(p1, p2, score);
+            if (score >= minScore) {
+                forest.ensureSize(Math.max(p1, p2) + 1);
+                forest.union(p1, p2);
+            }
+        });
+        this.components.ensureSize(this.points.size());
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final int n = this.points.size();
+        final int m = this.edges.size();
+        final double minScore = this.getMinScore();
+        // Number the connected components of the threshold graph.
+        final int nComps = this.components.getSetCount();
+        int[] compNums = this.components.getSetNumbers();
+        this.components = null;
+        log.info("{} data points form {} connected components at threshold {}.", n, nComps, minScore);
+        // Count the data points and edges in each component.  Edges between components are below the threshold
+        // and are discarded.
+        int[] compSizes = new int[nComps];
+        for (int i = 0; i < n; i++)
+            compSizes[compNums[i]]++;
+        int[] edgeStarts = new int[nComps + 1];
+        for (int k = 0; k < m; k++) {
+            int c = compNums[this.edges.getP1(k)];
+            if (c == compNums[this.edges.getP2(k)])
+                edgeStarts[c + 1]++;
+        }
+        for (int c = 0; c < nComps; c++)
+            edgeStarts[c + 1] += edgeStarts[c];
+        // Sort the edges by component.  The sort is stable, so each component sees its edges in input order.
+        int[] fill = Arrays.copyOf(edgeStarts, nComps);
+        int[] edgeOrder = new int[edgeStarts[nComps]];
+        for (int k = 0; k < m; k++) {
+            int c = compNums[this.edges.getP1(k)];
+            if (c == compNums[this.edges.getP2(k)])
+                edgeOrder[fill[c]++] = k;
+        }
+        // Singletons have no merges.  The other components are queued for clustering, largest first for
+        // better load balancing.
+        List<Integer> queue = new ArrayList<Integer>();
+        int[][] compGlobals = new int[nComps][];
+        for (int c = 0; c < nComps; c++) {
+            if (compSizes[c] > 1) {
+                queue.add(c);
+                compGlobals[c] = new int[compSizes[c]];
+            }
+        }
+        // List the members of each component in ascending order, and compute each member's index in its
+        // component.
+        int[] localIndex = new int[n];
+        int[] memberCounts = new int[nComps];
+        for (int i = 0; i < n; i++) {
+            int c = compNums[i];
+            if (compGlobals[c] != null) {
+                localIndex[i] = memberCounts[c];
+                compGlobals[c][memberCounts[c]++] = i;
+            }
+        }
+        queue.sort((a, b) -> Integer.compare(compSizes[b], compSizes[a]));
+        log.info("{} non-trivial components to cluster.", queue.size());
+        // Cluster the non-trivial components in parallel.  Each component's merges are kept separately, so they can
+        // be combined in component order no matter which threads finish first.
+        MergeList[] compMerges = new MergeList[nComps];
+        ForkJoinPool pool = new ForkJoinPool(this.processor.getThreads());
+        try {
+            pool.submit(() -> queue.parallelStream()
+                    .forEach(c -> {
+                        ComponentSource source = new ComponentSource(edgeOrder, edgeStarts[c], edgeStarts[c+1],
+                                compGlobals[c], localIndex);
+                        compMerges[c] = this.clusterComponent(compSizes[c], source);
+                    })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error clustering components: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        // Translate the merges to the main data point indices and combine them into a single merge list.
+        MergeList merges = new MergeList(n);
+        for (int c = 0; c < nComps; c++) {
+            if (compMerges[c] != null)
+                merges.addAll(compMerges[c], compGlobals[c]);
+        }
+        log.info("{} merges performed.", merges.size());
+        // Release the edge memory.
+        this.edges = null;
+        merges.sort();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+    /**
+     * Cluster a single component.
+     *
+     * @param size			number of data points in the component
+     * @param source		similarity source for the component
+     *
+     * @return the merges performed in the component, using component indices
+     */
+    private MergeList clusterComponent(int size, ComponentSource source) {
+        MergeList retVal;
+        try {
+            ClusterEngine engine = this.innerType.create(new ComponentParms(this.processor, size));
+            engine.load(source);
+            engine.cluster(new double[0]);
+            retVal = engine.getMerges();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ParseFailureException e) {
+            throw new IllegalStateException("Error creating component engine: " + e.getMessage(), e);
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,204 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs density-based clustering in the style of DBSCAN.  Two data points are neighbors if their
+ * similarity is at or above the threshold, and a data point is a core point if it has enough neighbors, counting
+ * itself, to reach the minimum number of points.  The neighbors are stored in compressed sparse rows, and the core
+ * points are found in parallel from the row lengths.
+ *
+ * Each cluster is grown from the lowest-numbered unlabeled core point by a breadth-first search over the core
+ * points, one frontier at a time.  Large frontiers are expanded in parallel, with each core point claimed by an
+ * atomic update.  The clusters of the core points are the connected components of the core graph, so they do
+ * not depend on the search order.  A non-core point with core neighbors is a border point, and joins the cluster
+ * of its most similar core neighbor, with ties going to the lower cluster number.  The remaining points are noise,
+ * and are reported as singletons.  The whole process takes time roughly proportional to the number of similarities
+ * kept.
+ *
+ * The score of each cluster is the mean similarity of the neighbor pairs inside it, and every cluster with more
+ * than one member is reported with a height of 1.  Each threshold is clustered separately, so there is no merge
+ * tree.  The merge method is not used, and the size limit is not supported.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DbscanClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** list of similarities at or above the minimum score */
+    private EdgeList edges;
+    /** minimum number of points, including itself, in the neighborhood of a core point */
+    private int minPoints;
+    /** number of threads for the searches */
+    private int threads;
+    /** smallest frontier to expand in parallel */
+    private static final int PARALLEL_FRONTIER = 1024;
+
+    /**
+     * Construct a density-based engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public DbscanClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The DBSCAN engine does not support a maximum cluster size.");
+        this.minPoints = processor.getMinPoints();
+        this.threads = processor.getThreads();
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.edges = new EdgeList(this.getPointEstimate());
+        final double minScore = this.getMinScore();
+        long pairs = source.scan(this.points, (p1, p2, score) -> {
+            if (score >= minScore && p1 != p2)
+                this.edges.accept(p1, p2, score);
+        });
+        log.info("{} of {} similarities kept for {} data points.", this.edges.size(), pairs, this.points.size());
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        List<List<ClusterResult>> retVal = new ArrayList<List<ClusterResult>>(thresholds.length);
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            for (double threshold : thresholds) {
+                NeighborGraph neighbors = new NeighborGraph(this.edges, this.points.size(), threshold);
+                retVal.add(this.findClusters(neighbors, threshold, pool));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error computing density clusters: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the clusters for a single threshold.
+     *
+     * @param neighbors		graph of the similarities at or above the threshold
+     * @param threshold		minimum similarity for a neighbor
+     * @param pool			thread pool for the searches
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     *
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private List<ClusterResult> findClusters(NeighborGraph neighbors, double threshold, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        final int n = neighbors.size();
+        final int[] starts = neighbors.getStarts();
+        final int[] targets = neighbors.getTargets();
+        final double[] scores = neighbors.getScores();
+        // Find the core points.  The filtered stream keeps them in order.
+        final int minNeighbors = this.minPoints - 1;
+        int[] cores = pool.submit(() -> IntStream.range(0, n).parallel()
+                .filter(v -> neighbors.degree(v) >= minNeighbors).toArray()).get();
+        final boolean[] isCore = new boolean[n];
+        for (int v : cores)
+            isCore[v] = true;
+        // Grow the clusters of the core points.
+        AtomicIntegerArray coreLabels = new AtomicIntegerArray(n);
+        for (int v = 0; v < n; v++)
+            coreLabels.set(v, -1);
+        int count = 0;
+        for (int seed : cores) {
+            if (coreLabels.get(seed) < 0) {
+                final int label = count;
+                count++;
+                coreLabels.set(seed, label);
+                int[] frontier = new int[] { seed };
+                while (frontier.length > 0) {
+                    final int[] current = frontier;
+                    if (current.length < PARALLEL_FRONTIER)
+                        frontier = expand(IntStream.of(current), neighbors, isCore, coreLabels, label);
+                    else
+                        frontier = pool.submit(() -> expand(IntStream.of(current).parallel(), neighbors, isCore,
+                                coreLabels, label)).get();
+                }
+            }
+        }
+        final int coreClusters = count;
+        // Assign the border points to the cluster of their most similar core neighbor.
+        int[] labels = pool.submit(() -> IntStream.range(0, n).parallel().map(v -> {
+            int retVal = coreLabels.get(v);
+            if (! isCore[v]) {
+                double best = Double.NEGATIVE_INFINITY;
+                for (int a = starts[v]; a < starts[v + 1]; a++) {
+                    int t = targets[a];
+                    if (isCore[t]) {
+                        int label = coreLabels.get(t);
+                        if (scores[a] > best || scores[a] == best && label < retVal) {
+                            best = scores[a];
+                            retVal = label;
+                        }
+                    }
+                }
+            }
+            return retVal;
+        }).toArray()).get();
+        // The remaining points are noise.  Each one is its own cluster.
+        int noise = 0;
+        for (int v = 0; v < n; v++) {
+            if (labels[v] < 0) {
+                labels[v] = count;
+                count++;
+                noise++;
+            }
+        }
+        log.info("{} core points form {} clusters at threshold {}. {} noise points.", cores.length, coreClusters,
+                threshold, noise);
+        return labelClusters(this.points.getIds(), labels, count, neighbors.meanScores(labels, count));
+    }
+
+    /**
+     * Expand a search frontier.  Each unlabeled core neighbor of a frontier point is claimed for the cluster, and
+     * the claimed points form the next frontier.
+     *
+     * @param frontier		stream of the points in the current frontier
+     * @param neighbors		graph of the similarities at or above the threshold
+     * @param isCore		array of core-point flags
+     * @param coreLabels	cluster number of each core point, or -1 if it has not been claimed
+     * @param label			cluster number being grown
+     *
+     * @return the next frontier
+     */
+    private static int[] expand(IntStream frontier, NeighborGraph neighbors, boolean[] isCore,
+            AtomicIntegerArray coreLabels, int label) {
+        final int[] starts = neighbors.getStarts();
+        final int[] targets = neighbors.getTargets();
+        return frontier.flatMap(v -> IntStream.range(starts[v], starts[v + 1]).map(a -> targets[a])
+                .filter(t -> isCore[t] && coreLabels.compareAndSet(t, -1, label))).toArray();
+    }
+
+}
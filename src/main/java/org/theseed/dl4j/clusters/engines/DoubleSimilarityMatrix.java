@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This is a condensed similarity matrix that stores the similarities as double-precision values on the heap.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DoubleSimilarityMatrix extends SimilarityMatrix {
+
+    // FIELDS
+    /** storage chunks */
+    private double[][] chunks;
+
+    /**
+     * Construct an empty double-precision similarity matrix.
+     *
+     * @param capacity	expected number of data points
+     */
+    public DoubleSimilarityMatrix(int capacity) {
+        this.chunks = new double[0][];
+        this.reserve(capacity);
+    }
+
+    @Override
+    protected void allocate(long oldCount, long newCount) {
+        int nChunks = chunkCount(newCount);
+        if (nChunks > this.chunks.length)
+            this.chunks = Arrays.copyOf(this.chunks, nChunks);
+        for (int c = 0; c < nChunks; c++) {
+            int newLen = chunkLength(c, newCount);
+            double[] chunk = this.chunks[c];
+            int oldLen = (chunk == null ? 0 : chunk.length);
+            if (newLen > oldLen) {
+                chunk = (chunk == null ? new double[newLen] : Arrays.copyOf(chunk, newLen));
+                Arrays.fill(chunk, oldLen, newLen, Double.NEGATIVE_INFINITY);
+                this.chunks[c] = chunk;
+            }
+        }
+    }
+
+    @Override
+    protected void release() {
+        this.chunks = new double[0][];
+    }
+
+    @Override
+    protected double getEntry(long idx) {
+        return this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)];
+    }
+
+    @Override
+    protected void setEntry(long idx, double score) {
+        this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)] = score;
+    }
+
+    @Override
+    protected int entryBytes() {
+        return Double.BYTES;
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This object holds a list of similarity edges in primitive arrays.  Each edge consists of two data point indices
+ * and a similarity score.  The edges are kept in the order they were added.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class EdgeList implements SimilaritySource.Visitor {
+
+    // FIELDS
+    /** first data point of each edge */
+    private int[] p1s;
+    /** second data point of each edge */
+    private int[] p2s;
+    /** similarity score of each edge */
+    private double[] scores;
+    /** number of edges in the list */
+    private int count;
+
+    /**
+     * Construct an empty edge list.
+     *
+     * @param capacity	expected number of edges
+     */
+    public EdgeList(int capacity) {
+        capacity = Math.max(capacity, 10);
+        this.p1s = new int[capacity];
+        this.p2s = new int[capacity];
+        this.scores = new double[capacity];
+        this.count = 0;
+    }
+
+    @Override
+    public void accept(int p1, int p2, double score) {
+        if (this.count >= this.p1s.length) {
+            int newLen = (int) Math.min(Integer.MAX_VALUE - 8, this.p1s.length * 2L);
+            if (newLen <= this.count)
+                throw new IllegalStateException("Too many edges for an in-memory edge list.");
+            this.p1s = Arrays.copyOf(this.p1s, newLen);
+            this.p2s = Arrays.copyOf(this.p2s, newLen);
+            this.scores = Arrays.copyOf(this.scores, newLen);
+        }
+        this.p1s[this.count] = p1;
+        this.p2s[this.count] = p2;
+        this.scores[this.count] = score;
+        this.count++;
+    }
+
+    /**
+     * @return the number of edges in the list
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return the first data point of an edge
+     *
+     * @param k		index of the edge
+     */
+    public int getP1(int k) {
+        return this.p1s[k];
+    }
+
+    /**
+     * @return the second data point of an edge
+     *
+     * @param k		index of the edge
+     */
+    public int getP2(int k) {
+        return this.p2s[k];
+    }
+
+    /**
+     * @return the similarity score of an edge
+     *
+     * @param k		index of the edge
+     */
+    public double getScore(int k) {
+        return this.scores[k];
+    }
+
+}
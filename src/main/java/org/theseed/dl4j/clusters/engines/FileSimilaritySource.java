@@ -0,0 +1,215 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object describes a tab-delimited input file of similarity scores.  Each record contains two data point IDs
+ * and a score.  The IDs and the score are located by column specifiers.  A record whose score is blank or is not a
+ * valid number is skipped, the same as one whose score is not finite.
+ *
+ * If no file is specified, the similarities are read from the standard input.  Input compressed with gzip or
+ * zstd is detected from its first bytes and decompressed transparently, whether it comes from a file or the
+ * standard input.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FileSimilaritySource extends SimilaritySource {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(FileSimilaritySource.class);
+    /** input file */
+    private File inFile;
+    /** index (1-based) or name of first data point ID column */
+    private String col1Name;
+    /** index (1-based) or name of second data point ID column */
+    private String col2Name;
+    /** index (1-based) or name of score column */
+    private String scoreName;
+    /** gzip signature */
+    private static final byte[] GZIP_MAGIC = new byte[] { (byte) 0x1F, (byte) 0x8B };
+    /** zstd signature */
+    private static final byte[] ZSTD_MAGIC = new byte[] { (byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD };
+
+    /**
+     * Construct a similarity source for a tab-delimited file.
+     *
+     * @param inFile		input file, or NULL to use the standard input
+     * @param col1Name		index (1-based) or name of first data point ID column
+     * @param col2Name		index (1-based) or name of second data point ID column
+     * @param scoreName		index (1-based) or name of score column
+     */
+    public FileSimilaritySource(File inFile, String col1Name, String col2Name, String scoreName) {
+        this.inFile = inFile;
+        this.col1Name = col1Name;
+        this.col2Name = col2Name;
+        this.scoreName = scoreName;
+    }
+
+    @Override
+    public long scan(PointDictionary points, Visitor visitor) throws IOException {
+        long retVal = 0;
+        int skipped = 0;
+        try (TabbedLineReader inStream = new TabbedLineReader(openInput(this.inFile))) {
+            int c1 = inStream.findField(this.col1Name);
+            int c2 = inStream.findField(this.col2Name);
+            int sc = inStream.findField(this.scoreName);
+            log.info("Reading similarities from {}.", (this.inFile == null ? "the standard input" : this.inFile));
+            for (TabbedLineReader.Line line : inStream) {
+                int p1 = points.intern(line.get(c1));
+                int p2 = points.intern(line.get(c2));
+                double score = parseScore(line.get(sc));
+                if (p1 == p2 || ! Double.isFinite(score))
+                    skipped++;
+                else {
+                    visitor.accept(p1, p2, score);
+                    retVal++;
+                    if (log.isInfoEnabled() && retVal % 1000000 == 0)
+                        log.info("{} similarities read.", retVal);
+                }
+            }
+        }
+        log.info("{} similarities read for {} data points. {} skipped.", retVal, points.size(), skipped);
+        return retVal;
+    }
+
+    /**
+     * @return the score in a field, or NaN if the field is blank or not a valid number
+     *
+     * @param field		field to parse
+     */
+    protected static double parseScore(String field) {
+        double retVal;
+        try {
+            retVal = Double.parseDouble(field.trim());
+        } catch (NumberFormatException e) {
+            retVal = Double.NaN;
+        }
+        return retVal;
+    }
+
+    /**
+     * Open an input file for reading, decompressing it if necessary.
+     *
+     * @param inFile	input file, or NULL to use the standard input
+     *
+     * @return an input stream for the uncompressed data
+     *
+     * @throws IOException
+     */
+    public static InputStream openInput(File inFile) throws IOException {
+        InputStream rawStream = (inFile == null ? System.in : new FileInputStream(inFile));
+        BufferedInputStream retVal = new BufferedInputStream(rawStream, 1 << 16);
+        byte[] header = new byte[ZSTD_MAGIC.length];
+        retVal.mark(header.length);
+        int n = retVal.readNBytes(header, 0, header.length);
+        retVal.reset();
+        InputStream decompressed;
+        if (startsWith(header, n, GZIP_MAGIC))
+            decompressed = new GzipCompressorInputStream(retVal, true);
+        else if (startsWith(header, n, ZSTD_MAGIC))
+            decompressed = new ZstdCompressorInputStream(retVal);
+        else
+            decompressed = null;
+        return (decompressed == null ? retVal : new BufferedInputStream(decompressed, 1 << 16));
+    }
+
+    /**
+     * @return TRUE if a file is compressed
+     *
+     * @param inFile	file to check
+     *
+     * @throws IOException
+     */
+    public static boolean isCompressed(File inFile) throws IOException {
+        byte[] header = new byte[ZSTD_MAGIC.length];
+        int n;
+        try (InputStream inStream = new FileInputStream(inFile)) {
+            n = inStream.readNBytes(header, 0, header.length);
+        }
+        return (startsWith(header, n, GZIP_MAGIC) || startsWith(header, n, ZSTD_MAGIC));
+    }
+
+    /**
+     * @return TRUE if a buffer starts with a signature
+     *
+     * @param buffer	buffer to check
+     * @param n			number of valid bytes in the buffer
+     * @param magic		signature to look for
+     */
+    private static boolean startsWith(byte[] buffer, int n, byte[] magic) {
+        boolean retVal = (n >= magic.length);
+        for (int i = 0; retVal && i < magic.length; i++)
+            retVal = (buffer[i] == magic[i]);
+        return retVal;
+    }
+
+    /**
+     * @return the index of a column in a header line that was split by hand
+     *
+     * @param headers	array of column headers
+     * @param spec		index (1-based) or name of the column
+     *
+     * @throws IOException
+     */
+    protected static int findColumn(String[] headers, String spec) throws IOException {
+        int retVal = -1;
+        for (int i = 0; i < headers.length && retVal < 0; i++) {
+            if (headers[i].equals(spec))
+                retVal = i;
+        }
+        if (retVal < 0) {
+            try {
+                retVal = Integer.parseInt(spec) - 1;
+            } catch (NumberFormatException e) {
+                retVal = -1;
+            }
+            if (retVal < 0 || retVal >= headers.length)
+                throw new IOException("Input column \"" + spec + "\" not found.");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the input file, or NULL if the input is the standard input
+     */
+    public File getFile() {
+        return this.inFile;
+    }
+
+    /**
+     * @return the first data point ID column specifier
+     */
+    public String getCol1Name() {
+        return this.col1Name;
+    }
+
+    /**
+     * @return the second data point ID column specifier
+     */
+    public String getCol2Name() {
+        return this.col2Name;
+    }
+
+    /**
+     * @return the score column specifier
+     */
+    public String getScoreName() {
+        return this.scoreName;
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This is a condensed similarity matrix that stores the similarities as single-precision values on the heap.
+ * It uses half the memory of the double-precision matrix, but the similarities are limited to about seven
+ * significant digits.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class FloatSimilarityMatrix extends SimilarityMatrix {
+
+    // FIELDS
+    /** storage chunks */
+    private float[][] chunks;
+
+    /**
+     * Construct an empty single-precision similarity matrix.
+     *
+     * @param capacity	expected number of data points
+     */
+    public FloatSimilarityMatrix(int capacity) {
+        this.chunks = new float[0][];
+        this.reserve(capacity);
+    }
+
+    @Override
+    protected void allocate(long oldCount, long newCount) {
+        int nChunks = chunkCount(newCount);
+        if (nChunks > this.chunks.length)
+            this.chunks = Arrays.copyOf(this.chunks, nChunks);
+        for (int c = 0; c < nChunks; c++) {
+            int newLen = chunkLength(c, newCount);
+            float[] chunk = this.chunks[c];
+            int oldLen = (chunk == null ? 0 : chunk.length);
+            if (newLen > oldLen) {
+                chunk = (chunk == null ? new float[newLen] : Arrays.copyOf(chunk, newLen));
+                Arrays.fill(chunk, oldLen, newLen, Float.NEGATIVE_INFINITY);
+                this.chunks[c] = chunk;
+            }
+        }
+    }
+
+    @Override
+    protected void release() {
+        this.chunks = new float[0][];
+    }
+
+    @Override
+    protected double getEntry(long idx) {
+        return this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)];
+    }
+
+    @Override
+    protected void setEntry(long idx, double score) {
+        this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)] = (float) score;
+    }
+
+    @Override
+    protected int entryBytes() {
+        return Float.BYTES;
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs the same merge loop as the matrix-scan engine, but instead of scanning all the active
+ * pairs for each merge, it caches the best mergeable partner of each cluster, as in Muellner's generic
+ * algorithm.  The closest pair is found by scanning the cached values, and after a merge only the rows that could
+ * have changed are recomputed:  the merged cluster itself and the clusters whose cached partner was one of the two
+ * merged clusters.
+ *
+ * This is safe because a merge can never raise the similarity of a third cluster to the merged cluster above its
+ * similarity to both of the original clusters, and a merge can only make a cluster's partners inadmissible under
+ * the size limit, never admissible.  So a cluster's best partner can only change if it was one of the merged
+ * clusters.  For the same reason, a cluster with no partner at or above the minimum score can never be merged
+ * again and is retired from the active list.  The size limit is honored exactly, with the same semantics as the
+ * cluster-group engine.
+ *
+ * Tied similarities are resolved in the same order as the SCAN engine:  each pair is ordered by its higher cluster
+ * number and then its lower one, and the lowest pair wins.  Both the cached partners and the choice among the
+ * cached pairs use this order, and a cached partner is replaced when a merge produces a tie with a lower pair.
+ * The higher-numbered cluster of the pair is kept, so the merges are exactly the same as the SCAN engine's even
+ * when many scores are equal.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenericClusterEngine extends MatrixClusterEngine {
+
+    // FIELDS
+    /** best mergeable partner of each cluster, or -1 if there is none */
+    private int[] bestPartner;
+    /** similarity to the best mergeable partner of each cluster */
+    private double[] bestScore;
+
+    /**
+     * Construct a generic engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public GenericClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (! isReducible(this.getMethod()))
+            throw new ParseFailureException("Merge method " + this.getMethod() + " is not supported by the GENERIC engine.");
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final double minScore = this.getMinScore();
+        this.startClustering();
+        final int n = this.matrix.size();
+        this.bestPartner = new int[n];
+        this.bestScore = new double[n];
+        for (int k = 0; k < this.nActive; k++)
+            this.findBest(this.active[k]);
+        this.retireUnmergeable();
+        boolean done = false;
+        while (! done) {
+            // Find the best cached pair.  Ties go to the lower pair key, which is the pair the SCAN engine would
+            // find first.
+            int bestC = -1;
+            double best = Double.NEGATIVE_INFINITY;
+            long bestKey = Long.MAX_VALUE;
+            for (int k = 0; k < this.nActive; k++) {
+                int c = this.active[k];
+                double s = this.bestScore[c];
+                if (s >= best && this.bestPartner[c] >= 0) {
+                    long key = pairKey(c, this.bestPartner[c]);
+                    if (s > best || key < bestKey) {
+                        best = s;
+                        bestKey = key;
+                        bestC = c;
+                    }
+                }
+            }
+            if (bestC < 0 || best < minScore)
+                done = true;
+            else {
+                // As in the SCAN engine, the higher-numbered cluster is kept.
+                final int best1 = Math.max(bestC, this.bestPartner[bestC]);
+                final int best2 = Math.min(bestC, this.bestPartner[bestC]);
+                this.mergeClusters(best1, best2, best);
+                // Repair the rows whose cached partner was one of the merged clusters.  In the other rows, only the
+                // similarity to the kept cluster has changed, and it can only replace the cached partner if it
+                // ties it with a lower pair key.
+                final boolean keptActive = this.isActive(best1);
+                final int maxSize = this.getMaxSize();
+                for (int k = 0; k < this.nActive; k++) {
+                    int c = this.active[k];
+                    if (c == best1 || this.bestPartner[c] == best1 || this.bestPartner[c] == best2)
+                        this.findBest(c);
+                    else if (keptActive && this.bestPartner[c] >= 0 && this.sizes[c] + this.sizes[best1] <= maxSize) {
+                        double s = this.matrix.get(c, best1);
+                        if (s > this.bestScore[c] || s == this.bestScore[c]
+                                && pairKey(c, best1) < pairKey(c, this.bestPartner[c])) {
+                            this.bestScore[c] = s;
+                            this.bestPartner[c] = best1;
+                        }
+                    }
+                }
+                this.retireUnmergeable();
+                if (this.mergeList.size() % 1000 == 0)
+                    log.info("{} merges performed. {} clusters active.", this.mergeList.size(), this.nActive);
+            }
+        }
+        this.bestPartner = null;
+        this.bestScore = null;
+        MergeList merges = this.finishClustering();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+    /**
+     * @return the ordering key of a cluster pair, which sorts the pairs in the order the SCAN engine visits them
+     *
+     * @param c1	first cluster
+     * @param c2	second cluster
+     */
+    private static long pairKey(int c1, int c2) {
+        return ((long) Math.max(c1, c2) << 32) | Math.min(c1, c2);
+    }
+
+    /**
+     * @return TRUE if a cluster is in the active list
+     *
+     * @param c		cluster to check
+     */
+    private boolean isActive(int c) {
+        final int pos = this.position[c];
+        return (pos < this.nActive && this.active[pos] == c);
+    }
+
+    /**
+     * Compute the best mergeable partner of a cluster.  Only partners at or above the minimum score and within the
+     * size limit are considered.  The active list is in index order, so the first of several tied partners has
+     * the lowest pair key.
+     *
+     * @param c		cluster to process
+     */
+    private void findBest(int c) {
+        final int maxSize = this.getMaxSize() - this.sizes[c];
+        int partner = -1;
+        double best = this.getMinScore();
+        for (int k = 0; k < this.nActive; k++) {
+            int c2 = this.active[k];
+            if (c2 != c && this.sizes[c2] <= maxSize) {
+                double s = this.matrix.get(c, c2);
+                if (s > best || partner < 0 && s == best) {
+                    best = s;
+                    partner = c2;
+                }
+            }
+        }
+        this.bestPartner[c] = partner;
+        this.bestScore[c] = (partner < 0 ? Double.NEGATIVE_INFINITY : best);
+    }
+
+    /**
+     * Retire the active clusters that have no mergeable partner.
+     */
+    private void retireUnmergeable() {
+        int k = 0;
+        while (k < this.nActive) {
+            int c = this.active[k];
+            // Retiring a cluster moves the next active cluster into its slot, so we only advance if we keep it.
+            if (this.bestPartner[c] < 0)
+                this.retire(c);
+            else
+                k++;
+        }
+    }
+
+}
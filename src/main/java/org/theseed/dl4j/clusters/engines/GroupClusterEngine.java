@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.Cluster;
+import org.theseed.clusters.ClusterGroup;
+
+/**
+ * This engine performs the clustering using a cluster group.  Each merge scans for the closest pair of
+ * clusters, which makes it the slowest engine, but it supports every merge method and the cluster
+ * size limit.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GroupClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** cluster group being built */
+    private ClusterGroup mainGroup;
+
+    /**
+     * Construct a cluster-group engine.
+     *
+     * @param processor		controlling command processor
+     */
+    public GroupClusterEngine(IParms processor) {
+        super(processor);
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        if (! (source instanceof FileSimilaritySource))
+            throw new ParseFailureException("The GROUP engine can only read a tab-delimited input file.");
+        FileSimilaritySource fileSource = (FileSimilaritySource) source;
+        this.mainGroup = new ClusterGroup(this.getPointEstimate(), this.getMethod());
+        this.mainGroup.load(fileSource.getFile(), fileSource.getCol1Name(), fileSource.getCol2Name(),
+                fileSource.getScoreName(), this.isSparse());
+        this.mainGroup.setMaxSize(this.getMaxSize());
+    }
+
+    @Override
+    public int size() {
+        return this.mainGroup.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.mainGroup.getDataPoints();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        // The cluster group merges incrementally, so we process the thresholds from highest to lowest and
+        // take a snapshot of the clusters at each one.
+        Integer[] order = new Integer[thresholds.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(thresholds[b], thresholds[a]));
+        List<List<ClusterResult>> retVal = new ArrayList<List<ClusterResult>>(Collections.nCopies(thresholds.length,
+                (List<ClusterResult>) null));
+        int mergeCount = 0;
+        for (int i : order) {
+            // Perform the merges.
+            while(this.mainGroup.merge(thresholds[i])) {
+                mergeCount++;
+                if (mergeCount % 100 == 0)
+                    log.info("{} merges performed.", mergeCount);
+            }
+            log.info("{} merges performed at threshold {}.", mergeCount, thresholds[i]);
+            retVal.set(i, this.getClusters());
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the current clusters in the cluster group
+     */
+    private List<ClusterResult> getClusters() {
+        List<Cluster> clusters = this.mainGroup.getClusters();
+        List<ClusterResult> retVal = new ArrayList<ClusterResult>(clusters.size());
+        for (Cluster cluster : clusters)
+            retVal.add(ClusterResult.from(cluster));
+        return retVal;
+    }
+
+}
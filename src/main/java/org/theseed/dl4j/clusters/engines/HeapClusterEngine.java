@@ -0,0 +1,256 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs the same merge loop as the matrix-scan engine, but schedules the merges with a binary
+ * max-heap of candidate cluster pairs keyed by similarity.  Only pairs at or above the minimum score are put in the
+ * heap, so when most pairs are missing or below the threshold the heap is small, and each merge costs a logarithmic
+ * pop instead of a scan of all the pairs.
+ *
+ * Entries are never removed from the middle of the heap.  Instead, when a merge changes the similarities of the
+ * merged cluster, new entries are pushed, and the old ones are discarded when they reach the top.  An entry is
+ * current if both of its clusters are still active and the similarity in the matrix still equals the entry's
+ * score.  A current entry whose combined size exceeds the size limit is discarded as well, since clusters only
+ * grow.  The size limit is therefore honored exactly, with the same semantics as the cluster-group engine.
+ *
+ * Each heap entry takes 16 bytes, so for dense input above the threshold the heap can be larger than the matrix,
+ * and the GENERIC engine is a better choice.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class HeapClusterEngine extends MatrixClusterEngine {
+
+    // FIELDS
+    /** similarity score of each heap entry */
+    private double[] heapScores;
+    /** cluster pair of each heap entry, with the higher-numbered cluster in the high 32 bits */
+    private long[] heapPairs;
+    /** number of entries in the heap */
+    private int heapSize;
+
+    /**
+     * Construct a priority-queue engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public HeapClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (! isReducible(this.getMethod()))
+            throw new ParseFailureException("Merge method " + this.getMethod() + " is not supported by the HEAP engine.");
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final double minScore = this.getMinScore();
+        final int maxSize = this.getMaxSize();
+        this.startClustering();
+        this.buildHeap();
+        final int n = this.matrix.size();
+        double[] oldRow = new double[n];
+        long discards = 0;
+        while (this.heapSize > 0) {
+            final double score = this.heapScores[0];
+            final long pair = this.heapPairs[0];
+            this.pop();
+            final int c1 = (int) (pair >>> 32);
+            final int c2 = (int) pair;
+            if (! this.isActive(c1) || ! this.isActive(c2) || this.matrix.get(c1, c2) != score
+                    || this.sizes[c1] + this.sizes[c2] > maxSize)
+                discards++;
+            else {
+                // Save the old similarities of the kept cluster so we only push the ones that change.
+                for (int k = 0; k < this.nActive; k++) {
+                    int c = this.active[k];
+                    if (c != c1 && c != c2)
+                        oldRow[c] = this.matrix.get(c1, c);
+                }
+                this.mergeClusters(c1, c2, score);
+                // If the merged cluster was retired by the size limit, it needs no new entries.
+                final int nPush = (this.isActive(c1) ? this.nActive : 0);
+                for (int k = 0; k < nPush; k++) {
+                    int c = this.active[k];
+                    if (c != c1) {
+                        double s = this.matrix.get(c1, c);
+                        if (s >= minScore && s != oldRow[c])
+                            this.push(s, c1, c);
+                    }
+                }
+                if (this.mergeList.size() % 1000 == 0)
+                    log.info("{} merges performed. {} heap entries, {} discarded.", this.mergeList.size(),
+                            this.heapSize, discards);
+            }
+        }
+        log.info("{} stale or oversized heap entries discarded.", discards);
+        this.heapScores = null;
+        this.heapPairs = null;
+        MergeList merges = this.finishClustering();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+    /**
+     * @return TRUE if a cluster is in the active list
+     *
+     * @param c		cluster to check
+     */
+    private boolean isActive(int c) {
+        final int pos = this.position[c];
+        return (pos < this.nActive && this.active[pos] == c);
+    }
+
+    /**
+     * Build the initial heap from the active pairs at or above the minimum score.
+     */
+    private void buildHeap() {
+        final double minScore = this.getMinScore();
+        this.heapScores = new double[Math.max(this.nActive, 16)];
+        this.heapPairs = new long[this.heapScores.length];
+        this.heapSize = 0;
+        for (int k1 = 1; k1 < this.nActive; k1++) {
+            int c1 = this.active[k1];
+            for (int k2 = 0; k2 < k1; k2++) {
+                int c2 = this.active[k2];
+                double s = this.matrix.get(c1, c2);
+                if (s >= minScore) {
+                    this.ensureHeap();
+                    this.heapScores[this.heapSize] = s;
+                    this.heapPairs[this.heapSize] = pack(c1, c2);
+                    this.heapSize++;
+                }
+            }
+        }
+        for (int i = this.heapSize / 2 - 1; i >= 0; i--)
+            this.siftDown(i);
+        log.info("{} candidate pairs in merge heap.", this.heapSize);
+    }
+
+    /**
+     * Insure there is room for another heap entry.
+     */
+    private void ensureHeap() {
+        if (this.heapSize >= this.heapScores.length) {
+            int newLen = (int) Math.min(Integer.MAX_VALUE - 8, this.heapScores.length * 2L);
+            if (newLen <= this.heapSize)
+                throw new IllegalStateException("Too many candidate pairs for the merge heap.");
+            this.heapScores = Arrays.copyOf(this.heapScores, newLen);
+            this.heapPairs = Arrays.copyOf(this.heapPairs, newLen);
+        }
+    }
+
+    /**
+     * @return a cluster pair packed into a long
+     *
+     * @param c1	first cluster
+     * @param c2	second cluster
+     */
+    private static long pack(int c1, int c2) {
+        return ((long) c1 << 32) | (c2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Add an entry to the heap.  The higher-numbered cluster is always listed first, as it is in the initial heap,
+     * so the cluster kept by a merge does not depend on when the entry was pushed.  This is what makes a run resumed
+     * from a checkpoint perform exactly the same merges.
+     *
+     * @param score		similarity score
+     * @param c1		first cluster
+     * @param c2		second cluster
+     */
+    private void push(double score, int c1, int c2) {
+        this.ensureHeap();
+        int i = this.heapSize;
+        this.heapSize++;
+        this.heapScores[i] = score;
+        this.heapPairs[i] = pack(Math.max(c1, c2), Math.min(c1, c2));
+        this.siftUp(i);
+    }
+
+    /**
+     * Remove the top entry from the heap.
+     */
+    private void pop() {
+        this.heapSize--;
+        if (this.heapSize > 0) {
+            this.heapScores[0] = this.heapScores[this.heapSize];
+            this.heapPairs[0] = this.heapPairs[this.heapSize];
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * @return TRUE if the first heap entry belongs above the second
+     *
+     * @param i		position of the first entry
+     * @param j		position of the second entry
+     */
+    private boolean above(int i, int j) {
+        // Ties are broken by the pair, so the merge order does not depend on the heap layout.
+        return this.heapScores[i] > this.heapScores[j]
+                || this.heapScores[i] == this.heapScores[j] && this.heapPairs[i] < this.heapPairs[j];
+    }
+
+    /**
+     * Swap two heap entries.
+     *
+     * @param i		position of the first entry
+     * @param j		position of the second entry
+     */
+    private void swap(int i, int j) {
+        double s = this.heapScores[i];
+        this.heapScores[i] = this.heapScores[j];
+        this.heapScores[j] = s;
+        long p = this.heapPairs[i];
+        this.heapPairs[i] = this.heapPairs[j];
+        this.heapPairs[j] = p;
+    }
+
+    /**
+     * Move an entry up the heap to its proper position.
+     *
+     * @param i		position of the entry
+     */
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.above(i, parent)) {
+                this.swap(i, parent);
+                i = parent;
+            } else
+                i = 0;
+        }
+    }
+
+    /**
+     * Move an entry down the heap to its proper position.
+     *
+     * @param i		position of the entry
+     */
+    private void siftDown(int i) {
+        boolean done = false;
+        while (! done) {
+            int top = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < this.heapSize && this.above(left, top))
+                top = left;
+            if (right < this.heapSize && this.above(right, top))
+                top = right;
+            if (top == i)
+                done = true;
+            else {
+                this.swap(i, top);
+                i = top;
+            }
+        }
+    }
+
+}
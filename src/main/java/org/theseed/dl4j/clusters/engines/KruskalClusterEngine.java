@@ -0,0 +1,354 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This engine performs single-linkage clustering with Kruskal's algorithm over an externally-sorted edge list, so
+ * that only the data point structures need to fit in memory.  The similarities at or above the minimum score are
+ * collected into runs of bounded size as they are read.  Each run is sorted from highest score to lowest and
+ * written to a temporary file.  The runs are then merged, and the edges are applied in order to a disjoint-set
+ * forest, merging the clusters of the two data points whenever they are different and the combined cluster
+ * honors the size limit.
+ *
+ * For single linkage, the similarity of two clusters is the highest similarity between their members, so this is
+ * the same sequence of merges as the full merge loop:  an edge that is skipped because the clusters are too large
+ * can never become usable, since clusters only grow.  The size limit is therefore supported exactly when the
+ * scores are distinct.  Edges with tied scores are applied in whatever order the sorted runs produce, which is
+ * not the order the SCAN engine uses, so under a size limit a tie can be resolved differently.  Without a size
+ * limit, the order of tied edges does not affect the clusters.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KruskalClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** directory for temporary files */
+    private File tempDir;
+    /** list of sorted run files */
+    private List<File> runFiles;
+    /** first data point of each edge in the current run */
+    private int[] runP1s;
+    /** second data point of each edge in the current run */
+    private int[] runP2s;
+    /** similarity score of each edge in the current run */
+    private double[] runScores;
+    /** number of edges in the current run */
+    private int runCount;
+    /** total number of edges kept */
+    private long edgeCount;
+    /** merges performed, or NULL if the clustering has not been done yet */
+    private MergeList merges;
+    /** maximum number of edges in a run */
+    private static final int RUN_SIZE = 1 << 22;
+
+    /**
+     * This object reads edges from a sorted run file.
+     */
+    private static class RunReader implements Comparable<RunReader> {
+
+        /** input stream */
+        private DataInputStream inStream;
+        /** run number, used to keep ties in input order */
+        private int runNum;
+        /** first data point of the current edge */
+        private int p1;
+        /** second data point of the current edge */
+        private int p2;
+        /** score of the current edge */
+        private double score;
+
+        /**
+         * Open a run file and read its first edge.
+         *
+         * @param runFile	file to read
+         * @param runNum	index of the run
+         *
+         * @throws IOException
+         */
+        public RunReader(File runFile, int runNum) throws IOException {
+            this.inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+            this.runNum = runNum;
+        }
+
+        /**
+         * Read the next edge.
+         *
+         * @return TRUE if an edge was read, FALSE at end of file
+         *
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            boolean retVal = true;
+            try {
+                this.p1 = this.inStream.readInt();
+                this.p2 = this.inStream.readInt();
+                this.score = this.inStream.readDouble();
+            } catch (EOFException e) {
+                retVal = false;
+            }
+            return retVal;
+        }
+
+        /**
+         * Close the run file.
+         *
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            this.inStream.close();
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            int retVal = Double.compare(o.score, this.score);
+            if (retVal == 0)
+                retVal = Integer.compare(this.runNum, o.runNum);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Construct an external Kruskal engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public KruskalClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMethod() != ClusterMergeMethod.SINGLE)
+            throw new ParseFailureException("The KRUSKAL engine only supports the SINGLE merge method.");
+        this.tempDir = processor.getTempDir();
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.runFiles = new ArrayList<File>();
+        final int capacity = Math.min(RUN_SIZE, Math.max(this.getPointEstimate(), 1000));
+        this.runP1s = new int[capacity];
+        this.runP2s = new int[capacity];
+        this.runScores = new double[capacity];
+        this.runCount = 0;
+        this.edgeCount = 0;
+        this.merges = null;
+        final double minScore = this.getMinScore();
+        long pairs;
+        try {
+            pairs = source.scan(this.points, (p1, p2, score) -> {
+                if (score >= minScore) {
+                    if (this.runCount >= this.runScores.length)
+                        this.growRun();
+                    this.runP1s[this.runCount] = p1;
+                    this.runP2s[this.runCount] = p2;
+                    this.runScores[this.runCount] = score;
+                    this.runCount++;
+                    this.edgeCount++;
+                }
+            });
+            this.writeRun();
+        } catch (UncheckedIOException e) {
+            this.deleteRuns();
+            throw e.getCause();
+        }
+        // Release the run buffers.
+        this.runP1s = null;
+        this.runP2s = null;
+        this.runScores = null;
+        log.info("{} of {} similarities kept for {} data points in {} sorted runs.", this.edgeCount, pairs,
+                this.points.size(), this.runFiles.size());
+    }
+
+    /**
+     * Make room in the run buffers, either by growing them or, if they are at the maximum run size, by writing
+     * the current run.
+     */
+    private void growRun() {
+        final int len = this.runScores.length;
+        if (len >= RUN_SIZE)
+            this.writeRun();
+        else {
+            final int newLen = Math.min(RUN_SIZE, len * 2);
+            this.runP1s = Arrays.copyOf(this.runP1s, newLen);
+            this.runP2s = Arrays.copyOf(this.runP2s, newLen);
+            this.runScores = Arrays.copyOf(this.runScores, newLen);
+        }
+    }
+
+    /**
+     * Sort the current run and write it to a temporary file.
+     */
+    private void writeRun() {
+        if (this.runCount > 0) {
+            int[] order = sortRun(this.runScores, this.runCount);
+            try {
+                File runFile = File.createTempFile("edges", ".run", this.tempDir);
+                runFile.deleteOnExit();
+                this.runFiles.add(runFile);
+                try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(runFile), 1 << 16))) {
+                    for (int i = 0; i < this.runCount; i++) {
+                        int o = order[i];
+                        outStream.writeInt(this.runP1s[o]);
+                        outStream.writeInt(this.runP2s[o]);
+                        outStream.writeDouble(this.runScores[o]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info("Sorted run {} written with {} edges.", this.runFiles.size(), this.runCount);
+            this.runCount = 0;
+        }
+    }
+
+    /**
+     * Compute the order of the edges in a run from highest score to lowest.  The sort is a stable merge sort, so
+     * edges with the same score stay in input order.
+     *
+     * @param scores	array of scores
+     * @param n			number of scores in use
+     *
+     * @return an array of the edge positions in sorted order
+     */
+    private static int[] sortRun(double[] scores, int n) {
+        int[] retVal = new int[n];
+        for (int i = 0; i < n; i++)
+            retVal[i] = i;
+        int[] work = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                final int mid = Math.min(lo + width, n);
+                final int hi = Math.min(lo + 2 * width, n);
+                int i = lo;
+                int j = mid;
+                int k = lo;
+                while (i < mid && j < hi) {
+                    if (scores[retVal[j]] > scores[retVal[i]])
+                        work[k++] = retVal[j++];
+                    else
+                        work[k++] = retVal[i++];
+                }
+                while (i < mid)
+                    work[k++] = retVal[i++];
+                while (j < hi)
+                    work[k++] = retVal[j++];
+            }
+            int[] temp = retVal;
+            retVal = work;
+            work = temp;
+        }
+        return retVal;
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        if (this.merges == null) {
+            try {
+                this.merges = this.mergeRuns();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                this.deleteRuns();
+            }
+        }
+        return this.cut(this.merges, this.points, thresholds);
+    }
+
+    /**
+     * Merge the sorted runs and apply the edges in order to compute the single-linkage merges.
+     *
+     * @return the list of merges performed, from highest score to lowest
+     *
+     * @throws IOException
+     */
+    private MergeList mergeRuns() throws IOException {
+        final int n = this.points.size();
+        final int maxSize = this.getMaxSize();
+        UnionFind forest = new UnionFind(n);
+        forest.ensureSize(n);
+        int[] sizes = new int[n];
+        for (int i = 0; i < n; i++)
+            sizes[i] = 1;
+        MergeList retVal = new MergeList(n);
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, this.runFiles.size()));
+        List<RunReader> readers = new ArrayList<RunReader>(this.runFiles.size());
+        try {
+            for (int i = 0; i < this.runFiles.size(); i++) {
+                RunReader reader = new RunReader(this.runFiles.get(i), i);
+                readers.add(reader);
+                if (reader.next())
+                    queue.add(reader);
+            }
+            long processed = 0;
+            // We can stop early when everything is in one cluster.
+            while (! queue.isEmpty() && forest.getSetCount() > 1) {
+                RunReader reader = queue.remove();
+                int r1 = forest.find(reader.p1);
+                int r2 = forest.find(reader.p2);
+                if (r1 != r2 && sizes[r1] + sizes[r2] <= maxSize) {
+                    final int total = sizes[r1] + sizes[r2];
+                    forest.union(r1, r2);
+                    sizes[forest.find(r1)] = total;
+                    retVal.add(reader.p1, reader.p2, reader.score);
+                }
+                processed++;
+                if (log.isInfoEnabled() && processed % 10000000 == 0)
+                    log.info("{} of {} edges processed. {} merges performed.", processed, this.edgeCount,
+                            retVal.size());
+                if (reader.next())
+                    queue.add(reader);
+            }
+        } finally {
+            for (RunReader reader : readers)
+                reader.close();
+        }
+        log.info("{} merges performed.", retVal.size());
+        return retVal;
+    }
+
+    /**
+     * Delete the temporary run files.
+     */
+    private void deleteRuns() {
+        for (File runFile : this.runFiles) {
+            if (! runFile.delete())
+                log.warn("Could not delete temporary file {}.", runFile);
+        }
+        this.runFiles.clear();
+    }
+
+}
@@ -0,0 +1,474 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs community detection on the similarity graph using the Louvain method, instead of
+ * agglomerative clustering.  The similarities at or above the threshold are treated as the weights of an
+ * undirected graph, stored in compressed sparse rows of primitive arrays, and the data points are grouped into
+ * communities that maximize the modularity of the graph.  The merge method is not used.
+ *
+ * Each level of the algorithm starts with every vertex in its own community and performs passes of local moves,
+ * in which each vertex moves to the neighboring community that gives the greatest modularity gain.  The moves in
+ * a pass are computed in parallel from the same snapshot of the communities and then applied together.  To keep
+ * two singleton vertices from trading places forever, a singleton only moves to another singleton community
+ * with a lower ID.  If a pass does not improve the modularity, it is discarded and the level ends.  The
+ * communities are then collapsed into the vertices of a smaller graph for the next level, until a level makes no
+ * moves.  Because the moves are synchronous, the result does not depend on the number of threads.
+ *
+ * The Louvain method can produce communities that are internally disconnected, so as in the Leiden method, each
+ * final community is split into the connected components of its similarities.  The score of each cluster is the
+ * mean similarity of the pairs inside it, and every cluster with more than one member is reported with a height
+ * of 1.  Modularity requires positive weights, so similarities at or below zero are never used.
+ *
+ * Each threshold is clustered separately, so there is no merge tree.  The size limit is not supported.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LouvainClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** list of positive similarities at or above the minimum score */
+    private EdgeList edges;
+    /** number of threads for the local moves */
+    private int threads;
+    /** maximum number of local-move passes in a level */
+    private static final int MAX_PASSES = 100;
+    /** minimum modularity improvement for another local-move pass */
+    private static final double MIN_GAIN = 1e-7;
+
+    /**
+     * This object is a weighted undirected graph in compressed sparse rows.  Each edge is listed in the rows of
+     * both of its vertices, and the weight of the edges from a vertex to itself is kept separately.
+     */
+    private static class Graph {
+
+        /** number of vertices */
+        private int size;
+        /** position of the first entry for each vertex, plus one past the end */
+        private int[] starts;
+        /** target vertex of each entry */
+        private int[] targets;
+        /** weight of each entry */
+        private double[] weights;
+        /** total weight of the edges from each vertex to itself */
+        private double[] loops;
+        /** weighted degree of each vertex */
+        private double[] degrees;
+        /** sum of the weighted degrees, which is twice the total edge weight */
+        private double total;
+
+        /**
+         * Construct a graph from its rows.
+         *
+         * @param starts	position of the first entry for each vertex, plus one past the end
+         * @param targets	target vertex of each entry
+         * @param weights	weight of each entry
+         * @param loops		total weight of the edges from each vertex to itself
+         */
+        public Graph(int[] starts, int[] targets, double[] weights, double[] loops) {
+            this.size = loops.length;
+            this.starts = starts;
+            this.targets = targets;
+            this.weights = weights;
+            this.loops = loops;
+            this.degrees = new double[this.size];
+            this.total = 0.0;
+            for (int v = 0; v < this.size; v++) {
+                double degree = 2.0 * loops[v];
+                for (int a = starts[v]; a < starts[v + 1]; a++)
+                    degree += weights[a];
+                this.degrees[v] = degree;
+                this.total += degree;
+            }
+        }
+
+    }
+
+    /**
+     * This object contains the work arrays for examining the neighborhood of a vertex.  Each thread has its own.
+     */
+    private static class Scratch {
+
+        /** weight to each community, zero if the community has not been seen */
+        private double[] weights;
+        /** list of communities seen */
+        private int[] seen;
+
+        /**
+         * Construct the work arrays.
+         *
+         * @param size	number of possible communities
+         */
+        public Scratch(int size) {
+            this.weights = new double[size];
+            this.seen = new int[size];
+        }
+
+    }
+
+    /**
+     * Construct a community-detection engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public LouvainClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The LOUVAIN engine does not support a maximum cluster size.");
+        this.threads = processor.getThreads();
+        if (this.getMinScore() <= 0.0)
+            log.warn("Similarities at or below zero cannot be used by the LOUVAIN engine and will be ignored.");
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.edges = new EdgeList(this.getPointEstimate());
+        final double minScore = this.getMinScore();
+        long pairs = source.scan(this.points, (p1, p2, score) -> {
+            if (score >= minScore && score > 0.0 && p1 != p2)
+                this.edges.accept(p1, p2, score);
+        });
+        log.info("{} of {} similarities kept for {} data points.", this.edges.size(), pairs, this.points.size());
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        List<List<ClusterResult>> retVal = new ArrayList<List<ClusterResult>>(thresholds.length);
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            for (double threshold : thresholds) {
+                NeighborGraph neighbors = new NeighborGraph(this.edges, this.points.size(), threshold);
+                int[] communities = this.findCommunities(neighbors, threshold, pool);
+                retVal.add(this.getClusters(neighbors, communities, threshold));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error detecting communities: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the communities of the data points for a single threshold.
+     *
+     * @param neighbors		graph of the similarities at or above the threshold
+     * @param threshold		minimum similarity for an edge
+     * @param pool			thread pool for the local moves
+     *
+     * @return an array containing the community number of each data point
+     *
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private int[] findCommunities(NeighborGraph neighbors, double threshold, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        final int n = this.points.size();
+        Graph graph = new Graph(neighbors.getStarts(), neighbors.getTargets(), neighbors.getScores(), new double[n]);
+        // Each thread gets work arrays big enough for the first level, since the graph only gets smaller.
+        ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(n));
+        int[] retVal = IntStream.range(0, n).toArray();
+        int level = 0;
+        boolean moved = true;
+        while (moved) {
+            int[] comm = IntStream.range(0, graph.size).toArray();
+            moved = localMoves(graph, comm, scratch, pool);
+            if (moved) {
+                level++;
+                final int k = renumber(comm);
+                for (int p = 0; p < n; p++)
+                    retVal[p] = comm[retVal[p]];
+                graph = aggregate(graph, comm, k, scratch, pool);
+                log.info("Louvain level {} at threshold {} produced {} communities.", level, threshold, k);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Perform passes of local moves on a graph until the modularity stops improving.
+     *
+     * @param graph		graph to process
+     * @param comm		array containing the community of each vertex, updated in place
+     * @param scratch	per-thread work arrays
+     * @param pool		thread pool for the moves
+     *
+     * @return TRUE if any vertex moved
+     *
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private static boolean localMoves(Graph graph, int[] comm, ThreadLocal<Scratch> scratch, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        final int n = graph.size;
+        boolean retVal = false;
+        if (graph.total > 0.0) {
+            double[] totals = new double[n];
+            int[] counts = new int[n];
+            summarize(graph, comm, totals, counts);
+            double modularity = modularity(graph, comm, totals, pool);
+            boolean done = false;
+            int pass = 0;
+            while (! done) {
+                pass++;
+                int[] next = pool.submit(() -> IntStream.range(0, n).parallel()
+                        .map(v -> bestCommunity(graph, v, comm, totals, counts, scratch.get())).toArray()).get();
+                double[] nextTotals = new double[n];
+                int[] nextCounts = new int[n];
+                summarize(graph, next, nextTotals, nextCounts);
+                double newModularity = modularity(graph, next, nextTotals, pool);
+                if (newModularity > modularity) {
+                    System.arraycopy(next, 0, comm, 0, n);
+                    System.arraycopy(nextTotals, 0, totals, 0, n);
+                    System.arraycopy(nextCounts, 0, counts, 0, n);
+                    retVal = true;
+                }
+                done = (newModularity - modularity <= MIN_GAIN || pass >= MAX_PASSES);
+                modularity = Math.max(modularity, newModularity);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the total degree and vertex count of each community.
+     *
+     * @param graph		graph being processed
+     * @param comm		array containing the community of each vertex
+     * @param totals	array to receive the total degree of each community
+     * @param counts	array to receive the number of vertices in each community
+     */
+    private static void summarize(Graph graph, int[] comm, double[] totals, int[] counts) {
+        for (int v = 0; v < graph.size; v++) {
+            totals[comm[v]] += graph.degrees[v];
+            counts[comm[v]]++;
+        }
+    }
+
+    /**
+     * Compute the modularity of a community assignment.  The contribution of each vertex is computed in
+     * parallel, but they are added in order, so the result does not depend on the number of threads.
+     *
+     * @param graph		graph being processed
+     * @param comm		array containing the community of each vertex
+     * @param totals	total degree of each community
+     * @param pool		thread pool for the computation
+     *
+     * @return the modularity of the communities
+     *
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private static double modularity(Graph graph, int[] comm, double[] totals, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        double[] inside = pool.submit(() -> IntStream.range(0, graph.size).parallel().mapToDouble(v -> {
+            double retVal = 2.0 * graph.loops[v];
+            for (int a = graph.starts[v]; a < graph.starts[v + 1]; a++) {
+                if (comm[graph.targets[a]] == comm[v])
+                    retVal += graph.weights[a];
+            }
+            return retVal;
+        }).toArray()).get();
+        final double m2 = graph.total;
+        double retVal = 0.0;
+        for (int v = 0; v < graph.size; v++) {
+            double share = totals[v] / m2;
+            retVal += inside[v] / m2 - share * share;
+        }
+        return retVal;
+    }
+
+    /**
+     * Find the best community for a vertex.  The vertex stays where it is unless another community gives a
+     * greater modularity gain, and ties among the other communities go to the lowest ID.
+     *
+     * @param graph		graph being processed
+     * @param v			vertex to move
+     * @param comm		array containing the community of each vertex
+     * @param totals	total degree of each community
+     * @param counts	number of vertices in each community
+     * @param work		work arrays for this thread
+     *
+     * @return the best community for the vertex
+     */
+    private static int bestCommunity(Graph graph, int v, int[] comm, double[] totals, int[] counts, Scratch work) {
+        final int own = comm[v];
+        final double degree = graph.degrees[v];
+        final double m2 = graph.total;
+        // Total the weights to the neighboring communities.  The weights are all positive, so a zero total means
+        // the community has not been seen yet.
+        int nSeen = 0;
+        for (int a = graph.starts[v]; a < graph.starts[v + 1]; a++) {
+            int c = comm[graph.targets[a]];
+            if (work.weights[c] == 0.0)
+                work.seen[nSeen++] = c;
+            work.weights[c] += graph.weights[a];
+        }
+        int retVal = own;
+        double best = work.weights[own] - (totals[own] - degree) * degree / m2;
+        for (int i = 0; i < nSeen; i++) {
+            int c = work.seen[i];
+            if (c != own) {
+                double gain = work.weights[c] - totals[c] * degree / m2;
+                if (gain > best || gain == best && retVal != own && c < retVal) {
+                    best = gain;
+                    retVal = c;
+                }
+            }
+            work.weights[c] = 0.0;
+        }
+        work.weights[own] = 0.0;
+        // A singleton only moves to another singleton with a lower ID, so two singletons cannot trade places.
+        if (counts[own] == 1 && counts[retVal] == 1 && retVal > own)
+            retVal = own;
+        return retVal;
+    }
+
+    /**
+     * Renumber the communities so they are consecutive starting from zero.
+     *
+     * @param comm		array containing the community of each vertex, updated in place
+     *
+     * @return the number of communities
+     */
+    private static int renumber(int[] comm) {
+        int[] newIds = new int[comm.length];
+        Arrays.fill(newIds, -1);
+        int retVal = 0;
+        for (int v = 0; v < comm.length; v++) {
+            int c = comm[v];
+            if (newIds[c] < 0)
+                newIds[c] = retVal++;
+            comm[v] = newIds[c];
+        }
+        return retVal;
+    }
+
+    /**
+     * Collapse each community of a graph into a single vertex.  The edges inside a community become the
+     * community's loop weight, and the edges between two communities are combined into one.
+     *
+     * @param graph		graph to collapse
+     * @param comm		array containing the community of each vertex, numbered consecutively from zero
+     * @param k			number of communities
+     * @param scratch	per-thread work arrays
+     * @param pool		thread pool for the computation
+     *
+     * @return the graph of the communities
+     *
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private static Graph aggregate(Graph graph, int[] comm, int k, ThreadLocal<Scratch> scratch, ForkJoinPool pool)
+            throws InterruptedException, ExecutionException {
+        // Sort the vertices by community.
+        int[] memberStarts = new int[k + 1];
+        for (int v = 0; v < graph.size; v++)
+            memberStarts[comm[v] + 1]++;
+        for (int c = 0; c < k; c++)
+            memberStarts[c + 1] += memberStarts[c];
+        int[] fill = Arrays.copyOf(memberStarts, k);
+        int[] members = new int[graph.size];
+        for (int v = 0; v < graph.size; v++)
+            members[fill[comm[v]]++] = v;
+        // Build the row of each community in parallel.
+        double[] loops = new double[k];
+        int[][] rowTargets = new int[k][];
+        double[][] rowWeights = new double[k][];
+        pool.submit(() -> IntStream.range(0, k).parallel().forEach(c -> {
+            Scratch work = scratch.get();
+            double loop = 0.0;
+            int nSeen = 0;
+            for (int i = memberStarts[c]; i < memberStarts[c + 1]; i++) {
+                int v = members[i];
+                loop += graph.loops[v];
+                for (int a = graph.starts[v]; a < graph.starts[v + 1]; a++) {
+                    int c2 = comm[graph.targets[a]];
+                    if (c2 == c)
+                        loop += graph.weights[a] / 2.0;
+                    else {
+                        if (work.weights[c2] == 0.0)
+                            work.seen[nSeen++] = c2;
+                        work.weights[c2] += graph.weights[a];
+                    }
+                }
+            }
+            loops[c] = loop;
+            int[] targets = Arrays.copyOf(work.seen, nSeen);
+            double[] weights = new double[nSeen];
+            for (int i = 0; i < nSeen; i++) {
+                weights[i] = work.weights[targets[i]];
+                work.weights[targets[i]] = 0.0;
+            }
+            rowTargets[c] = targets;
+            rowWeights[c] = weights;
+        })).get();
+        // Assemble the rows.
+        int[] starts = new int[k + 1];
+        for (int c = 0; c < k; c++)
+            starts[c + 1] = starts[c] + rowTargets[c].length;
+        int[] targets = new int[starts[k]];
+        double[] weights = new double[starts[k]];
+        for (int c = 0; c < k; c++) {
+            System.arraycopy(rowTargets[c], 0, targets, starts[c], rowTargets[c].length);
+            System.arraycopy(rowWeights[c], 0, weights, starts[c], rowWeights[c].length);
+        }
+        return new Graph(starts, targets, weights, loops);
+    }
+
+    /**
+     * Split the communities into connected components and build the cluster list.
+     *
+     * @param neighbors		graph of the similarities at or above the threshold
+     * @param communities	array containing the community of each data point
+     * @param threshold		minimum similarity for an edge
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     */
+    private List<ClusterResult> getClusters(NeighborGraph neighbors, int[] communities, double threshold) {
+        final int n = this.points.size();
+        final int[] starts = neighbors.getStarts();
+        final int[] targets = neighbors.getTargets();
+        UnionFind forest = new UnionFind(n);
+        forest.ensureSize(n);
+        for (int v = 0; v < n; v++) {
+            for (int a = starts[v]; a < starts[v + 1]; a++) {
+                if (communities[targets[a]] == communities[v])
+                    forest.union(v, targets[a]);
+            }
+        }
+        final int sets = forest.getSetCount();
+        int[] setNums = forest.getSetNumbers();
+        log.info("{} clusters found at threshold {}.", sets, threshold);
+        return labelClusters(this.points.getIds(), setNums, sets, neighbors.meanScores(setNums, sets));
+    }
+
+}
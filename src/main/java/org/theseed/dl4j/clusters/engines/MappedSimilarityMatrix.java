@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This is a condensed similarity matrix that stores single-precision similarities in a memory-mapped temporary
+ * file, so that the matrix can be much larger than the Java heap.  The file is mapped in segments, one per
+ * storage chunk, which keeps each mapping well under the 2-gigabyte limit.  Merge updates are written back
+ * to the mapped file in place.
+ *
+ * Each value is stored with its bits exclusive-ORed against those of negative infinity, so that the zeroes in a
+ * newly-extended file read back as missing similarities.  This means the file never has to be initialized.
+ *
+ * The temporary file is deleted when the matrix is closed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MappedSimilarityMatrix extends SimilarityMatrix {
+
+    // FIELDS
+    /** temporary file containing the matrix */
+    private File mapFile;
+    /** random-access file controller */
+    private RandomAccessFile mapStream;
+    /** channel for the file */
+    private FileChannel channel;
+    /** mapped segments */
+    private MappedByteBuffer[] segments;
+    /** bit pattern for negative infinity */
+    private static final int MISSING_BITS = Float.floatToRawIntBits(Float.NEGATIVE_INFINITY);
+
+    /**
+     * Construct an empty memory-mapped similarity matrix.
+     *
+     * @param capacity	expected number of data points
+     * @param tempDir	directory for the temporary file
+     */
+    public MappedSimilarityMatrix(int capacity, File tempDir) {
+        try {
+            this.mapFile = File.createTempFile("sims", ".mat", tempDir);
+            this.mapFile.deleteOnExit();
+            this.mapStream = new RandomAccessFile(this.mapFile, "rw");
+            this.channel = this.mapStream.getChannel();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Similarity matrix will be mapped to {}.", this.mapFile);
+        this.segments = new MappedByteBuffer[0];
+        this.reserve(capacity);
+    }
+
+    @Override
+    protected void allocate(long oldCount, long newCount) {
+        int nChunks = chunkCount(newCount);
+        if (nChunks > this.segments.length)
+            this.segments = Arrays.copyOf(this.segments, nChunks);
+        try {
+            for (int c = 0; c < nChunks; c++) {
+                long newBytes = (long) chunkLength(c, newCount) * Float.BYTES;
+                MappedByteBuffer segment = this.segments[c];
+                if (segment == null || segment.capacity() < newBytes) {
+                    long start = ((long) c << CHUNK_BITS) * Float.BYTES;
+                    segment = this.channel.map(FileChannel.MapMode.READ_WRITE, start, newBytes);
+                    segment.order(ByteOrder.nativeOrder());
+                    this.segments[c] = segment;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void release() {
+        this.segments = new MappedByteBuffer[0];
+        try {
+            this.channel.close();
+            this.mapStream.close();
+        } catch (IOException e) {
+            log.warn("Error closing similarity matrix file {}: {}", this.mapFile, e.toString());
+        }
+        if (! this.mapFile.delete())
+            log.warn("Could not delete similarity matrix file {}.", this.mapFile);
+    }
+
+    @Override
+    protected double getEntry(long idx) {
+        int bits = this.segments[(int) (idx >> CHUNK_BITS)].getInt((int) (idx & CHUNK_MASK) * Float.BYTES);
+        return Float.intBitsToFloat(bits ^ MISSING_BITS);
+    }
+
+    @Override
+    protected void setEntry(long idx, double score) {
+        int bits = Float.floatToRawIntBits((float) score) ^ MISSING_BITS;
+        this.segments[(int) (idx >> CHUNK_BITS)].putInt((int) (idx & CHUNK_MASK) * Float.BYTES, bits);
+    }
+
+    @Override
+    protected int entryBytes() {
+        return Float.BYTES;
+    }
+
+}
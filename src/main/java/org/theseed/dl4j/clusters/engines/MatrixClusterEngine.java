@@ -0,0 +1,298 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This is the base class for engines that keep the similarities in a condensed similarity matrix.  The data
+ * point IDs are converted to dictionary indices when the input is read, and the matrix is indexed by those.
+ *
+ * During clustering, each cluster is identified by one of its data points, and the active clusters are kept in a
+ * list in index order, with the position of each one so it can be found quickly.  Removing a cluster shifts the
+ * ones after it, which costs no more than the similarity update for a merge.  The merges are performed by this base
+ * class, which also handles the checkpoints.  When resuming from a checkpoint, the saved merges are replayed on the
+ * freshly-loaded matrix before the subclass's merge loop starts.  Because the active list is always in index order,
+ * no matter when clusters were retired, the resumed loop visits the clusters in the same order and performs
+ * exactly the same merges as an uninterrupted run.
+ *
+ * When there is a size limit, the base class also keeps a count of the active clusters of each size.  A cluster
+ * can only be merged with a cluster no bigger than the size limit minus its own size, so once it is bigger than
+ * that for the smallest active cluster, it can never be merged again.  Such clusters are retired from the active
+ * list as soon as they are blocked, so the merge loops and the similarity updates never look at them again.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class MatrixClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    protected PointDictionary points;
+    /** similarity matrix */
+    protected SimilarityMatrix matrix;
+    /** type of similarity matrix storage */
+    private SimilarityMatrix.Type storage;
+    /** directory for temporary files */
+    private File tempDir;
+    /** checkpoint manager, or NULL if there are no checkpoints */
+    private Checkpointer checkpointer;
+    /** merges restored from a checkpoint, or NULL if there are none */
+    private MergeList restored;
+    /** number of threads for the similarity updates */
+    private int threads;
+    /** thread pool for the similarity updates, or NULL if they are single-threaded */
+    private ForkJoinPool pool;
+    /** list of active clusters */
+    protected int[] active;
+    /** position of each cluster in the active list */
+    protected int[] position;
+    /** size of each cluster */
+    protected int[] sizes;
+    /** number of active clusters */
+    protected int nActive;
+    /** list of merges performed */
+    protected MergeList mergeList;
+    /** number of active clusters of each size, or NULL if there is no size limit */
+    private int[] sizeCounts;
+    /** size of the smallest active cluster */
+    private int minActiveSize;
+
+    /**
+     * Construct a matrix-based engine.
+     *
+     * @param processor		controlling command processor
+     */
+    public MatrixClusterEngine(IParms processor) {
+        super(processor);
+        this.storage = processor.getStorage();
+        this.tempDir = processor.getTempDir();
+        this.checkpointer = processor.getCheckpointer();
+        this.restored = null;
+        this.threads = processor.getThreads();
+        this.pool = null;
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        final int estimate = this.getPointEstimate();
+        this.points = new PointDictionary(estimate);
+        long pairs;
+        try {
+            this.matrix = this.storage.create(estimate, this.tempDir);
+            pairs = source.scan(this.points, (p1, p2, score) -> {
+                this.matrix.addPoints(this.points.size());
+                this.matrix.set(p1, p2, score);
+            });
+            this.matrix.addPoints(this.points.size());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("Similarity matrix for {} data points uses {} bytes of {} storage.", this.matrix.size(),
+                this.matrix.memorySize(), this.storage);
+        // Warn about missing pairs.
+        final long n = this.matrix.size();
+        if (! this.isSparse() && pairs < SimilarityMatrix.entries(this.matrix.size()))
+            log.warn("Only {} similarities found for {} data points. Missing pairs will never be merged.", pairs, n);
+        // Check for a checkpoint to resume.
+        if (this.checkpointer != null)
+            this.restored = this.checkpointer.start(this.getMethod(), this.getMinScore(), this.getMaxSize(),
+                    this.points.getIds());
+    }
+
+    /**
+     * Initialize the active cluster list for the merge loop.  Each data point starts in its own cluster.  If
+     * we are resuming from a checkpoint, the saved merges are replayed.
+     */
+    protected void startClustering() {
+        final int n = this.matrix.size();
+        this.active = new int[n];
+        this.position = new int[n];
+        this.sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.active[i] = i;
+            this.position[i] = i;
+            this.sizes[i] = 1;
+        }
+        this.nActive = n;
+        this.mergeList = new MergeList(n);
+        if (this.threads > 1) {
+            this.pool = new ForkJoinPool(this.threads);
+            log.info("Similarity updates will use {} threads.", this.threads);
+        }
+        final int maxSize = this.getMaxSize();
+        if (maxSize == Integer.MAX_VALUE)
+            this.sizeCounts = null;
+        else {
+            this.sizeCounts = new int[Math.max(Math.min(maxSize, n), 1) + 1];
+            this.sizeCounts[1] = n;
+            this.minActiveSize = 1;
+        }
+        if (this.restored != null) {
+            for (int k = 0; k < this.restored.size(); k++)
+                this.mergeClusters(this.restored.getLeft(k), this.restored.getRight(k), this.restored.getScore(k));
+            log.info("{} merges replayed from checkpoint.", this.restored.size());
+            this.restored = null;
+        }
+        this.retireBlocked(true);
+    }
+
+    /**
+     * Merge two active clusters.  The second cluster is removed from the active list and the similarities of
+     * the first are updated.
+     *
+     * @param keep		cluster to keep
+     * @param drop		cluster to merge into the kept cluster
+     * @param score		similarity score of the merge
+     */
+    protected void mergeClusters(int keep, int drop, double score) {
+        this.nActive = remove(this.active, this.position, this.nActive, drop);
+        this.matrix.merge(this.getMethod(), keep, this.sizes[keep], drop, this.sizes[drop], this.active, this.nActive,
+                this.pool);
+        if (this.sizeCounts != null) {
+            this.sizeCounts[this.sizes[keep]]--;
+            this.sizeCounts[this.sizes[drop]]--;
+            this.sizeCounts[this.sizes[keep] + this.sizes[drop]]++;
+        }
+        this.sizes[keep] += this.sizes[drop];
+        this.mergeList.add(keep, drop, score);
+        // While the restored merges are being replayed, the merge list is a prefix of the checkpoint, so it must
+        // not be saved over it.
+        if (this.checkpointer != null && this.restored == null)
+            this.checkpointer.check(this.mergeList);
+        if (this.sizeCounts != null) {
+            if (this.sizes[keep] + this.minActiveSize > this.getMaxSize())
+                this.drop(keep);
+            this.retireBlocked(false);
+        }
+    }
+
+    /**
+     * Remove a cluster that can never be merged from the active list.
+     *
+     * @param c		cluster to retire
+     */
+    protected void retire(int c) {
+        this.drop(c);
+        if (this.sizeCounts != null)
+            this.retireBlocked(false);
+    }
+
+    /**
+     * Remove a cluster from the active list and the size counts.
+     *
+     * @param c		cluster to remove
+     */
+    private void drop(int c) {
+        this.nActive = remove(this.active, this.position, this.nActive, c);
+        if (this.sizeCounts != null)
+            this.sizeCounts[this.sizes[c]]--;
+    }
+
+    /**
+     * Retire the clusters blocked by the size limit.  This only needs to be done when the smallest active
+     * cluster size goes up, since that is the only thing that can block a cluster that did not just grow.
+     *
+     * @param force		if TRUE, the active clusters will be checked even if the smallest size has not changed
+     */
+    private void retireBlocked(boolean force) {
+        if (this.sizeCounts != null) {
+            final int maxSize = this.getMaxSize();
+            boolean changed = this.advanceMinSize() || force;
+            while (changed && this.nActive > 0) {
+                final int limit = maxSize - this.minActiveSize;
+                int k = 0;
+                // Dropping a cluster moves the next active cluster into its slot, so we only advance if we keep it.
+                while (k < this.nActive) {
+                    int c = this.active[k];
+                    if (this.sizes[c] > limit)
+                        this.drop(c);
+                    else
+                        k++;
+                }
+                changed = this.advanceMinSize();
+            }
+        }
+    }
+
+    /**
+     * Update the size of the smallest active cluster.
+     *
+     * @return TRUE if the smallest size changed
+     */
+    private boolean advanceMinSize() {
+        final int oldSize = this.minActiveSize;
+        if (this.nActive > 0) {
+            while (this.sizeCounts[this.minActiveSize] == 0)
+                this.minActiveSize++;
+        }
+        return (this.minActiveSize != oldSize);
+    }
+
+    /**
+     * Finish the merge loop.  The final checkpoint is written, the similarity memory is released, and the
+     * merges are sorted.
+     *
+     * @return the sorted list of merges
+     */
+    protected MergeList finishClustering() {
+        log.info("{} merges performed.", this.mergeList.size());
+        if (this.checkpointer != null)
+            this.checkpointer.finish(this.mergeList);
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+        this.matrix.close();
+        this.active = null;
+        this.position = null;
+        this.sizes = null;
+        this.sizeCounts = null;
+        MergeList retVal = this.mergeList;
+        retVal.sort();
+        return retVal;
+    }
+
+    @Override
+    public boolean isPartitionable() {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    /**
+     * Remove a cluster from an active-cluster list.  The clusters after it are shifted down, so the list stays in
+     * order.
+     *
+     * @param active	active cluster list
+     * @param position	position of each cluster in the active list
+     * @param nActive	number of active clusters
+     * @param c			cluster to remove
+     *
+     * @return the new number of active clusters
+     */
+    protected static int remove(int[] active, int[] position, int nActive, int c) {
+        final int pos = position[c];
+        final int retVal = nActive - 1;
+        System.arraycopy(active, pos + 1, active, pos, retVal - pos);
+        for (int k = pos; k < retVal; k++)
+            position[active[k]] = k;
+        return retVal;
+    }
+
+}
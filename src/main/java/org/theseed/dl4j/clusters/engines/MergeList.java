@@ -0,0 +1,232 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This object records a sequence of cluster merges.  Each merge is identified by one data point from each of
+ * the two clusters merged and the similarity score at which the merge happened.  Replaying the merges produces
+ * the cluster list.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MergeList {
+
+    // FIELDS
+    /** data point in the first cluster of each merge */
+    private int[] left;
+    /** data point in the second cluster of each merge */
+    private int[] right;
+    /** similarity score of each merge */
+    private double[] scores;
+    /** number of merges recorded */
+    private int count;
+
+    /**
+     * Construct an empty merge list.
+     *
+     * @param capacity	expected number of merges
+     */
+    public MergeList(int capacity) {
+        capacity = Math.max(capacity, 10);
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.scores = new double[capacity];
+        this.count = 0;
+    }
+
+    /**
+     * Record a merge.
+     *
+     * @param p1		data point in the first cluster
+     * @param p2		data point in the second cluster
+     * @param score		similarity score of the merge
+     */
+    public void add(int p1, int p2, double score) {
+        if (this.count >= this.left.length) {
+            int newLen = this.left.length * 2;
+            this.left = Arrays.copyOf(this.left, newLen);
+            this.right = Arrays.copyOf(this.right, newLen);
+            this.scores = Arrays.copyOf(this.scores, newLen);
+        }
+        this.left[this.count] = p1;
+        this.right[this.count] = p2;
+        this.scores[this.count] = score;
+        this.count++;
+    }
+
+    /**
+     * @return a copy of this merge list
+     */
+    public MergeList copy() {
+        MergeList retVal = new MergeList(this.count);
+        System.arraycopy(this.left, 0, retVal.left, 0, this.count);
+        System.arraycopy(this.right, 0, retVal.right, 0, this.count);
+        System.arraycopy(this.scores, 0, retVal.scores, 0, this.count);
+        retVal.count = this.count;
+        return retVal;
+    }
+
+    /**
+     * Add the merges from another list, translating the data point indices.
+     *
+     * @param other		list of merges to add
+     * @param pointMap	array mapping the other list's data point indices to this list's indices
+     */
+    public void addAll(MergeList other, int[] pointMap) {
+        for (int k = 0; k < other.count; k++)
+            this.add(pointMap[other.left[k]], pointMap[other.right[k]], other.scores[k]);
+    }
+
+    /**
+     * @return the data point in the first cluster of a merge
+     *
+     * @param k		index of the merge
+     */
+    public int getLeft(int k) {
+        return this.left[k];
+    }
+
+    /**
+     * @return the data point in the second cluster of a merge
+     *
+     * @param k		index of the merge
+     */
+    public int getRight(int k) {
+        return this.right[k];
+    }
+
+    /**
+     * @return the similarity score of a merge
+     *
+     * @param k		index of the merge
+     */
+    public double getScore(int k) {
+        return this.scores[k];
+    }
+
+    /**
+     * @return the number of merges recorded
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Sort the merges from highest score to lowest.  The sort is stable, so merges with the same
+     * score remain in the order they were recorded.
+     */
+    public void sort() {
+        Integer[] order = new Integer[this.count];
+        for (int i = 0; i < this.count; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(this.scores[b], this.scores[a]));
+        int[] newLeft = new int[this.left.length];
+        int[] newRight = new int[this.left.length];
+        double[] newScores = new double[this.left.length];
+        for (int i = 0; i < this.count; i++) {
+            int o = order[i];
+            newLeft[i] = this.left[o];
+            newRight[i] = this.right[o];
+            newScores[i] = this.scores[o];
+        }
+        this.left = newLeft;
+        this.right = newRight;
+        this.scores = newScores;
+    }
+
+    /**
+     * Replay the merges to produce the cluster list.  Merges below the minimum score are skipped.
+     *
+     * @param points	dictionary of data point IDs
+     * @param minScore	minimum similarity score for a merge to be applied
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     */
+    public List<ClusterResult> getClusters(PointDictionary points, double minScore) {
+        return this.getClusters(points, minScore, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Replay the merges to produce the cluster list, with a limit on the cluster size.  Merges below the minimum
+     * score or that would produce a cluster larger than the maximum size are skipped.  Note that if the merges
+     * were computed without the size limit, this is a cut of the existing tree, and the clusters may differ from
+     * a fresh clustering with the size limit, since the merge partners are not recomputed.
+     *
+     * @param points	dictionary of data point IDs
+     * @param minScore	minimum similarity score for a merge to be applied
+     * @param maxSize	maximum permissible cluster size
+     *
+     * @return the list of clusters, sorted from largest to smallest
+     */
+    public List<ClusterResult> getClusters(PointDictionary points, double minScore, int maxSize) {
+        final int n = points.size();
+        // Each cluster is a linked list of data points, identified by its root point.
+        int[] parent = new int[n];
+        int[] next = new int[n];
+        int[] tail = new int[n];
+        int[] heights = new int[n];
+        int[] sizes = new int[n];
+        double[] clScores = new double[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            next[i] = -1;
+            tail[i] = i;
+            sizes[i] = 1;
+        }
+        for (int k = 0; k < this.count; k++) {
+            if (this.scores[k] >= minScore) {
+                int r1 = find(parent, this.left[k]);
+                int r2 = find(parent, this.right[k]);
+                if (r1 != r2 && sizes[r1] + sizes[r2] <= maxSize) {
+                    // The second cluster's members go after the first cluster's.
+                    parent[r2] = r1;
+                    next[tail[r1]] = r2;
+                    tail[r1] = tail[r2];
+                    heights[r1] = Math.max(heights[r1], heights[r2]) + 1;
+                    sizes[r1] += sizes[r2];
+                    clScores[r1] = this.scores[k];
+                }
+            }
+        }
+        // Now we build the clusters from the roots.
+        List<String> ids = points.getIds();
+        List<ClusterResult> retVal = new ArrayList<ClusterResult>();
+        for (int i = 0; i < n; i++) {
+            if (parent[i] == i) {
+                int[] members = new int[sizes[i]];
+                int k = 0;
+                for (int p = i; p >= 0; p = next[p])
+                    members[k++] = p;
+                retVal.add(new ClusterResult(ids, members, heights[i], clScores[i]));
+            }
+        }
+        Collections.sort(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the root of a data point's cluster, compressing the path along the way
+     *
+     * @param parent	array of parent pointers
+     * @param p			data point of interest
+     */
+    protected static int find(int[] parent, int p) {
+        int root = p;
+        while (parent[root] != root)
+            root = parent[root];
+        while (parent[p] != root) {
+            int next = parent[p];
+            parent[p] = root;
+            p = next;
+        }
+        return root;
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This object represents a merge tree saved to a binary file.  The file contains the merge method, the lowest
+ * threshold used and the size limit in effect when the tree was built, the data point IDs, and then the merges
+ * in the order performed.  For each merge we store a data point from each of the two clusters merged, the merge
+ * score, the height of the resulting cluster, and the sizes of the two clusters.  The heights and sizes are
+ * recomputed when the tree is replayed, so they are only stored to make the file useful to other programs.
+ *
+ * A merge tree can be cut at any threshold at or above the one used to build it, without rereading the
+ * similarities.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MergeTreeFile {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(MergeTreeFile.class);
+    /** merge method used to build the tree */
+    private ClusterMergeMethod method;
+    /** lowest threshold used to build the tree */
+    private double floorScore;
+    /** maximum cluster size used to build the tree */
+    private int maxSize;
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** list of merges */
+    private MergeList merges;
+    /** file type marker */
+    private static final int MAGIC = 0x4D524731;
+
+    /**
+     * Load a merge tree from a file.
+     *
+     * @param inFile	file containing the merge tree
+     *
+     * @throws IOException
+     */
+    public MergeTreeFile(File inFile) throws IOException {
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)))) {
+            if (inStream.readInt() != MAGIC)
+                throw new IOException("File " + inFile + " is not a merge tree file.");
+            String methodName = inStream.readUTF();
+            try {
+                this.method = ClusterMergeMethod.valueOf(methodName);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid merge method " + methodName + " in " + inFile + ".");
+            }
+            this.floorScore = inStream.readDouble();
+            this.maxSize = inStream.readInt();
+            final int n = inStream.readInt();
+            this.points = new PointDictionary(n);
+            for (int i = 0; i < n; i++)
+                this.points.intern(inStream.readUTF());
+            final int m = inStream.readInt();
+            this.merges = new MergeList(m);
+            for (int k = 0; k < m; k++) {
+                int p1 = inStream.readInt();
+                int p2 = inStream.readInt();
+                double score = inStream.readDouble();
+                // Skip the height and the two sizes.
+                inStream.readInt();
+                inStream.readInt();
+                inStream.readInt();
+                if (p1 < 0 || p1 >= n || p2 < 0 || p2 >= n)
+                    throw new IOException("Invalid data point index in merge " + k + " of " + inFile + ".");
+                this.merges.add(p1, p2, score);
+            }
+        }
+        log.info("{} data points and {} merges read from {}.", this.points.size(), this.merges.size(), inFile);
+    }
+
+    /**
+     * Save a merge tree to a file.
+     *
+     * @param outFile		output file
+     * @param method		merge method used to build the tree
+     * @param floorScore	lowest threshold used to build the tree
+     * @param maxSize		maximum cluster size used to build the tree
+     * @param ids			list of data point IDs, in index order
+     * @param merges		list of merges, in the order performed
+     *
+     * @throws IOException
+     */
+    public static void save(File outFile, ClusterMergeMethod method, double floorScore, int maxSize,
+            List<String> ids, MergeList merges) throws IOException {
+        final int n = ids.size();
+        final int m = merges.size();
+        // We track the cluster heights and sizes as we write the merges.
+        int[] parent = new int[n];
+        int[] heights = new int[n];
+        int[] sizes = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            sizes[i] = 1;
+        }
+        try (DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            outStream.writeInt(MAGIC);
+            outStream.writeUTF(method.name());
+            outStream.writeDouble(floorScore);
+            outStream.writeInt(maxSize);
+            outStream.writeInt(n);
+            for (String id : ids)
+                outStream.writeUTF(id);
+            outStream.writeInt(m);
+            for (int k = 0; k < m; k++) {
+                int p1 = merges.getLeft(k);
+                int p2 = merges.getRight(k);
+                int r1 = MergeList.find(parent, p1);
+                int r2 = MergeList.find(parent, p2);
+                int size1 = sizes[r1];
+                int size2 = sizes[r2];
+                if (r1 != r2) {
+                    parent[r2] = r1;
+                    heights[r1] = Math.max(heights[r1], heights[r2]) + 1;
+                    sizes[r1] += sizes[r2];
+                }
+                outStream.writeInt(p1);
+                outStream.writeInt(p2);
+                outStream.writeDouble(merges.getScore(k));
+                outStream.writeInt(heights[r1]);
+                outStream.writeInt(size1);
+                outStream.writeInt(size2);
+            }
+        }
+        log.info("{} data points and {} merges written to {}.", n, m, outFile);
+    }
+
+    /**
+     * @return the clusters formed by cutting the tree at the specified threshold and size limit
+     *
+     * @param minScore	minimum similarity score for a merge to be applied
+     * @param maxSize	maximum permissible cluster size
+     */
+    public List<ClusterResult> getClusters(double minScore, int maxSize) {
+        if (minScore < this.floorScore)
+            log.warn("Threshold {} is below the tree's floor of {}.  Merges below the floor were never computed.",
+                    minScore, this.floorScore);
+        if (maxSize > this.maxSize)
+            log.warn("Size limit {} is above the tree's limit of {}.  Larger clusters were never computed.",
+                    maxSize, this.maxSize);
+        return this.merges.getClusters(this.points, minScore, maxSize);
+    }
+
+    /**
+     * @return the merge method used to build the tree
+     */
+    public ClusterMergeMethod getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return the lowest threshold used to build the tree
+     */
+    public double getFloorScore() {
+        return this.floorScore;
+    }
+
+    /**
+     * @return the maximum cluster size used to build the tree
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * @return the list of data point IDs
+     */
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    /**
+     * @return the list of merges, in the order performed
+     */
+    public MergeList getMerges() {
+        return this.merges;
+    }
+
+    /**
+     * @return the number of merges in the tree
+     */
+    public int size() {
+        return this.merges.size();
+    }
+
+}
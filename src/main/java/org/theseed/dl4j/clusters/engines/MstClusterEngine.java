@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This engine performs single-linkage clustering by computing the maximum-similarity spanning forest of the
+ * similarity graph.  The single-linkage merges are exactly the forest edges in order from highest similarity to
+ * lowest, so sorting the forest edges gives the full merge tree.
+ *
+ * The forest is computed with Boruvka's algorithm.  In each round, every component finds its best outgoing edge,
+ * and all of those edges are added to the forest at once, which at least halves the number of components.  The
+ * search for the best edges is a parallel pass over the remaining edges, and edges inside a component are dropped
+ * between rounds.  Ties are broken by edge position, so the edges chosen in a round can never form a cycle.
+ * Only the similarities at or above the minimum score are kept, so sparse input takes very little memory.  The
+ * parallel passes use the number of threads specified by the controlling processor.
+ *
+ * The size limit is not supported, since a cut of the spanning forest is not a size-limited clustering.  The
+ * KRUSKAL engine enforces the limit, exactly when the scores are distinct.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MstClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** similarities at or above the minimum score */
+    private EdgeList edges;
+    /** number of threads for the parallel passes */
+    private int threads;
+
+    /**
+     * Construct a spanning-forest engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public MstClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMethod() != ClusterMergeMethod.SINGLE)
+            throw new ParseFailureException("The MST engine only supports the SINGLE merge method.");
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The MST engine does not support a maximum cluster size.  "
+                    + "Use the KRUSKAL engine instead.");
+        this.threads = processor.getThreads();
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        this.points = new PointDictionary(this.getPointEstimate());
+        this.edges = new EdgeList(this.getPointEstimate());
+        final double minScore = this.getMinScore();
+        long pairs = source.scan(this.points, (p1, p2, score) -> {
+            if (score >= minScore)
+                this.edges.accept(p1, p2, score);
+        });
+        log.info("{} of {} similarities kept for {} data points.", this.edges.size(), pairs, this.points.size());
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final int n = this.points.size();
+        final EdgeList edges = this.edges;
+        UnionFind forest = new UnionFind(n);
+        forest.ensureSize(n);
+        MergeList merges = new MergeList(n);
+        // The best edge for each component root, or -1 if none has been found.
+        AtomicIntegerArray best = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++)
+            best.set(i, -1);
+        int[] roots = new int[n];
+        int[] live = IntStream.range(0, edges.size()).toArray();
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        try {
+            int round = 0;
+            while (live.length > 0) {
+                round++;
+                for (int i = 0; i < n; i++)
+                    roots[i] = forest.find(i);
+                // Drop the edges inside a component, and find the best edge out of each component.
+                final int[] current = live;
+                live = pool.submit(() -> IntStream.of(current).parallel()
+                        .filter(k -> roots[edges.getP1(k)] != roots[edges.getP2(k)]).toArray()).get();
+                final int[] remaining = live;
+                pool.submit(() -> IntStream.of(remaining).parallel().forEach(k -> {
+                    offer(best, roots[edges.getP1(k)], k, edges);
+                    offer(best, roots[edges.getP2(k)], k, edges);
+                })).get();
+                // Add the best edges to the forest.
+                for (int i = 0; i < n; i++) {
+                    int k = best.get(i);
+                    if (k >= 0) {
+                        best.set(i, -1);
+                        if (forest.union(edges.getP1(k), edges.getP2(k)))
+                            merges.add(edges.getP1(k), edges.getP2(k), edges.getScore(k));
+                    }
+                }
+                log.info("Boruvka round {}: {} edges remaining, {} components.", round, live.length,
+                        forest.getSetCount());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error computing spanning forest: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+        log.info("{} merges in spanning forest.", merges.size());
+        merges.sort();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+    /**
+     * Offer an edge as the best edge out of a component.  An edge is better if it has a higher score, or the same
+     * score and a lower position.
+     *
+     * @param best		array of best edges for each component root
+     * @param root		root of the component
+     * @param k			position of the edge
+     * @param edges		list of edges
+     */
+    private static void offer(AtomicIntegerArray best, int root, int k, EdgeList edges) {
+        final double score = edges.getScore(k);
+        boolean done = false;
+        while (! done) {
+            int cur = best.get(root);
+            if (cur >= 0 && (edges.getScore(cur) > score || edges.getScore(cur) == score && cur < k))
+                done = true;
+            else
+                done = best.compareAndSet(root, cur, k);
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This object is the graph formed by the similarities at or above a threshold, stored in compressed sparse rows.
+ * Each similarity is listed in the rows of both of its data points.  If there is more than one similarity for the
+ * same pair, only the last one is kept.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class NeighborGraph {
+
+    // FIELDS
+    /** position of the first entry for each data point, plus one past the end */
+    private int[] starts;
+    /** neighboring data point of each entry */
+    private int[] targets;
+    /** similarity score of each entry */
+    private double[] scores;
+
+    /**
+     * Build the graph of the similarities at or above a threshold.
+     *
+     * @param edges			list of similarity edges
+     * @param n				number of data points
+     * @param threshold		minimum similarity for a neighbor
+     */
+    public NeighborGraph(EdgeList edges, int n, double threshold) {
+        final int m = edges.size();
+        int[] counts = new int[n + 1];
+        long entries = 0;
+        for (int e = 0; e < m; e++) {
+            if (edges.getScore(e) >= threshold && edges.getP1(e) != edges.getP2(e)) {
+                counts[edges.getP1(e) + 1]++;
+                counts[edges.getP2(e) + 1]++;
+                entries += 2;
+            }
+        }
+        if (entries > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many similarities for an in-memory neighbor graph.");
+        for (int v = 0; v < n; v++)
+            counts[v + 1] += counts[v];
+        int[] fill = Arrays.copyOf(counts, n);
+        int[] allTargets = new int[(int) entries];
+        double[] allScores = new double[(int) entries];
+        for (int e = 0; e < m; e++) {
+            double score = edges.getScore(e);
+            int p1 = edges.getP1(e);
+            int p2 = edges.getP2(e);
+            if (score >= threshold && p1 != p2) {
+                allTargets[fill[p1]] = p2;
+                allScores[fill[p1]++] = score;
+                allTargets[fill[p2]] = p1;
+                allScores[fill[p2]++] = score;
+            }
+        }
+        // Remove the duplicate pairs.  The entries in each row are in input order, so the last similarity for a
+        // pair is last in both rows.
+        this.starts = new int[n + 1];
+        int[] stamps = new int[n];
+        Arrays.fill(stamps, -1);
+        int[] positions = new int[n];
+        int out = 0;
+        for (int v = 0; v < n; v++) {
+            this.starts[v] = out;
+            for (int a = counts[v]; a < counts[v + 1]; a++) {
+                int t = allTargets[a];
+                if (stamps[t] == v)
+                    allScores[positions[t]] = allScores[a];
+                else {
+                    stamps[t] = v;
+                    positions[t] = out;
+                    allTargets[out] = t;
+                    allScores[out] = allScores[a];
+                    out++;
+                }
+            }
+        }
+        this.starts[n] = out;
+        this.targets = Arrays.copyOf(allTargets, out);
+        this.scores = Arrays.copyOf(allScores, out);
+    }
+
+    /**
+     * @return the number of data points in the graph
+     */
+    public int size() {
+        return this.starts.length - 1;
+    }
+
+    /**
+     * @return the number of neighbors of a data point
+     *
+     * @param v		data point of interest
+     */
+    public int degree(int v) {
+        return this.starts[v + 1] - this.starts[v];
+    }
+
+    /**
+     * @return the array of row start positions, plus one past the end; this is the internal array, and must
+     * 		   not be modified
+     */
+    public int[] getStarts() {
+        return this.starts;
+    }
+
+    /**
+     * @return the array of neighboring data points for the entries; this is the internal array, and must not be
+     * 		   modified
+     */
+    public int[] getTargets() {
+        return this.targets;
+    }
+
+    /**
+     * @return the array of similarity scores for the entries; this is the internal array, and must not be
+     * 		   modified
+     */
+    public double[] getScores() {
+        return this.scores;
+    }
+
+    /**
+     * Compute the mean similarity of the neighbor pairs inside each cluster of a labeling.
+     *
+     * @param labels	cluster number of each data point
+     * @param count		number of clusters
+     *
+     * @return an array containing the mean similarity inside each cluster, or 0 if a cluster has no pairs
+     */
+    public double[] meanScores(int[] labels, int count) {
+        double[] sums = new double[count];
+        int[] pairs = new int[count];
+        for (int v = 0; v < this.size(); v++) {
+            final int c = labels[v];
+            for (int a = this.starts[v]; a < this.starts[v + 1]; a++) {
+                if (labels[this.targets[a]] == c) {
+                    sums[c] += this.scores[a];
+                    pairs[c]++;
+                }
+            }
+        }
+        double[] retVal = new double[count];
+        for (int c = 0; c < count; c++)
+            retVal[c] = (pairs[c] == 0 ? 0.0 : sums[c] / pairs[c]);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,375 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object reads a tab-delimited file of similarity scores using multiple threads.  The file is divided into
+ * chunks of roughly equal size at line boundaries, and each chunk is memory-mapped and parsed by a worker thread
+ * directly from the bytes.  Each worker builds its own dictionary of the data point IDs in its chunk and its own
+ * edge list.  The chunks are then passed to the visitor in file order, with the local indices converted to the
+ * main dictionary's indices, so the visitor sees exactly what it would see from a sequential read.  Only a limited
+ * number of parsed chunks is kept in memory at a time.
+ *
+ * The first line of the file is a header.  The column specifiers are resolved against it the same way as for a
+ * sequential read:  a column name is matched against the headers, and a number is a 1-based column index.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelFileSimilaritySource extends FileSimilaritySource {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ParallelFileSimilaritySource.class);
+    /** number of worker threads */
+    private int threads;
+    /** target chunk size in bytes */
+    private static final long CHUNK_SIZE = 1L << 24;
+    /** powers of ten that are exactly representable as doubles */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+    }
+
+    /**
+     * This object contains the results of parsing one chunk.
+     */
+    private static class Chunk {
+
+        /** dictionary of the data point IDs in the chunk */
+        private PointDictionary localPoints;
+        /** edges in the chunk, using local indices */
+        private EdgeList edges;
+        /** number of records skipped */
+        private int skipped;
+
+        /**
+         * Construct an empty chunk result.
+         *
+         * @param length	length of the chunk in bytes
+         */
+        public Chunk(long length) {
+            int estimate = (int) Math.min(length / 20, 1 << 22);
+            this.localPoints = new PointDictionary(estimate / 4);
+            this.edges = new EdgeList(estimate);
+            this.skipped = 0;
+        }
+
+    }
+
+    /**
+     * Construct a parallel similarity source for a tab-delimited file.
+     *
+     * @param inFile		input file
+     * @param col1Name		index (1-based) or name of first data point ID column
+     * @param col2Name		index (1-based) or name of second data point ID column
+     * @param scoreName		index (1-based) or name of score column
+     * @param threads		number of worker threads
+     */
+    public ParallelFileSimilaritySource(File inFile, String col1Name, String col2Name, String scoreName, int threads) {
+        super(inFile, col1Name, col2Name, scoreName);
+        this.threads = threads;
+    }
+
+    @Override
+    public long scan(PointDictionary points, Visitor visitor) throws IOException {
+        long retVal = 0;
+        int skipped = 0;
+        final File inFile = this.getFile();
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            // Read the header line and find the columns.
+            final long fileSize = channel.size();
+            long start = nextLine(channel, 0);
+            String[] headers = readLine(channel, 0, start).split("\t", -1);
+            final int c1 = findColumn(headers, this.getCol1Name());
+            final int c2 = findColumn(headers, this.getCol2Name());
+            final int sc = findColumn(headers, this.getScoreName());
+            final int maxCol = Math.max(c1, Math.max(c2, sc));
+            log.info("Reading similarities from {} using {} threads.", inFile, this.threads);
+            // Parse the chunks in parallel, and deliver them in order.  We keep only a limited number of chunks
+            // in flight.
+            ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+            Deque<Future<Chunk>> queue = new ArrayDeque<Future<Chunk>>();
+            try {
+                while (start < fileSize || ! queue.isEmpty()) {
+                    while (start < fileSize && queue.size() < this.threads * 2) {
+                        final long chunkStart = start;
+                        final long chunkEnd = nextLine(channel, Math.min(fileSize, start + CHUNK_SIZE));
+                        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart,
+                                chunkEnd - chunkStart);
+                        queue.add(pool.submit(() -> parseChunk(buffer, c1, c2, sc, maxCol)));
+                        start = chunkEnd;
+                    }
+                    Chunk chunk = queue.remove().get();
+                    // Convert the local indices to main indices.  The local dictionary is in order of first
+                    // appearance, so the main dictionary gets the same order as a sequential read.
+                    final int n = chunk.localPoints.size();
+                    int[] pointMap = new int[n];
+                    for (int i = 0; i < n; i++)
+                        pointMap[i] = points.intern(chunk.localPoints.get(i));
+                    final int m = chunk.edges.size();
+                    for (int k = 0; k < m; k++)
+                        visitor.accept(pointMap[chunk.edges.getP1(k)], pointMap[chunk.edges.getP2(k)],
+                                chunk.edges.getScore(k));
+                    skipped += chunk.skipped;
+                    long oldVal = retVal;
+                    retVal += m;
+                    if (log.isInfoEnabled() && oldVal / 1000000 != retVal / 1000000)
+                        log.info("{} similarities read.", retVal);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + inFile + ".", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                throw new IOException("Error reading " + inFile + ": " + cause.toString(), cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        log.info("{} similarities read for {} data points. {} skipped.", retVal, points.size(), skipped);
+        return retVal;
+    }
+
+    /**
+     * Parse a chunk of the input file.
+     *
+     * @param buffer	buffer containing the chunk, consisting of whole lines
+     * @param c1		index of the first data point ID column
+     * @param c2		index of the second data point ID column
+     * @param sc		index of the score column
+     * @param maxCol	highest column index needed
+     *
+     * @return the parsed chunk
+     */
+    private static Chunk parseChunk(ByteBuffer buffer, int c1, int c2, int sc, int maxCol) {
+        final int len = buffer.limit();
+        Chunk retVal = new Chunk(len);
+        int[] fieldStart = new int[maxCol + 1];
+        int[] fieldEnd = new int[maxCol + 1];
+        byte[] idBuffer = new byte[256];
+        int pos = 0;
+        while (pos < len) {
+            // Find the fields of interest in this line.
+            int col = 0;
+            int fStart = pos;
+            int lineEnd = pos;
+            boolean eol = false;
+            while (! eol) {
+                byte b = (lineEnd < len ? buffer.get(lineEnd) : (byte) '\n');
+                if (b == '\t' || b == '\n') {
+                    if (col <= maxCol) {
+                        fieldStart[col] = fStart;
+                        fieldEnd[col] = lineEnd;
+                    }
+                    col++;
+                    fStart = lineEnd + 1;
+                    eol = (b == '\n');
+                }
+                if (! eol)
+                    lineEnd++;
+            }
+            int next = lineEnd + 1;
+            // Strip a carriage return from the last field.
+            if (col - 1 <= maxCol && fieldEnd[col - 1] > fieldStart[col - 1] && buffer.get(fieldEnd[col - 1] - 1) == '\r')
+                fieldEnd[col - 1]--;
+            if (lineEnd == pos || (lineEnd == pos + 1 && buffer.get(pos) == '\r')) {
+                // Blank lines are ignored.
+            } else if (col <= maxCol)
+                retVal.skipped++;
+            else {
+                int p1 = retVal.localPoints.intern(decode(buffer, fieldStart[c1], fieldEnd[c1], idBuffer));
+                int p2 = retVal.localPoints.intern(decode(buffer, fieldStart[c2], fieldEnd[c2], idBuffer));
+                double score = parseDouble(buffer, fieldStart[sc], fieldEnd[sc]);
+                if (p1 == p2 || ! Double.isFinite(score))
+                    retVal.skipped++;
+                else
+                    retVal.edges.accept(p1, p2, score);
+            }
+            pos = next;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the string in a field of a byte buffer
+     *
+     * @param buffer	source byte buffer
+     * @param start		position of the first byte
+     * @param end		position past the last byte
+     * @param work		work array for copying the bytes (if it is big enough)
+     */
+    private static String decode(ByteBuffer buffer, int start, int end, byte[] work) {
+        final int len = end - start;
+        byte[] bytes = (len <= work.length ? work : new byte[len]);
+        for (int i = 0; i < len; i++)
+            bytes[i] = buffer.get(start + i);
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a floating-point number directly from the bytes.  The common case of a decimal number with no more
+     * than 15 significant digits and a small exponent is computed exactly from the digits.  Anything else is
+     * passed to the standard parser, so the result is always the same as for a sequential read.  A field that is
+     * blank or not a valid number returns NaN.
+     *
+     * @param buffer	source byte buffer
+     * @param start		position of the first byte
+     * @param end		position past the last byte
+     *
+     * @return the number in the field
+     */
+    protected static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = (buffer.get(pos) == '-');
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean any = false;
+        boolean fast = true;
+        // Integer part.
+        while (pos < end && isDigit(buffer.get(pos))) {
+            any = true;
+            if (mantissa > 0 || buffer.get(pos) != '0') {
+                mantissa = mantissa * 10 + (buffer.get(pos) - '0');
+                digits++;
+            }
+            pos++;
+        }
+        // Fraction part.
+        if (pos < end && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < end && isDigit(buffer.get(pos))) {
+                any = true;
+                if (mantissa > 0 || buffer.get(pos) != '0') {
+                    mantissa = mantissa * 10 + (buffer.get(pos) - '0');
+                    digits++;
+                }
+                scale--;
+                pos++;
+            }
+        }
+        // Exponent part.
+        if (any && pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+            pos++;
+            boolean expNegative = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                expNegative = (buffer.get(pos) == '-');
+                pos++;
+            }
+            int exponent = 0;
+            boolean expAny = false;
+            while (pos < end && isDigit(buffer.get(pos))) {
+                expAny = true;
+                exponent = Math.min(exponent * 10 + (buffer.get(pos) - '0'), 100000);
+                pos++;
+            }
+            if (! expAny)
+                fast = false;
+            scale += (expNegative ? -exponent : exponent);
+        }
+        if (! any || pos < end || digits > 15 || scale < -22 || scale > 22)
+            fast = false;
+        double retVal;
+        if (fast) {
+            // The mantissa and the power of ten are both exact, so a single operation gives the correctly
+            // rounded result.
+            retVal = (double) mantissa;
+            if (scale < 0)
+                retVal /= POWERS_OF_TEN[-scale];
+            else
+                retVal *= POWERS_OF_TEN[scale];
+            if (negative)
+                retVal = -retVal;
+        } else {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = buffer.get(start + i);
+            retVal = parseScore(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified byte is a decimal digit
+     *
+     * @param b		byte to check
+     */
+    private static boolean isDigit(byte b) {
+        return (b >= '0' && b <= '9');
+    }
+
+    /**
+     * @return the position after the end of the line containing the specified position
+     *
+     * @param channel	file channel being read
+     * @param pos		starting position
+     *
+     * @throws IOException
+     */
+    private static long nextLine(FileChannel channel, long pos) throws IOException {
+        final long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long retVal = size;
+        boolean found = false;
+        while (! found && pos < size) {
+            buffer.clear();
+            int n = channel.read(buffer, pos);
+            for (int i = 0; i < n && ! found; i++) {
+                if (buffer.get(i) == '\n') {
+                    retVal = pos + i + 1;
+                    found = true;
+                }
+            }
+            pos += n;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the text of a region of the file, without the trailing line terminator
+     *
+     * @param channel	file channel being read
+     * @param start		position of the first byte
+     * @param end		position past the last byte
+     *
+     * @throws IOException
+     */
+    private static String readLine(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0);
+        String retVal = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        int len = retVal.length();
+        while (len > 0 && (retVal.charAt(len - 1) == '\n' || retVal.charAt(len - 1) == '\r'))
+            len--;
+        return retVal.substring(0, len);
+    }
+
+}
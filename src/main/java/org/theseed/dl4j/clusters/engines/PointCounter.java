@@ -0,0 +1,348 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.clusters.ClusterGroup;
+
+/**
+ * This object counts the distinct data point IDs in a tab-delimited similarity file before it is loaded, so that
+ * the dictionary and the engine structures can be sized once instead of growing as the data points are read.
+ *
+ * The pre-pass only looks at the two ID columns.  The bytes of each ID are hashed to 64 bits without building a
+ * string.  The SKETCH count feeds the hashes to a HyperLogLog sketch, which uses a fixed 16K of memory and is
+ * accurate to within about one percent; the result is padded slightly so that it is very unlikely to fall short.
+ * The EXACT count keeps the hashes in a primitive hash set, which is exact unless two IDs have the same 64-bit
+ * hash.  Compressed files are decompressed on the fly, but the standard input cannot be read twice, so it
+ * cannot be counted.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PointCounter {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PointCounter.class);
+    /** input file */
+    private File inFile;
+    /** index (1-based) or name of first data point ID column */
+    private String col1Name;
+    /** index (1-based) or name of second data point ID column */
+    private String col2Name;
+    /** number of bits in a sketch register index */
+    private static final int SKETCH_BITS = 14;
+    /** padding factor for sketch counts, about four standard errors */
+    private static final double SKETCH_PAD = 1.03;
+    /** initial size of the input buffer */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * This enum describes the ways to determine the number of data points.
+     */
+    public static enum Type {
+        /** estimate the count from the file size */
+        ESTIMATE {
+            @Override
+            public int count(PointCounter counter) throws IOException {
+                return ClusterGroup.estimateDataPoints(counter.inFile);
+            }
+        },
+        /** approximate the count with a pre-pass using a HyperLogLog sketch */
+        SKETCH {
+            @Override
+            public int count(PointCounter counter) throws IOException {
+                return counter.sketch();
+            }
+        },
+        /** compute the count exactly with a pre-pass */
+        EXACT {
+            @Override
+            public int count(PointCounter counter) throws IOException {
+                return counter.exact();
+            }
+        };
+
+        /**
+         * @return the number of data points in the counter's input file
+         *
+         * @param counter	point counter for the input file
+         *
+         * @throws IOException
+         */
+        public abstract int count(PointCounter counter) throws IOException;
+
+    }
+
+    /**
+     * This interface is used to receive the ID hashes during a pre-pass.
+     */
+    private interface HashVisitor {
+
+        /**
+         * Process the hash of a single data point ID.
+         *
+         * @param hash	64-bit hash of the ID bytes
+         */
+        void accept(long hash);
+
+    }
+
+    /**
+     * This is a simple open-addressing set of 64-bit hashes.
+     */
+    private static class HashSet64 implements HashVisitor {
+
+        /** table of hashes (0 means empty) */
+        private long[] table;
+        /** number of hashes in the set */
+        private int count;
+        /** mask for converting a hash to a table slot */
+        private int mask;
+
+        /**
+         * Construct an empty hash set.
+         */
+        public HashSet64() {
+            this.allocate(1 << 16);
+            this.count = 0;
+        }
+
+        /**
+         * Allocate an empty table.
+         *
+         * @param size	number of slots (must be a power of 2)
+         */
+        private void allocate(int size) {
+            this.table = new long[size];
+            this.mask = size - 1;
+        }
+
+        @Override
+        public void accept(long hash) {
+            // Zero is the empty marker, so it is stored as 1.
+            if (hash == 0)
+                hash = 1;
+            if (this.insert(hash)) {
+                this.count++;
+                if (this.count > this.table.length / 4 * 3) {
+                    long[] oldTable = this.table;
+                    this.allocate(oldTable.length * 2);
+                    for (long old : oldTable) {
+                        if (old != 0)
+                            this.insert(old);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Insert a hash into the table.
+         *
+         * @param hash	nonzero hash to insert
+         *
+         * @return TRUE if the hash was new
+         */
+        private boolean insert(long hash) {
+            int s = (int) hash & this.mask;
+            boolean retVal = false;
+            while (this.table[s] != hash && ! retVal) {
+                if (this.table[s] == 0) {
+                    this.table[s] = hash;
+                    retVal = true;
+                } else
+                    s = (s + 1) & this.mask;
+            }
+            return retVal;
+        }
+
+    }
+
+    /**
+     * This is a HyperLogLog sketch of 64-bit hashes.
+     */
+    private static class Sketch implements HashVisitor {
+
+        /** maximum leading-zero rank seen for each register */
+        private byte[] registers;
+
+        /**
+         * Construct an empty sketch.
+         */
+        public Sketch() {
+            this.registers = new byte[1 << SKETCH_BITS];
+        }
+
+        @Override
+        public void accept(long hash) {
+            int idx = (int) (hash >>> (64 - SKETCH_BITS));
+            // The guard bit limits the rank to the bits remaining after the index.
+            long rest = (hash << SKETCH_BITS) | (1L << (SKETCH_BITS - 1));
+            byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+            if (rank > this.registers[idx])
+                this.registers[idx] = rank;
+        }
+
+        /**
+         * @return the estimated number of distinct hashes
+         */
+        public double estimate() {
+            final int m = this.registers.length;
+            double sum = 0.0;
+            int zeros = 0;
+            for (byte r : this.registers) {
+                sum += Math.scalb(1.0, -r);
+                if (r == 0)
+                    zeros++;
+            }
+            double alpha = 0.7213 / (1.0 + 1.079 / m);
+            double retVal = alpha * m * m / sum;
+            // For small counts, linear counting of the empty registers is more accurate.
+            if (retVal <= 2.5 * m && zeros > 0)
+                retVal = m * Math.log((double) m / zeros);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Construct a point counter for a tab-delimited similarity file.
+     *
+     * @param inFile		input file
+     * @param col1Name		index (1-based) or name of first data point ID column
+     * @param col2Name		index (1-based) or name of second data point ID column
+     */
+    public PointCounter(File inFile, String col1Name, String col2Name) {
+        this.inFile = inFile;
+        this.col1Name = col1Name;
+        this.col2Name = col2Name;
+    }
+
+    /**
+     * @return the approximate number of distinct data point IDs, padded so that it is unlikely to be too low
+     *
+     * @throws IOException
+     */
+    public int sketch() throws IOException {
+        Sketch sketch = new Sketch();
+        this.scan(sketch);
+        double estimate = sketch.estimate();
+        log.info("Approximately {} distinct data points found in {}.", Math.round(estimate), this.inFile);
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.ceil(estimate * SKETCH_PAD));
+    }
+
+    /**
+     * @return the exact number of distinct data point IDs
+     *
+     * @throws IOException
+     */
+    public int exact() throws IOException {
+        HashSet64 set = new HashSet64();
+        this.scan(set);
+        log.info("{} distinct data points found in {}.", set.count, this.inFile);
+        return set.count;
+    }
+
+    /**
+     * Read the input file and pass the hash of each data point ID to a visitor.  Lines are handled the same way
+     * as by the similarity sources:  blank lines are ignored, and lines without all the required columns are
+     * skipped.
+     *
+     * @param visitor	object to receive the hashes
+     *
+     * @throws IOException
+     */
+    private void scan(HashVisitor visitor) throws IOException {
+        long start = System.currentTimeMillis();
+        long lines = 0;
+        try (InputStream inStream = FileSimilaritySource.openInput(this.inFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int filled = 0;
+            int pos = 0;
+            int c1 = -1;
+            int c2 = -1;
+            int[] fieldStart = null;
+            int[] fieldEnd = null;
+            boolean eof = false;
+            while (! eof || pos < filled) {
+                // Find the end of the current line.
+                int lineEnd = pos;
+                while (lineEnd < filled && buffer[lineEnd] != '\n')
+                    lineEnd++;
+                if (lineEnd >= filled && ! eof) {
+                    // Here we have a partial line.  Shift it to the front and read more data.
+                    filled -= pos;
+                    System.arraycopy(buffer, pos, buffer, 0, filled);
+                    pos = 0;
+                    if (filled == buffer.length)
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    int n = inStream.read(buffer, filled, buffer.length - filled);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        filled += n;
+                } else {
+                    int end = lineEnd;
+                    if (end > pos && buffer[end - 1] == '\r')
+                        end--;
+                    if (c1 < 0) {
+                        // This is the header line.
+                        String[] headers = new String(buffer, pos, end - pos, StandardCharsets.UTF_8).split("\t", -1);
+                        c1 = FileSimilaritySource.findColumn(headers, this.col1Name);
+                        c2 = FileSimilaritySource.findColumn(headers, this.col2Name);
+                        fieldStart = new int[Math.max(c1, c2) + 1];
+                        fieldEnd = new int[fieldStart.length];
+                    } else if (end > pos) {
+                        // Locate the ID fields.
+                        int col = 0;
+                        int fStart = pos;
+                        for (int i = pos; i <= end && col < fieldStart.length; i++) {
+                            if (i == end || buffer[i] == '\t') {
+                                fieldStart[col] = fStart;
+                                fieldEnd[col] = i;
+                                col++;
+                                fStart = i + 1;
+                            }
+                        }
+                        if (col >= fieldStart.length) {
+                            visitor.accept(hash(buffer, fieldStart[c1], fieldEnd[c1]));
+                            visitor.accept(hash(buffer, fieldStart[c2], fieldEnd[c2]));
+                            lines++;
+                        }
+                    }
+                    pos = lineEnd + 1;
+                }
+            }
+        }
+        log.info("{} similarity lines counted in {} seconds.", lines, (System.currentTimeMillis() - start) / 1000);
+    }
+
+    /**
+     * @return a 64-bit hash of a range of bytes
+     *
+     * @param buffer	buffer containing the bytes
+     * @param start		position of the first byte
+     * @param end		position past the last byte
+     */
+    private static long hash(byte[] buffer, int start, int end) {
+        // This is FNV-1a, followed by a finalizer to mix the high bits, which the sketch uses as the register index.
+        long retVal = 0xCBF29CE484222325L;
+        for (int i = start; i < end; i++)
+            retVal = (retVal ^ (buffer[i] & 0xFF)) * 0x100000001B3L;
+        retVal ^= retVal >>> 33;
+        retVal *= 0xFF51AFD7ED558CCDL;
+        retVal ^= retVal >>> 33;
+        retVal *= 0xC4CEB9FE1A85EC53L;
+        retVal ^= retVal >>> 33;
+        return retVal;
+    }
+
+}
@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * This object maps data point IDs to dense integer indices.  The indices are assigned in the order the
+ * IDs are first seen, starting from 0, so they can be used directly as array subscripts by the
+ * clustering engines.
+ *
+ * The dictionary is built once when the input is loaded, and from then on the engines work entirely with the
+ * indices.  To keep the load cheap, the lookup table is an open-addressing hash table of primitive index values
+ * with the hash codes cached alongside, so there are no boxed keys or entry objects.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PointDictionary {
+
+    // FIELDS
+    /** list of IDs by index */
+    private String[] ids;
+    /** cached hash code of each ID by index */
+    private int[] hashes;
+    /** number of IDs in the dictionary */
+    private int count;
+    /** hash table of indices plus one (0 means empty) */
+    private int[] table;
+    /** mask for converting a hash code to a table slot */
+    private int mask;
+    /** number of IDs at which the table must grow */
+    private int threshold;
+
+    /**
+     * This is a read-only list view of the IDs.
+     */
+    private class IdList extends AbstractList<String> implements RandomAccess {
+
+        @Override
+        public String get(int index) {
+            if (index >= PointDictionary.this.count)
+                throw new IndexOutOfBoundsException("Index " + index + " is past the end of the dictionary.");
+            return PointDictionary.this.ids[index];
+        }
+
+        @Override
+        public int size() {
+            return PointDictionary.this.count;
+        }
+
+    }
+
+    /**
+     * Construct an empty point dictionary.
+     *
+     * @param expected	expected number of data points
+     */
+    public PointDictionary(int expected) {
+        expected = Math.max(expected, 10);
+        this.ids = new String[expected];
+        this.hashes = new int[expected];
+        this.count = 0;
+        int tableSize = Integer.highestOneBit(expected * 2 - 1) << 1;
+        this.allocateTable(tableSize);
+    }
+
+    /**
+     * Allocate an empty hash table.
+     *
+     * @param tableSize		number of slots (must be a power of 2)
+     */
+    private void allocateTable(int tableSize) {
+        this.table = new int[tableSize];
+        this.mask = tableSize - 1;
+        this.threshold = tableSize / 4 * 3;
+    }
+
+    /**
+     * @return the table slot for a hash code
+     *
+     * @param hash	hash code to convert
+     */
+    private int slot(int hash) {
+        // Spread the high bits so that similar IDs do not cluster.
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    /**
+     * @return the index of a data point, adding it to the dictionary if it is new
+     *
+     * @param id	ID of the data point
+     */
+    public int intern(String id) {
+        final int hash = id.hashCode();
+        int s = this.slot(hash);
+        int retVal = -1;
+        while (retVal < 0) {
+            int entry = this.table[s];
+            if (entry == 0) {
+                // Here we have a new ID.
+                retVal = this.add(id, hash, s);
+            } else if (this.hashes[entry - 1] == hash && this.ids[entry - 1].equals(id))
+                retVal = entry - 1;
+            else
+                s = (s + 1) & this.mask;
+        }
+        return retVal;
+    }
+
+    /**
+     * Add a new ID to the dictionary.
+     *
+     * @param id	ID to add
+     * @param hash	hash code of the ID
+     * @param s		empty table slot for the ID
+     *
+     * @return the index of the new ID
+     */
+    private int add(String id, int hash, int s) {
+        final int retVal = this.count;
+        if (retVal >= this.ids.length) {
+            int newLen = (int) Math.min(Integer.MAX_VALUE - 8, this.ids.length * 2L);
+            this.ids = Arrays.copyOf(this.ids, newLen);
+            this.hashes = Arrays.copyOf(this.hashes, newLen);
+        }
+        this.ids[retVal] = id;
+        this.hashes[retVal] = hash;
+        this.count++;
+        this.table[s] = this.count;
+        if (this.count > this.threshold) {
+            // Rebuild the table at double the size.
+            this.allocateTable(this.table.length * 2);
+            for (int i = 0; i < this.count; i++) {
+                int s2 = this.slot(this.hashes[i]);
+                while (this.table[s2] != 0)
+                    s2 = (s2 + 1) & this.mask;
+                this.table[s2] = i + 1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the index of a data point, or -1 if it is not in the dictionary
+     *
+     * @param id	ID of the data point
+     */
+    public int find(String id) {
+        final int hash = id.hashCode();
+        int s = this.slot(hash);
+        int retVal = -1;
+        boolean done = false;
+        while (! done) {
+            int entry = this.table[s];
+            if (entry == 0)
+                done = true;
+            else if (this.hashes[entry - 1] == hash && this.ids[entry - 1].equals(id)) {
+                retVal = entry - 1;
+                done = true;
+            } else
+                s = (s + 1) & this.mask;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ID of the data point with the specified index
+     *
+     * @param idx	index of the data point
+     */
+    public String get(int idx) {
+        if (idx >= this.count)
+            throw new IndexOutOfBoundsException("Index " + idx + " is past the end of the dictionary.");
+        return this.ids[idx];
+    }
+
+    /**
+     * @return the number of data points in the dictionary
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return the list of data point IDs in index order
+     */
+    public List<String> getIds() {
+        return new IdList();
+    }
+
+}
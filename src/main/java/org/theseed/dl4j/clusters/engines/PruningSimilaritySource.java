@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This similarity source filters another source, dropping the similarities below a threshold as they are read.
+ * The data point IDs in the dropped similarities are still added to the dictionary, so a data point whose
+ * similarities are all dropped is still output as a singleton.
+ *
+ * A dropped similarity is treated as missing, which the engines represent as negative infinity.  For SINGLE and
+ * COMPLETE linkage this does not change the result, since a cluster similarity computed from a sub-threshold pair
+ * is below the threshold whether or not the pair is missing.  For AVERAGE linkage a missing pair makes the whole
+ * cluster similarity missing, while the real average might have reached the threshold, so the result is an
+ * approximation that favors smaller clusters.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PruningSimilaritySource extends SimilaritySource {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PruningSimilaritySource.class);
+    /** underlying similarity source */
+    private SimilaritySource source;
+    /** minimum similarity score to keep */
+    private double minScore;
+    /** number of similarities dropped in the last scan */
+    private long pruned;
+
+    /**
+     * Construct a pruning similarity source.
+     *
+     * @param source		underlying similarity source
+     * @param minScore		minimum similarity score to keep
+     */
+    public PruningSimilaritySource(SimilaritySource source, double minScore) {
+        this.source = source;
+        this.minScore = minScore;
+        this.pruned = 0;
+    }
+
+    @Override
+    public long scan(PointDictionary points, Visitor visitor) throws IOException {
+        this.pruned = 0;
+        final long total = this.source.scan(points, (p1, p2, score) -> {
+            if (score >= this.minScore)
+                visitor.accept(p1, p2, score);
+            else
+                this.pruned++;
+        });
+        long retVal = total - this.pruned;
+        log.info("{} of {} similarities were below {} and were pruned.", this.pruned, total, this.minScore);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This engine performs the same merge loop as the cluster-group engine, but on a condensed similarity matrix.
+ * Each merge scans all the active pairs for the closest one whose combined size is within the size limit, and
+ * then updates the similarities in place using the Lance-Williams formula for the merge method.  Like the
+ * cluster-group engine it takes O(n^3) time, but the primitive storage is far more compact.  Clusters blocked by
+ * the size limit are retired by the base class, so the scan only covers pairs that might still be merged.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ScanClusterEngine extends MatrixClusterEngine {
+
+    /**
+     * Construct a matrix-scan engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public ScanClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (! isReducible(this.getMethod()))
+            throw new ParseFailureException("Merge method " + this.getMethod() + " is not supported by the SCAN engine.");
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final double minScore = this.getMinScore();
+        final int maxSize = this.getMaxSize();
+        this.startClustering();
+        boolean done = false;
+        while (! done) {
+            // Find the closest pair of clusters that can be merged.
+            int best1 = -1;
+            int best2 = -1;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int k1 = 1; k1 < this.nActive; k1++) {
+                int c1 = this.active[k1];
+                for (int k2 = 0; k2 < k1; k2++) {
+                    int c2 = this.active[k2];
+                    if (this.sizes[c1] + this.sizes[c2] <= maxSize) {
+                        double s = this.matrix.get(c1, c2);
+                        if (s > best) {
+                            best = s;
+                            best1 = c1;
+                            best2 = c2;
+                        }
+                    }
+                }
+            }
+            if (best1 < 0 || best < minScore)
+                done = true;
+            else {
+                // Merge the second cluster into the first.
+                this.mergeClusters(best1, best2, best);
+                if (this.mergeList.size() % 100 == 0)
+                    log.info("{} merges performed.", this.mergeList.size());
+            }
+        }
+        MergeList merges = this.finishClustering();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This is a condensed similarity matrix that stores the similarities as 16-bit fixed-point values on the heap.  It
+ * is intended for similarities in the range [-1, 1], such as correlations, and uses a quarter of the memory of the
+ * double-precision matrix.  A similarity is stored as the nearest multiple of 1/32767, so each stored value is
+ * within about 1.5e-5 of the original.  Values outside the range are clamped to -1 or 1, and the missing value is
+ * stored as a reserved code.
+ *
+ * See {@link SimilarityMatrix.Type} for the effect of the rounding on the merges and on the minimum score.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ShortSimilarityMatrix extends SimilarityMatrix {
+
+    // FIELDS
+    /** storage chunks */
+    private short[][] chunks;
+    /** TRUE if a value has been clamped */
+    private boolean clamped;
+    /** code for a missing similarity */
+    private static final short MISSING = Short.MIN_VALUE;
+    /** number of steps from 0 to 1 */
+    private static final double SCALE = Short.MAX_VALUE;
+
+    /**
+     * Construct an empty 16-bit similarity matrix.
+     *
+     * @param capacity	expected number of data points
+     */
+    public ShortSimilarityMatrix(int capacity) {
+        this.chunks = new short[0][];
+        this.clamped = false;
+        this.reserve(capacity);
+    }
+
+    @Override
+    protected void allocate(long oldCount, long newCount) {
+        int nChunks = chunkCount(newCount);
+        if (nChunks > this.chunks.length)
+            this.chunks = Arrays.copyOf(this.chunks, nChunks);
+        for (int c = 0; c < nChunks; c++) {
+            int newLen = chunkLength(c, newCount);
+            short[] chunk = this.chunks[c];
+            int oldLen = (chunk == null ? 0 : chunk.length);
+            if (newLen > oldLen) {
+                chunk = (chunk == null ? new short[newLen] : Arrays.copyOf(chunk, newLen));
+                Arrays.fill(chunk, oldLen, newLen, MISSING);
+                this.chunks[c] = chunk;
+            }
+        }
+    }
+
+    @Override
+    protected void release() {
+        this.chunks = new short[0][];
+    }
+
+    @Override
+    protected double getEntry(long idx) {
+        short code = this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)];
+        return (code == MISSING ? Double.NEGATIVE_INFINITY : code / SCALE);
+    }
+
+    @Override
+    protected void setEntry(long idx, double score) {
+        short code;
+        if (score == Double.NEGATIVE_INFINITY)
+            code = MISSING;
+        else {
+            if (! this.clamped && (score < -1.0 || score > 1.0)) {
+                log.warn("Similarity {} is outside the range of 16-bit storage and will be clamped.", score);
+                this.clamped = true;
+            }
+            code = (short) Math.round(Math.max(-1.0, Math.min(1.0, score)) * SCALE);
+        }
+        this.chunks[(int) (idx >> CHUNK_BITS)][(int) (idx & CHUNK_MASK)] = code;
+    }
+
+    @Override
+    protected int entryBytes() {
+        return Short.BYTES;
+    }
+
+}
@@ -0,0 +1,394 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This is the base class for a condensed similarity matrix.  Only the triangle below the diagonal is stored,
+ * in a flat primitive layout indexed by dictionary indices.  The similarity between points i and j (i < j) is
+ * at position j(j-1)/2 + i, so adding a data point simply appends its row to the end of the storage.
+ *
+ * A missing similarity is stored as negative infinity.  This value propagates correctly through all of the
+ * Lance-Williams merge formulas and never compares as greater than or equal to a minimum score.
+ *
+ * The storage is divided into chunks so that the matrix is not limited by the maximum size of a Java array.
+ *
+ * The update after a merge can be spread over multiple threads.  Each row of the update reads one entry and
+ * writes a different one, and no two rows touch the same entry, so the active list is simply divided into
+ * stripes.  The results are identical to a single-threaded update.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class SimilarityMatrix {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SimilarityMatrix.class);
+    /** number of data points in the matrix */
+    private int size;
+    /** number of entries allocated */
+    private long allocated;
+    /** number of bits in a chunk index */
+    protected static final int CHUNK_BITS = 26;
+    /** maximum number of entries in a chunk */
+    protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    /** mask for computing the index within a chunk */
+    protected static final long CHUNK_MASK = CHUNK_SIZE - 1;
+    /** minimum number of rows in a stripe of a parallel merge update */
+    private int stripeRows;
+    /** default minimum number of rows in a stripe */
+    private static final int STRIPE_ROWS = 4096;
+
+    /**
+     * This enum describes the different storage types.
+     *
+     * The SHORT and BYTE types store each similarity as the nearest multiple of one step, 1/32767 or 1/127, so
+     * each stored value is within half a step (about 1.5e-5 or 0.004) of the original.  Quantization is monotonic,
+     * so the SINGLE and COMPLETE formulas, which choose one of the two values, never increase the error.  The
+     * AVERAGE formula re-quantizes each new average, so the error can grow by up to half a step at each merge
+     * level; the error in a cluster similarity is at most half a step times the number of merges below it.  In all
+     * cases, clusters may be merged in a different order if their similarities differ by less than a step.
+     *
+     * The error also moves pairs across the minimum score.  For SINGLE and COMPLETE, a pair within half a step of
+     * the minimum can be merged or not merged depending on which way it rounds.  For example, in BYTE storage
+     * 0.7999 is stored as 102/127 = 0.803, so a pair with that similarity is merged at a minimum score of 0.8.
+     * For AVERAGE, the band around the minimum score widens by up to half a step for each merge below the pair.
+     */
+    public static enum Type {
+        /** double-precision values on the heap */
+        DOUBLE {
+            @Override
+            public SimilarityMatrix create(int capacity, File tempDir) {
+                return new DoubleSimilarityMatrix(capacity);
+            }
+        },
+        /** single-precision values on the heap */
+        FLOAT {
+            @Override
+            public SimilarityMatrix create(int capacity, File tempDir) {
+                return new FloatSimilarityMatrix(capacity);
+            }
+        },
+        /** single-precision values in a memory-mapped temporary file */
+        MAPPED {
+            @Override
+            public SimilarityMatrix create(int capacity, File tempDir) {
+                return new MappedSimilarityMatrix(capacity, tempDir);
+            }
+        },
+        /** 16-bit fixed-point values in the range [-1, 1] on the heap */
+        SHORT {
+            @Override
+            public SimilarityMatrix create(int capacity, File tempDir) {
+                return new ShortSimilarityMatrix(capacity);
+            }
+        },
+        /** 8-bit fixed-point values in the range [-1, 1] on the heap */
+        BYTE {
+            @Override
+            public SimilarityMatrix create(int capacity, File tempDir) {
+                return new ByteSimilarityMatrix(capacity);
+            }
+        };
+
+        /**
+         * @return a similarity matrix of this type
+         *
+         * @param capacity	expected number of data points
+         * @param tempDir	directory for temporary files
+         */
+        public abstract SimilarityMatrix create(int capacity, File tempDir);
+    }
+
+    /**
+     * Construct an empty similarity matrix.
+     */
+    protected SimilarityMatrix() {
+        this.size = 0;
+        this.allocated = 0;
+        this.stripeRows = STRIPE_ROWS;
+    }
+
+    /**
+     * Specify the minimum number of rows in a stripe of a parallel merge update.  The default is large enough that
+     * small matrices are always updated in a single thread, so this is mainly useful for testing.
+     *
+     * @param stripeRows	new minimum stripe size
+     */
+    void setStripeRows(int stripeRows) {
+        this.stripeRows = Math.max(stripeRows, 1);
+    }
+
+    /**
+     * @return the storage position of the similarity between two data points
+     *
+     * @param i		index of the first data point
+     * @param j		index of the second data point (must be different from the first)
+     */
+    public static long index(int i, int j) {
+        long retVal;
+        if (i < j)
+            retVal = (long) j * (j - 1) / 2 + i;
+        else
+            retVal = (long) i * (i - 1) / 2 + j;
+        return retVal;
+    }
+
+    /**
+     * @return the number of entries needed for a specified number of data points
+     *
+     * @param n		number of data points
+     */
+    public static long entries(int n) {
+        return (long) n * (n - 1) / 2;
+    }
+
+    /**
+     * Insure the matrix has room for the specified number of data points.  New similarities are missing.
+     *
+     * @param n		number of data points required
+     */
+    public void addPoints(int n) {
+        if (n > this.size) {
+            long needed = entries(n);
+            if (needed > this.allocated) {
+                // Grow geometrically to avoid frequent reallocation.
+                long target = Math.max(needed, Math.min(this.allocated * 2, entries(Integer.MAX_VALUE)));
+                this.allocate(this.allocated, target);
+                this.allocated = target;
+            }
+            this.size = n;
+        }
+    }
+
+    /**
+     * Reserve space for an expected number of data points.  The matrix size is not changed.
+     *
+     * @param n		number of data points expected
+     */
+    protected void reserve(int n) {
+        long needed = entries(n);
+        if (needed > this.allocated) {
+            this.allocate(this.allocated, needed);
+            this.allocated = needed;
+        }
+    }
+
+    /**
+     * @return the number of data points in the matrix
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the similarity between two data points
+     *
+     * @param i		index of the first data point
+     * @param j		index of the second data point
+     */
+    public double get(int i, int j) {
+        return this.getEntry(index(i, j));
+    }
+
+    /**
+     * Store the similarity between two data points.
+     *
+     * @param i		index of the first data point
+     * @param j		index of the second data point
+     * @param score	similarity to store
+     */
+    public void set(int i, int j, double score) {
+        this.setEntry(index(i, j), score);
+    }
+
+    /**
+     * Update the similarities after a merge.  The similarity from the surviving cluster to every other
+     * active cluster is recomputed in place using the Lance-Williams formula for the merge method.
+     *
+     * @param method	merge method
+     * @param keep		index of the surviving cluster
+     * @param keepSize	size of the surviving cluster before the merge
+     * @param drop		index of the cluster being merged into it
+     * @param dropSize	size of the cluster being merged
+     * @param active	array of active cluster indices
+     * @param nActive	number of active clusters
+     */
+    public void merge(ClusterMergeMethod method, int keep, int keepSize, int drop, int dropSize,
+            int[] active, int nActive) {
+        this.mergeRows(method, keep, keepSize, drop, dropSize, active, 0, nActive);
+    }
+
+    /**
+     * Update the similarities after a merge using a thread pool.  The active list is divided into stripes, and
+     * each stripe is updated by a separate task.  If there are too few active clusters to be worth dividing, the
+     * update is done in the current thread.
+     *
+     * @param method	merge method
+     * @param keep		index of the surviving cluster
+     * @param keepSize	size of the surviving cluster before the merge
+     * @param drop		index of the cluster being merged into it
+     * @param dropSize	size of the cluster being merged
+     * @param active	array of active cluster indices
+     * @param nActive	number of active clusters
+     * @param pool		thread pool for the update, or NULL to use the current thread
+     */
+    public void merge(ClusterMergeMethod method, int keep, int keepSize, int drop, int dropSize,
+            int[] active, int nActive, ForkJoinPool pool) {
+        final int stripes = (pool == null ? 1 : Math.min(pool.getParallelism() * 4, nActive / this.stripeRows));
+        if (stripes <= 1)
+            this.mergeRows(method, keep, keepSize, drop, dropSize, active, 0, nActive);
+        else {
+            try {
+                pool.submit(() -> IntStream.range(0, stripes).parallel().forEach(p ->
+                        this.mergeRows(method, keep, keepSize, drop, dropSize, active,
+                                (int) ((long) nActive * p / stripes), (int) ((long) nActive * (p + 1) / stripes))))
+                        .get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted during similarity update.", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error during similarity update: " + e.getCause().getMessage(),
+                        e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Update the similarities for a range of the active list after a merge.
+     *
+     * @param method	merge method
+     * @param keep		index of the surviving cluster
+     * @param keepSize	size of the surviving cluster before the merge
+     * @param drop		index of the cluster being merged into it
+     * @param dropSize	size of the cluster being merged
+     * @param active	array of active cluster indices
+     * @param start		position in the active list of the first cluster to update
+     * @param end		position in the active list past the last cluster to update
+     */
+    private void mergeRows(ClusterMergeMethod method, int keep, int keepSize, int drop, int dropSize,
+            int[] active, int start, int end) {
+        for (int k = start; k < end; k++) {
+            int c = active[k];
+            if (c != keep && c != drop) {
+                long kIdx = index(keep, c);
+                double newScore = mergedScore(method, this.getEntry(kIdx), keepSize, this.get(drop, c), dropSize);
+                this.setEntry(kIdx, newScore);
+            }
+        }
+    }
+
+    /**
+     * Compute the similarity between a merged cluster and a third cluster using the Lance-Williams
+     * formula for a merge method.  A missing similarity is represented by negative infinity, which
+     * propagates naturally through all the formulas.
+     *
+     * @param method	merge method
+     * @param s1		similarity between the first merged cluster and the third cluster
+     * @param n1		size of the first merged cluster
+     * @param s2		similarity between the second merged cluster and the third cluster
+     * @param n2		size of the second merged cluster
+     *
+     * @return the similarity between the merged cluster and the third cluster
+     */
+    public static double mergedScore(ClusterMergeMethod method, double s1, int n1, double s2, int n2) {
+        double retVal;
+        switch (method) {
+        case SINGLE :
+            retVal = Math.max(s1, s2);
+            break;
+        case COMPLETE :
+            retVal = Math.min(s1, s2);
+            break;
+        case AVERAGE :
+            if (s1 == Double.NEGATIVE_INFINITY || s2 == Double.NEGATIVE_INFINITY)
+                retVal = Double.NEGATIVE_INFINITY;
+            else
+                retVal = (n1 * s1 + n2 * s2) / (n1 + n2);
+            break;
+        default :
+            throw new IllegalArgumentException("Merge method " + method + " has no Lance-Williams formula.");
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of bytes of storage allocated
+     */
+    public long memorySize() {
+        return this.allocated * this.entryBytes();
+    }
+
+    /**
+     * Release the storage for this matrix.
+     */
+    public void close() {
+        this.release();
+        this.size = 0;
+        this.allocated = 0;
+    }
+
+    /**
+     * Extend the storage, filling the new entries with negative infinity.
+     *
+     * @param oldCount	number of entries currently allocated
+     * @param newCount	number of entries required
+     */
+    protected abstract void allocate(long oldCount, long newCount);
+
+    /**
+     * Release the storage.
+     */
+    protected abstract void release();
+
+    /**
+     * @return the similarity at the specified storage position
+     *
+     * @param idx	storage position
+     */
+    protected abstract double getEntry(long idx);
+
+    /**
+     * Store a similarity at the specified storage position.
+     *
+     * @param idx	storage position
+     * @param score	similarity to store
+     */
+    protected abstract void setEntry(long idx, double score);
+
+    /**
+     * @return the number of bytes per entry
+     */
+    protected abstract int entryBytes();
+
+    /**
+     * @return the number of chunks needed for a specified number of entries
+     *
+     * @param count		number of entries
+     */
+    protected static int chunkCount(long count) {
+        return (int) ((count + CHUNK_MASK) >> CHUNK_BITS);
+    }
+
+    /**
+     * @return the length of a particular chunk when a specified number of entries are allocated
+     *
+     * @param chunk		index of the chunk
+     * @param count		number of entries
+     */
+    protected static int chunkLength(int chunk, long count) {
+        long start = (long) chunk << CHUNK_BITS;
+        return (int) Math.min(CHUNK_SIZE, count - start);
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+
+/**
+ * This is the base class for a source of similarity scores for a clustering run.  The engines that do not use a
+ * cluster group read the similarities through this object, which converts the data point IDs to dictionary
+ * indices.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class SimilaritySource {
+
+    /**
+     * This interface is used to receive the similarity scores as they are read.
+     */
+    public interface Visitor {
+
+        /**
+         * Process a single similarity score.
+         *
+         * @param p1		index of the first data point
+         * @param p2		index of the second data point
+         * @param score		similarity score
+         */
+        void accept(int p1, int p2, double score);
+
+    }
+
+    /**
+     * Read all the similarity scores.  Pairs that relate a data point to itself and scores that are not
+     * finite are skipped.
+     *
+     * @param points	dictionary for converting data point IDs to indices
+     * @param visitor	object to receive the similarity scores
+     *
+     * @return the number of similarity scores passed to the visitor
+     *
+     * @throws IOException
+     */
+    public abstract long scan(PointDictionary points, Visitor visitor) throws IOException;
+
+}
@@ -0,0 +1,294 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This engine performs single-linkage clustering using Sibson's SLINK algorithm.  The dendrogram is kept in
+ * pointer representation:  for each data point, the last data point of the cluster it joins and the similarity
+ * at which it joins.  The input is streamed once, and only a few primitive arrays proportional to the number of
+ * data points are kept in memory.
+ *
+ * SLINK adds the data points one at a time, and each new data point needs its similarities to all the data points
+ * already added.  The input records must therefore be grouped by the first data point ID, and each group must
+ * contain the similarities to the data points whose groups came before it.  A full square similarity matrix in
+ * row order satisfies this.  Records relating the group's data point to data points whose groups have not been
+ * read yet are skipped, since they must be seen again later.  To make sure nothing is lost, the engine keeps a count
+ * and a hash of the skipped partners of each data point.  When a data point with skipped similarities has its own
+ * group, the group's partners must match them exactly, as they do in a symmetric matrix, or the input is rejected.
+ * A partner repeated within a group is only counted once, and its last score is used.
+ *
+ * The size limit is not supported by this engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SlinkClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** SLINK position of each data point, or one of the flag values below */
+    private int[] position;
+    /** data point index for each SLINK position */
+    private int[] order;
+    /** pointer representation:  last position of the cluster joined */
+    private int[] pi;
+    /** pointer representation:  similarity at which the cluster is joined */
+    private double[] lambda;
+    /** similarities from the new data point to each position */
+    private double[] newSims;
+    /** number of data points added */
+    private int added;
+    /** data point for the current input group, or -1 if there is none */
+    private int groupPoint;
+    /** data point indices in the current group */
+    private int[] groupPartners;
+    /** similarity scores in the current group */
+    private double[] groupScores;
+    /** number of entries in the current group */
+    private int groupSize;
+    /** number of the current group, counting from 1 */
+    private int groupNum;
+    /** number of the last group in which each data point was a partner */
+    private int[] groupStamps;
+    /** index in the current group of each partner, or -1 if its similarity was skipped */
+    private int[] groupSlots;
+    /** number of similarities skipped because the partner was not added yet */
+    private long skipCount;
+    /** number of skipped similarities for each data point */
+    private int[] pendingCounts;
+    /** sum of the partner hashes of the skipped similarities for each data point */
+    private long[] pendingHashes;
+    /** position flag for a data point not yet added */
+    private static final int NOT_ADDED = -1;
+    /** position flag for a data point not yet added that has had similarities skipped */
+    private static final int SKIPPED = -2;
+
+    /**
+     * Construct a SLINK engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public SlinkClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMethod() != ClusterMergeMethod.SINGLE)
+            throw new ParseFailureException("The SLINK engine only supports the SINGLE merge method.");
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The SLINK engine does not support a maximum cluster size.");
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        final int capacity = Math.max(this.getPointEstimate(), 10);
+        this.points = new PointDictionary(capacity);
+        this.position = new int[capacity];
+        Arrays.fill(this.position, NOT_ADDED);
+        this.order = new int[capacity];
+        this.pi = new int[capacity];
+        this.lambda = new double[capacity];
+        this.newSims = new double[capacity];
+        this.groupPartners = new int[capacity];
+        this.groupScores = new double[capacity];
+        this.pendingCounts = new int[capacity];
+        this.pendingHashes = new long[capacity];
+        this.added = 0;
+        this.groupPoint = -1;
+        this.groupSize = 0;
+        this.groupNum = 0;
+        this.groupStamps = new int[capacity];
+        this.groupSlots = new int[capacity];
+        this.skipCount = 0;
+        try {
+            source.scan(this.points, (p1, p2, score) -> this.read(p1, p2, score));
+            this.flushGroup();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // Data points that never had a group of their own are added now.  This is only valid if none of their
+        // similarities were skipped.
+        final int n = this.points.size();
+        this.ensureCapacity(n);
+        for (int p = 0; p < n; p++) {
+            if (this.position[p] == SKIPPED)
+                throw new IOException("Data point " + this.points.get(p) + " has no record group of its own. "
+                        + "The SLINK engine requires input grouped by the first data point.");
+            else if (this.position[p] == NOT_ADDED) {
+                Arrays.fill(this.newSims, 0, this.added, Double.NEGATIVE_INFINITY);
+                this.add(p);
+            }
+        }
+        log.info("{} data points added to SLINK structure. {} duplicate similarities skipped.", this.added,
+                this.skipCount);
+    }
+
+    /**
+     * Process an input similarity.
+     *
+     * @param p1		index of the group's data point
+     * @param p2		index of the partner data point
+     * @param score		similarity score
+     */
+    private void read(int p1, int p2, double score) {
+        if (p1 != this.groupPoint) {
+            this.flushGroup();
+            this.ensureCapacity(this.points.size());
+            if (this.position[p1] >= 0)
+                throw new UncheckedIOException(new IOException("Data point " + this.points.get(p1)
+                        + " has more than one record group.  The SLINK engine requires input grouped by the first data point."));
+            this.groupPoint = p1;
+            this.groupNum++;
+        }
+        this.ensureCapacity(this.points.size());
+        if (p2 == p1) {
+            // A data point's similarity to itself is not needed.
+        } else if (this.groupStamps[p2] == this.groupNum) {
+            // Here the partner is repeated in the group.  The last score wins, as it does in the matrix engines.
+            final int slot = this.groupSlots[p2];
+            if (slot >= 0)
+                this.groupScores[slot] = score;
+        } else {
+            this.groupStamps[p2] = this.groupNum;
+            if (this.position[p2] < 0) {
+                this.position[p2] = SKIPPED;
+                this.pendingCounts[p2]++;
+                this.pendingHashes[p2] += hash(p1);
+                this.groupSlots[p2] = -1;
+                this.skipCount++;
+            } else {
+                this.groupSlots[p2] = this.groupSize;
+                this.groupPartners[this.groupSize] = p2;
+                this.groupScores[this.groupSize] = score;
+                this.groupSize++;
+            }
+        }
+    }
+
+    /**
+     * @return a well-mixed hash of a data point index
+     *
+     * @param p		data point index to hash
+     */
+    private static long hash(int p) {
+        long retVal = (p + 1) * 0x9E3779B97F4A7C15L;
+        retVal = (retVal ^ (retVal >>> 30)) * 0xBF58476D1CE4E5B9L;
+        retVal = (retVal ^ (retVal >>> 27)) * 0x94D049BB133111EBL;
+        return retVal ^ (retVal >>> 31);
+    }
+
+    /**
+     * Add the data point for the current group to the pointer representation.  If any of the data point's
+     * similarities were skipped in earlier groups, they are checked against the group first.
+     */
+    private void flushGroup() {
+        if (this.groupPoint >= 0) {
+            final int pending = this.pendingCounts[this.groupPoint];
+            if (pending > 0) {
+                long groupHash = 0;
+                for (int i = 0; i < this.groupSize; i++)
+                    groupHash += hash(this.groupPartners[i]);
+                if (pending != this.groupSize || groupHash != this.pendingHashes[this.groupPoint])
+                    throw new UncheckedIOException(new IOException("The record group for data point "
+                            + this.points.get(this.groupPoint) + " does not match the similarities listed for it "
+                            + "in earlier groups.  The SLINK engine requires each group to contain the similarities "
+                            + "to all the data points whose groups came before it."));
+            }
+            Arrays.fill(this.newSims, 0, this.added, Double.NEGATIVE_INFINITY);
+            for (int i = 0; i < this.groupSize; i++) {
+                int pos = this.position[this.groupPartners[i]];
+                this.newSims[pos] = this.groupScores[i];
+            }
+            this.add(this.groupPoint);
+            this.groupPoint = -1;
+            this.groupSize = 0;
+            if (log.isInfoEnabled() && this.added % 10000 == 0)
+                log.info("{} data points added to SLINK structure.", this.added);
+        }
+    }
+
+    /**
+     * Add a new data point to the pointer representation.  The similarities to the existing positions must
+     * already be in the new-similarity array.
+     *
+     * @param p		index of the data point to add
+     */
+    private void add(int p) {
+        final int k = this.added;
+        this.position[p] = k;
+        this.order[k] = p;
+        this.pi[k] = k;
+        this.lambda[k] = Double.NEGATIVE_INFINITY;
+        this.newSims[k] = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < k; i++) {
+            final int target = this.pi[i];
+            if (this.lambda[i] <= this.newSims[i]) {
+                this.newSims[target] = Math.max(this.newSims[target], this.lambda[i]);
+                this.lambda[i] = this.newSims[i];
+                this.pi[i] = k;
+            } else
+                this.newSims[target] = Math.max(this.newSims[target], this.newSims[i]);
+        }
+        for (int i = 0; i < k; i++) {
+            if (this.lambda[i] <= this.lambda[this.pi[i]])
+                this.pi[i] = k;
+        }
+        this.added++;
+    }
+
+    /**
+     * Insure the arrays are big enough for the specified number of data points.
+     *
+     * @param n		number of data points
+     */
+    private void ensureCapacity(int n) {
+        if (n > this.position.length) {
+            final int oldLen = this.position.length;
+            final int newLen = Math.max(n, oldLen * 2);
+            this.position = Arrays.copyOf(this.position, newLen);
+            Arrays.fill(this.position, oldLen, newLen, NOT_ADDED);
+            this.order = Arrays.copyOf(this.order, newLen);
+            this.pi = Arrays.copyOf(this.pi, newLen);
+            this.lambda = Arrays.copyOf(this.lambda, newLen);
+            this.newSims = Arrays.copyOf(this.newSims, newLen);
+            this.groupPartners = Arrays.copyOf(this.groupPartners, newLen);
+            this.groupScores = Arrays.copyOf(this.groupScores, newLen);
+            this.pendingCounts = Arrays.copyOf(this.pendingCounts, newLen);
+            this.pendingHashes = Arrays.copyOf(this.pendingHashes, newLen);
+            this.groupStamps = Arrays.copyOf(this.groupStamps, newLen);
+            this.groupSlots = Arrays.copyOf(this.groupSlots, newLen);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.added;
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        // Convert the pointer representation to a list of merges.
+        MergeList merges = new MergeList(this.added);
+        for (int i = 0; i < this.added; i++) {
+            if (this.pi[i] != i && this.lambda[i] > Double.NEGATIVE_INFINITY)
+                merges.add(this.order[this.pi[i]], this.order[i], this.lambda[i]);
+        }
+        merges.sort();
+        return this.cut(merges, this.points, thresholds);
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This engine performs single-linkage clustering at a single fixed threshold.  Without a size limit, the
+ * single-linkage clusters at the minimum score are exactly the connected components of the graph formed by the
+ * similarities at or above it, so the input is streamed once into a disjoint-set forest and no similarity
+ * structure is built at all.  Memory is a few primitive values per data point, and the input can be in any
+ * order.
+ *
+ * Because no merge tree is built, the engine can only produce clusters at the minimum score, and it cannot
+ * write a merge tree file.  The score of each cluster is the lowest similarity among the ones that joined its
+ * members, which is a lower bound on the score of the last single-linkage merge, and every cluster with more
+ * than one member is reported with a height of 1.
+ *
+ * The size limit is not supported by this engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class UnionClusterEngine extends ClusterEngine {
+
+    // FIELDS
+    /** dictionary of data point IDs */
+    private PointDictionary points;
+    /** disjoint-set forest of the data points */
+    private UnionFind forest;
+    /** lowest joining similarity for each set root */
+    private double[] lowScores;
+    /** number of similarities that joined two sets */
+    private long joins;
+
+    /**
+     * Construct a union-find engine.
+     *
+     * @param processor		controlling command processor
+     *
+     * @throws ParseFailureException
+     */
+    public UnionClusterEngine(IParms processor) throws ParseFailureException {
+        super(processor);
+        if (this.getMethod() != ClusterMergeMethod.SINGLE)
+            throw new ParseFailureException("The UNION engine only supports the SINGLE merge method.");
+        if (this.getMaxSize() < Integer.MAX_VALUE)
+            throw new ParseFailureException("The UNION engine does not support a maximum cluster size.");
+    }
+
+    @Override
+    public void load(SimilaritySource source) throws IOException, ParseFailureException {
+        final int capacity = Math.max(this.getPointEstimate(), 10);
+        this.points = new PointDictionary(capacity);
+        this.forest = new UnionFind(capacity);
+        this.lowScores = new double[capacity];
+        Arrays.fill(this.lowScores, Double.POSITIVE_INFINITY);
+        this.joins = 0;
+        final double minScore = this.getMinScore();
+        long pairs = source.scan(this.points, (p1, p2, score) -> {
+            if (score >= minScore) {
+                int r1 = this.forest.find(this.ensureSize(p1));
+                int r2 = this.forest.find(this.ensureSize(p2));
+                if (r1 != r2) {
+                    double low = Math.min(score, Math.min(this.lowScores[r1], this.lowScores[r2]));
+                    this.forest.union(r1, r2);
+                    this.lowScores[this.forest.find(r1)] = low;
+                    this.joins++;
+                }
+            }
+        });
+        this.ensureSize(this.points.size() - 1);
+        log.info("{} similarities read for {} data points. {} joins performed.", pairs, this.points.size(),
+                this.joins);
+    }
+
+    /**
+     * Insure a data point is in the forest.
+     *
+     * @param p		index of the data point
+     *
+     * @return the index of the data point
+     */
+    private int ensureSize(int p) {
+        final int n = p + 1;
+        if (n > this.forest.size()) {
+            final int oldLen = this.lowScores.length;
+            if (n > oldLen) {
+                this.lowScores = Arrays.copyOf(this.lowScores, Math.max(n, oldLen * 2));
+                Arrays.fill(this.lowScores, oldLen, this.lowScores.length, Double.POSITIVE_INFINITY);
+            }
+            this.forest.ensureSize(n);
+        }
+        return p;
+    }
+
+    @Override
+    public int size() {
+        return this.points.size();
+    }
+
+    @Override
+    public List<String> getDataPoints() {
+        return this.points.getIds();
+    }
+
+    @Override
+    public List<List<ClusterResult>> cluster(double[] thresholds) {
+        final double minScore = this.getMinScore();
+        List<List<ClusterResult>> retVal = new ArrayList<List<ClusterResult>>(thresholds.length);
+        for (double threshold : thresholds) {
+            if (threshold != minScore)
+                throw new IllegalArgumentException("The UNION engine can only cluster at its minimum score.");
+            retVal.add(this.getClusters());
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the list of clusters formed by the sets in the forest, sorted from largest to smallest
+     */
+    private List<ClusterResult> getClusters() {
+        final int n = this.forest.size();
+        int[] setNums = this.forest.getSetNumbers();
+        final int sets = this.forest.getSetCount();
+        double[] scores = new double[sets];
+        for (int i = 0; i < n; i++)
+            scores[setNums[i]] = this.lowScores[this.forest.find(i)];
+        return labelClusters(this.points.getIds(), setNums, sets, scores);
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.Arrays;
+
+/**
+ * This is a disjoint-set forest over dense data point indices.  It uses path compression and union by rank, so
+ * that a sequence of operations runs in nearly linear time.  The forest grows automatically when a new index is
+ * used.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class UnionFind {
+
+    // FIELDS
+    /** parent of each element */
+    private int[] parent;
+    /** rank of each root */
+    private byte[] rank;
+    /** number of elements in use */
+    private int size;
+    /** number of disjoint sets */
+    private int sets;
+
+    /**
+     * Construct an empty disjoint-set forest.
+     *
+     * @param capacity	expected number of elements
+     */
+    public UnionFind(int capacity) {
+        capacity = Math.max(capacity, 10);
+        this.parent = new int[capacity];
+        this.rank = new byte[capacity];
+        this.size = 0;
+        this.sets = 0;
+    }
+
+    /**
+     * Insure the forest contains the specified number of elements.  New elements are in sets by themselves.
+     *
+     * @param n		number of elements required
+     */
+    public void ensureSize(int n) {
+        if (n > this.parent.length) {
+            int newLen = Math.max(n, this.parent.length * 2);
+            this.parent = Arrays.copyOf(this.parent, newLen);
+            this.rank = Arrays.copyOf(this.rank, newLen);
+        }
+        for (int i = this.size; i < n; i++)
+            this.parent[i] = i;
+        if (n > this.size) {
+            this.sets += n - this.size;
+            this.size = n;
+        }
+    }
+
+    /**
+     * @return the root element of the set containing an element
+     *
+     * @param p		element of interest
+     */
+    public int find(int p) {
+        int root = p;
+        while (this.parent[root] != root)
+            root = this.parent[root];
+        while (this.parent[p] != root) {
+            int next = this.parent[p];
+            this.parent[p] = root;
+            p = next;
+        }
+        return root;
+    }
+
+    /**
+     * Join the sets containing two elements.
+     *
+     * @param p1	first element
+     * @param p2	second element
+     *
+     * @return TRUE if the sets were different, FALSE if the elements were already in the same set
+     */
+    public boolean union(int p1, int p2) {
+        this.ensureSize(Math.max(p1, p2) + 1);
+        int r1 = this.find(p1);
+        int r2 = this.find(p2);
+        boolean retVal = (r1 != r2);
+        if (retVal) {
+            if (this.rank[r1] < this.rank[r2])
+                this.parent[r1] = r2;
+            else if (this.rank[r1] > this.rank[r2])
+                this.parent[r2] = r1;
+            else {
+                this.parent[r2] = r1;
+                this.rank[r1]++;
+            }
+            this.sets--;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of elements in the forest
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of disjoint sets in the forest
+     */
+    public int getSetCount() {
+        return this.sets;
+    }
+
+    /**
+     * Compute a dense set number for every element.  The sets are numbered in order of their lowest element.
+     *
+     * @return an array containing the set number for each element
+     */
+    public int[] getSetNumbers() {
+        int[] retVal = new int[this.size];
+        int[] rootNums = new int[this.size];
+        Arrays.fill(rootNums, -1);
+        int next = 0;
+        for (int i = 0; i < this.size; i++) {
+            int root = this.find(i);
+            if (rootNums[root] < 0)
+                rootNums[root] = next++;
+            retVal[i] = rootNums[root];
+        }
+        return retVal;
+    }
+
+}
@@ -15,9 +15,8 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
 import org.theseed.counters.CountMap;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
 import org.theseed.io.TabbedLineReader;
@@ -115,7 +114,7 @@ public class AnalyticalClusterReporter extends HtmlClusterReporter {
     }
 
     @Override
-    protected DomContent formatClusterTable(Cluster cluster) {
+    protected DomContent formatClusterTable(ClusterResult cluster) {
         // Here we track the groups represented in this cluster.  For each group we need the number of
         // cluster members in the group.
         var modCounters = new CountMap<String>();
@@ -206,7 +205,7 @@ public class AnalyticalClusterReporter extends HtmlClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) {
+    public void scanPoints(List<String> dataPoints) {
     }
 
 }
@@ -5,13 +5,13 @@ package org.theseed.reports;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
 import org.theseed.clusters.methods.ClusterMergeMethod;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 
 /**
  * This is the base class for cluster reports.  The essential function of this
@@ -122,21 +122,21 @@ public abstract class ClusterReporter extends BaseReporterReporter {
     }
 
     /**
-     * Scan the cluster group in advance of the report to allow computing custom information for the
+     * Scan the data points in advance of the report to allow computing custom information for the
      * report.
      *
-     * @param mainGroup		cluster group being reported
+     * @param dataPoints	IDs of the data points being clustered
      *
      * @throws IOException
      */
-    public abstract void scanGroup(ClusterGroup mainGroup) throws IOException;
+    public abstract void scanPoints(List<String> dataPoints) throws IOException;
 
     /**
      * Write a cluster.
      *
      * @param cluster	cluster to output
      */
-    public abstract void writeCluster(Cluster cluster);
+    public abstract void writeCluster(ClusterResult cluster);
 
     /**
      * Finish the report.
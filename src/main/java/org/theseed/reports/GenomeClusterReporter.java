@@ -10,13 +10,13 @@ import java.io.PrintWriter;
 import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 import org.theseed.genome.Feature;
 import org.theseed.genome.Genome;
 import org.theseed.genome.SubsystemRow;
@@ -81,7 +81,7 @@ public class GenomeClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void writeCluster(Cluster cluster) {
+    public void writeCluster(ClusterResult cluster) {
         // Update the cluster number and format a cluster ID.
         this.num++;
         String clNum = String.format("CL%d", num);
@@ -129,7 +129,7 @@ public class GenomeClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) {
+    public void scanPoints(List<String> dataPoints) {
     }
 
 }
@@ -11,9 +11,9 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
 import org.theseed.clusters.methods.ClusterMergeMethod;
 import org.theseed.counters.CountMap;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 
 import j2html.tags.ContainerTag;
 import j2html.tags.DomContent;
@@ -109,7 +109,7 @@ public abstract class HtmlClusterReporter extends ClusterReporter {
 
 
     @Override
-    public final void writeCluster(Cluster cluster) {
+    public final void writeCluster(ClusterResult cluster) {
         // Only process a nontrivial cluster.
         int clSize = cluster.size();
         if (clSize > 1) {
@@ -143,7 +143,7 @@ public abstract class HtmlClusterReporter extends ClusterReporter {
      *
      * @param cluster	cluster to describe
      */
-    protected abstract DomContent formatClusterTable(Cluster cluster);
+    protected abstract DomContent formatClusterTable(ClusterResult cluster);
 
     /**
      * This method adds an evidence indication to the evidence bullet list based on a particular type of grouping.
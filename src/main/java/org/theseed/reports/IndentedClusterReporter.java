@@ -3,8 +3,9 @@
  */
 package org.theseed.reports;
 
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
+import java.util.List;
+
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 
 /**
  * The indented report specifies useful information about the cluster on a header line and
@@ -28,7 +29,7 @@ public class IndentedClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void writeCluster(Cluster cluster) {
+    public void writeCluster(ClusterResult cluster) {
         // Update the cluster number.
         num++;
         // Write the header line.
@@ -46,7 +47,7 @@ public class IndentedClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) {
+    public void scanPoints(List<String> dataPoints) {
     }
 
 }
@@ -3,9 +3,10 @@
  */
 package org.theseed.reports;
 
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 
 /**
  * The raw cluster report is extremely simple.  Each cluster is a single line with
@@ -24,7 +25,7 @@ public class RawClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void writeCluster(Cluster cluster) {
+    public void writeCluster(ClusterResult cluster) {
         this.println(StringUtils.join(cluster.getMembers(), '\t'));
     }
 
@@ -33,7 +34,7 @@ public class RawClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) {
+    public void scanPoints(List<String> dataPoints) {
     }
 
 }
@@ -11,9 +11,8 @@ import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.theseed.basic.ParseFailureException;
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
 import org.theseed.counters.CountMap;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 import org.theseed.ncbi.NcbiConnection;
 import org.theseed.ncbi.NcbiListQuery;
 import org.theseed.ncbi.NcbiTable;
@@ -138,10 +137,10 @@ public class SampleClusterReporter extends HtmlClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) throws IOException {
+    public void scanPoints(List<String> dataPoints) throws IOException {
         log.info("Scanning cluster group for sample data from NCBI.");
         // Get the list of samples.
-        List<String> samples = mainGroup.getDataPoints();
+        List<String> samples = dataPoints;
         // Create an NCBI list query.  We will run this in batches.
         NcbiListQuery q = new NcbiListQuery(NcbiTable.SRA, "ACCN");
         for (String sample : samples) {
@@ -186,7 +185,7 @@ public class SampleClusterReporter extends HtmlClusterReporter {
     }
 
     @Override
-    protected DomContent formatClusterTable(Cluster cluster) {
+    protected DomContent formatClusterTable(ClusterResult cluster) {
         // Set up the evidence count tables.
         CountMap<String> projCounts = new CountMap<String>();
         CountMap<String> paperCounts = new CountMap<String>();
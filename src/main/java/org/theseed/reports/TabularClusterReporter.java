@@ -4,9 +4,9 @@
 package org.theseed.reports;
 
 import java.io.IOException;
+import java.util.List;
 
-import org.theseed.clusters.Cluster;
-import org.theseed.clusters.ClusterGroup;
+import org.theseed.dl4j.clusters.engines.ClusterResult;
 
 /**
  * This report produces a simple 2-column table.  It is fairly obtuse for human readers, but is used by
@@ -31,7 +31,7 @@ public class TabularClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void scanGroup(ClusterGroup mainGroup) throws IOException {
+    public void scanPoints(List<String> dataPoints) throws IOException {
     }
 
     @Override
@@ -41,7 +41,7 @@ public class TabularClusterReporter extends ClusterReporter {
     }
 
     @Override
-    public void writeCluster(Cluster cluster) {
+    public void writeCluster(ClusterResult cluster) {
         this.clNum++;
         for (String member : cluster.getMembers())
             this.formatln("CL%d\t%s", clNum, member);
@@ -0,0 +1,117 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for binary similarity files.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BinarySimilaritySourceTest {
+
+    /**
+     * @return a list of the similarities from a source, with the scores rounded to single precision
+     *
+     * @param source	source to read
+     * @param points	dictionary for the data point IDs
+     *
+     * @throws Exception
+     */
+    private static List<String> readAll(SimilaritySource source, PointDictionary points) throws Exception {
+        List<String> retVal = new ArrayList<String>();
+        long count = source.scan(points, (p1, p2, score) -> retVal.add(points.get(p1) + "\t" + points.get(p2)
+                + "\t" + (float) score));
+        assertEquals(retVal.size(), count);
+        return retVal;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File tempDir = Files.createTempDirectory("bin").toFile();
+        File binFile = new File(tempDir, "sims.bin");
+        try {
+            // Build a source with unusual IDs, a data point that only has a self-similarity, and a skipped score.
+            Random rand = new Random(1600);
+            String[] ids = new String[] { "fig|83333.1.peg.1", "caf\u00e9", "\u65e5\u672c", "\ud83d\ude00", "x",
+                    "", "SIM1", "a\u0000b", "long" + "z".repeat(1000) };
+            ListSimilaritySource source = new ListSimilaritySource();
+            source.add("lonely", "lonely", 1.0);
+            source.add(ids[0], ids[1], Double.NaN);
+            for (int i = 0; i < 5000; i++) {
+                String id1 = (i < ids.length ? ids[i] : "pt" + rand.nextInt(500));
+                String id2 = "pt" + rand.nextInt(500);
+                source.add(id1, id2, rand.nextDouble() * 2 - 1);
+            }
+            long count = BinarySimilaritySource.convert(source, binFile, tempDir);
+            assertTrue(BinarySimilaritySource.isBinary(binFile));
+            BinarySimilaritySource binSource = new BinarySimilaritySource(binFile);
+            PointDictionary expectedPoints = new PointDictionary(100);
+            List<String> expected = readAll(source, expectedPoints);
+            assertEquals(expected.size(), count);
+            assertEquals(expected.size(), binSource.getEdgeCount());
+            assertEquals(expectedPoints.size(), binSource.getPointCount());
+            PointDictionary points = new PointDictionary(100);
+            List<String> actual = readAll(binSource, points);
+            assertEquals(expectedPoints.getIds(), points.getIds());
+            assertEquals(expected, actual);
+            // The temporary column files must be gone.
+            assertEquals(List.of("sims.bin"), Arrays.asList(tempDir.list()));
+        } finally {
+            for (File file : tempDir.listFiles())
+                file.delete();
+            tempDir.delete();
+        }
+    }
+
+    @Test
+    public void testDetection() throws Exception {
+        File tempDir = Files.createTempDirectory("bin").toFile();
+        try {
+            // A text file whose first ID starts with the binary marker.
+            File textFile = new File(tempDir, "sims.tbl");
+            try (PrintWriter writer = new PrintWriter(textFile)) {
+                writer.println("SIM1a\tSIM1b\t0.5");
+                for (int i = 0; i < 100; i++)
+                    writer.println("SIM1" + i + "\tSIM1" + (i + 1) + "\t0.75");
+            }
+            assertFalse(BinarySimilaritySource.isBinary(textFile));
+            assertFalse(BinarySimilaritySource.isBinary(null));
+            // A real binary file, and truncated and padded copies of it.
+            File binFile = new File(tempDir, "sims.bin");
+            ListSimilaritySource source = new ListSimilaritySource().add("a", "b", 0.5).add("b", "c", 0.25)
+                    .add("c", "d", -0.125);
+            BinarySimilaritySource.convert(source, binFile, tempDir);
+            assertTrue(BinarySimilaritySource.isBinary(binFile));
+            byte[] bytes = Files.readAllBytes(binFile.toPath());
+            File badFile = new File(tempDir, "bad.bin");
+            Files.write(badFile.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+            assertFalse(BinarySimilaritySource.isBinary(badFile));
+            Files.write(badFile.toPath(), Arrays.copyOf(bytes, bytes.length + 12));
+            assertFalse(BinarySimilaritySource.isBinary(badFile));
+            // A file with a consistent length but a wrong point count.
+            byte[] badCount = bytes.clone();
+            badCount[7]++;
+            Files.write(badFile.toPath(), badCount);
+            assertFalse(BinarySimilaritySource.isBinary(badFile));
+        } finally {
+            for (File file : tempDir.listFiles())
+                file.delete();
+            tempDir.delete();
+        }
+    }
+
+}
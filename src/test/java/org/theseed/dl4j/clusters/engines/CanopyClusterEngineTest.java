@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for canopy clustering.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CanopyClusterEngineTest {
+
+    /** matrix engines that can be used on canopies */
+    private static final ClusterEngine.Type[] TYPES = new ClusterEngine.Type[] { ClusterEngine.Type.SCAN,
+            ClusterEngine.Type.GENERIC, ClusterEngine.Type.HEAP };
+
+    @Test
+    public void testSingleCanopy() throws Exception {
+        // A hub data point is similar to every other data point at the highest score, so it is the first center,
+        // and its canopy contains every data point.  The result must be the same as an exact clustering, even
+        // with tied scores.
+        Random rand = new Random(2300);
+        for (ClusterEngine.Type type : TYPES) {
+            for (ClusterMergeMethod method : METHODS) {
+                for (int t = 0; t < TRIALS; t++) {
+                    ListSimilaritySource random = tiedSource(rand, 2 + rand.nextInt(30), 1.0);
+                    ListSimilaritySource source = new ListSimilaritySource();
+                    for (int i = 0; i < random.size(); i++) {
+                        source.add("hub", random.getId1(i), 1.0).add("hub", random.getId2(i), 1.0)
+                                .add(random.getId1(i), random.getId2(i), random.getScore(i));
+                    }
+                    final double minScore = (rand.nextInt(5) - 2) / 5.0;
+                    final int maxSize = (t % 2 == 0 ? Integer.MAX_VALUE : 2 + rand.nextInt(6));
+                    TestParms parms = new TestParms(method, minScore).setMaxSize(maxSize).setThreads(3);
+                    ClusterEngine expected = ClusterEngine.Type.SCAN.create(parms);
+                    ClusterEngine engine = new CanopyClusterEngine(parms, type, -1.0);
+                    String label = type + " " + method + " trial " + t + " (min = " + minScore + ", max = "
+                            + maxSize + ")";
+                    assertEquals(runEngine(expected, source), runEngine(engine, source), label);
+                    assertMergesEqual(expected.getMerges(), engine.getMerges(), label);
+                }
+            }
+        }
+        assertThrows(ParseFailureException.class, () -> new CanopyClusterEngine(
+                new TestParms(ClusterMergeMethod.SINGLE, 0.5), ClusterEngine.Type.SCAN, 0.6));
+    }
+
+    @Test
+    public void testOverlaps() throws Exception {
+        // With a loose threshold well below the minimum score, the canopies overlap.  Each data point must be
+        // reported exactly once, and the result must not depend on the number of threads.
+        Random rand = new Random(2350);
+        for (ClusterMergeMethod method : METHODS) {
+            for (int t = 0; t < TRIALS; t++) {
+                ListSimilaritySource source = randomSource(rand, 10 + rand.nextInt(60), (t % 2 == 0 ? 0.5 : 0.1));
+                final double minScore = rand.nextDouble() * 0.6 + 0.2;
+                final double loose = minScore - 0.2 - rand.nextDouble() * 0.3;
+                String label = method + " trial " + t + " (min = " + minScore + ", loose = " + loose + ")";
+                MergeList expected = null;
+                for (int threads = 1; threads <= 4; threads += 3) {
+                    TestParms parms = new TestParms(method, minScore).setSparse(true).setThreads(threads);
+                    ClusterEngine engine = new CanopyClusterEngine(parms, ClusterEngine.Type.HEAP, loose);
+                    // This verifies that the clusters are a partition of the data points.
+                    runEngine(engine, source);
+                    if (expected == null)
+                        expected = engine.getMerges();
+                    else
+                        assertMergesEqual(expected, engine.getMerges(), label + " with " + threads + " threads");
+                }
+            }
+        }
+    }
+
+}
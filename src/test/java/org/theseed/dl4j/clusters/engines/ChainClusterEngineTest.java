@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the CHAIN clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ChainClusterEngineTest {
+
+    /** tolerance for comparing recomputed average similarities */
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    public void testReference() throws Exception {
+        for (ClusterMergeMethod method : METHODS)
+            checkEngine(ClusterEngine.Type.CHAIN, method, false, false, 300);
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.CHAIN.create(
+                new TestParms(ClusterMergeMethod.SINGLE, 0.5).setMaxSize(4)));
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        Random rand = new Random(350);
+        for (ClusterMergeMethod method : METHODS) {
+            for (int t = 0; t < TRIALS; t++) {
+                final int n = 2 + rand.nextInt(30);
+                final double density = (t % 2 == 0 ? 1.0 : 0.3);
+                ListSimilaritySource source = tiedSource(rand, n, density);
+                final double minScore = (rand.nextInt(5) - 2) / 5.0;
+                TestParms parms = new TestParms(method, minScore).setSparse(density < 1.0);
+                ClusterEngine engine = ClusterEngine.Type.CHAIN.create(parms);
+                runEngine(engine, source);
+                String label = method + " tied trial " + t + " (n = " + n + ", min = " + minScore + ")";
+                if (method == ClusterMergeMethod.SINGLE) {
+                    // The SINGLE clusters do not depend on the choices among tied pairs.
+                    ClusterEngine scan = ClusterEngine.Type.SCAN.create(parms);
+                    assertEquals(runEngine(scan, source), runEngine(ClusterEngine.Type.CHAIN.create(parms), source),
+                            label);
+                }
+                checkHierarchy(source, engine.getDataPoints(), method, minScore, engine.getMerges(), label);
+            }
+        }
+    }
+
+    /**
+     * Verify that a merge list is one that repeatedly merging the most similar pair of clusters could have
+     * produced.  Each merge must join the most similar pair of current clusters, at their similarity, and when
+     * the merges are done, no pair may remain at or above the minimum score.
+     *
+     * @param source	source of the similarities
+     * @param ids		list of data point IDs, in index order
+     * @param method	merge method
+     * @param minScore	minimum similarity for a merge
+     * @param merges	merge list to check
+     * @param label		label for failure messages
+     */
+    private static void checkHierarchy(ListSimilaritySource source, List<String> ids, ClusterMergeMethod method,
+            double minScore, MergeList merges, String label) {
+        final int n = ids.size();
+        double[][] sims = new double[n][n];
+        for (double[] row : sims)
+            Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < source.size(); i++) {
+            int p1 = ids.indexOf(source.getId1(i));
+            int p2 = ids.indexOf(source.getId2(i));
+            sims[p1][p2] = source.getScore(i);
+            sims[p2][p1] = source.getScore(i);
+        }
+        int[] sizes = new int[n];
+        Arrays.fill(sizes, 1);
+        for (int k = 0; k < merges.size(); k++) {
+            final int keep = merges.getLeft(k);
+            final int drop = merges.getRight(k);
+            final double score = merges.getScore(k);
+            String mLabel = label + " merge " + k;
+            assertTrue(sizes[keep] > 0 && sizes[drop] > 0, mLabel + " uses a merged cluster");
+            assertEquals(sims[keep][drop], score, TOLERANCE, mLabel + " score");
+            assertTrue(score >= minScore - TOLERANCE, mLabel + " is below the minimum score");
+            assertTrue(bestPair(sims, sizes) <= score + TOLERANCE, mLabel + " is not the best pair");
+            for (int c = 0; c < n; c++) {
+                if (sizes[c] > 0 && c != keep && c != drop) {
+                    double merged = SimilarityMatrix.mergedScore(method, sims[keep][c], sizes[keep], sims[drop][c],
+                            sizes[drop]);
+                    sims[keep][c] = merged;
+                    sims[c][keep] = merged;
+                }
+            }
+            sizes[keep] += sizes[drop];
+            sizes[drop] = 0;
+        }
+        final double tolerance = (method == ClusterMergeMethod.AVERAGE ? TOLERANCE : 0.0);
+        assertTrue(bestPair(sims, sizes) < minScore + tolerance, label + " stopped too soon");
+    }
+
+    /**
+     * @return the highest similarity between two current clusters
+     *
+     * @param sims		similarity matrix
+     * @param sizes		size of each cluster, or 0 if it has been merged
+     */
+    private static double bestPair(double[][] sims, int[] sizes) {
+        double retVal = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < sims.length; i++) {
+            for (int j = i + 1; j < sims.length; j++) {
+                if (sizes[i] > 0 && sizes[j] > 0)
+                    retVal = Math.max(retVal, sims[i][j]);
+            }
+        }
+        return retVal;
+    }
+
+}
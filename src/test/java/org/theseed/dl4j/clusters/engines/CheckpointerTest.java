@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for checkpointing and resuming the merge loop.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class CheckpointerTest {
+
+    /**
+     * This checkpoint manager captures the merge list at a specified point in the merge loop, as it would be
+     * when the run is interrupted.
+     */
+    private static class CapturingCheckpointer extends Checkpointer {
+
+        /** number of merges at which to capture the merge list */
+        private int target;
+        /** captured merge list, or NULL if it has not been captured */
+        private MergeList captured;
+
+        /**
+         * Construct a capturing checkpoint manager.
+         *
+         * @param checkFile		checkpoint file
+         * @param target		number of merges at which to capture the merge list
+         */
+        public CapturingCheckpointer(File checkFile, int target) {
+            super(checkFile, Integer.MAX_VALUE, 60, false);
+            this.target = target;
+            this.captured = null;
+        }
+
+        @Override
+        public void check(MergeList merges) {
+            if (merges.size() == this.target && this.captured == null)
+                this.captured = merges.copy();
+            super.check(merges);
+        }
+
+        /**
+         * @return the captured merge list, or NULL if the target was never reached
+         */
+        public MergeList getCaptured() {
+            return this.captured;
+        }
+
+    }
+
+    /**
+     * This checkpoint manager records the smallest merge list it is asked to check.
+     */
+    private static class RecordingCheckpointer extends Checkpointer {
+
+        /** smallest number of merges checked */
+        private int smallest;
+
+        /**
+         * Construct a recording checkpoint manager that resumes from a checkpoint and checks every merge.
+         *
+         * @param checkFile		checkpoint file
+         */
+        public RecordingCheckpointer(File checkFile) {
+            super(checkFile, 1, 0, true);
+            this.smallest = Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void check(MergeList merges) {
+            this.smallest = Math.min(this.smallest, merges.size());
+            super.check(merges);
+        }
+
+        /**
+         * @return the smallest number of merges checked
+         */
+        public int getSmallest() {
+            return this.smallest;
+        }
+
+    }
+
+    /**
+     * @return the merges from a clustering run
+     *
+     * @param type		engine type
+     * @param parms		engine parameters
+     * @param source	source of the similarities
+     *
+     * @throws Exception
+     */
+    private static MergeList runEngine(ClusterEngine.Type type, TestParms parms, SimilaritySource source)
+            throws Exception {
+        ClusterEngine engine = type.create(parms);
+        engine.load(source);
+        engine.cluster();
+        return engine.getMerges();
+    }
+
+    /**
+     * Write a checkpoint containing a partial merge list.
+     *
+     * @param checkFile		checkpoint file
+     * @param parms			parameters of the run
+     * @param ids			list of data point IDs
+     * @param merges		list of the merges performed so far
+     *
+     * @throws IOException
+     */
+    private static void writeCheckpoint(File checkFile, TestParms parms, List<String> ids, MergeList merges)
+            throws IOException {
+        try (Checkpointer checkpointer = new Checkpointer(checkFile, 1, 60, false)) {
+            checkpointer.start(parms.getMethod(), parms.getFloorScore(), parms.getMaxSize(), ids);
+            checkpointer.check(merges);
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        ClusterEngine.Type[] types = new ClusterEngine.Type[] { ClusterEngine.Type.CHAIN, ClusterEngine.Type.SCAN,
+                ClusterEngine.Type.GENERIC, ClusterEngine.Type.HEAP };
+        ClusterMergeMethod[] methods = new ClusterMergeMethod[] { ClusterMergeMethod.SINGLE,
+                ClusterMergeMethod.COMPLETE, ClusterMergeMethod.AVERAGE };
+        File checkFile = File.createTempFile("merges", ".ckpt");
+        checkFile.deleteOnExit();
+        Random rand = new Random(1200);
+        for (ClusterEngine.Type type : types) {
+            for (int t = 0; t < 12; t++) {
+                ClusterMergeMethod method = methods[t % methods.length];
+                int maxSize = (type == ClusterEngine.Type.CHAIN || t % 2 == 0 ? Integer.MAX_VALUE
+                        : 3 + rand.nextInt(4));
+                ListSimilaritySource source = EngineTestUtils.randomSource(rand, 5 + rand.nextInt(30), 1.0);
+                TestParms parms = new TestParms(method, rand.nextDouble() - 0.5).setMaxSize(maxSize);
+                // Perform an uninterrupted run to get the expected merges, the data point IDs, and the merge list
+                // at a point partway through.
+                ClusterEngine engine = type.create(parms);
+                engine.load(source);
+                final int n = engine.size();
+                int count = rand.nextInt(n);
+                CapturingCheckpointer capturer = new CapturingCheckpointer(checkFile, count);
+                engine = type.create(parms.setCheckpointer(capturer));
+                engine.load(source);
+                engine.cluster();
+                MergeList expected = engine.getMerges();
+                List<String> ids = engine.getDataPoints();
+                MergeList partial = capturer.getCaptured();
+                if (partial == null) {
+                    // The merge loop stopped before reaching the target, so use the whole list.
+                    partial = expected;
+                    count = expected.size();
+                }
+                // Write the checkpoint and resume.
+                writeCheckpoint(checkFile, parms, ids, partial);
+                MergeList resumed = runEngine(type, parms.setCheckpointer(new Checkpointer(checkFile, 5, 60, true)),
+                        source);
+                String label = type + " " + method + " trial " + t + " resumed after " + count + " merges";
+                EngineTestUtils.assertMergesEqual(expected, resumed, label);
+                // The final checkpoint must contain the whole merge list, in the order performed.
+                MergeList saved = new MergeTreeFile(checkFile).getMerges();
+                saved.sort();
+                EngineTestUtils.assertMergesEqual(expected, saved, label + " final checkpoint");
+            }
+        }
+        checkFile.delete();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        // The restored merges are replayed through the merge loop, but the checkpoint must not be saved until the
+        // replay is finished, or a prefix of the restored merges would overwrite it.
+        File checkFile = File.createTempFile("merges", ".ckpt");
+        checkFile.deleteOnExit();
+        ListSimilaritySource source = EngineTestUtils.randomSource(new Random(1250), 25, 1.0);
+        ClusterEngine.Type[] types = new ClusterEngine.Type[] { ClusterEngine.Type.CHAIN, ClusterEngine.Type.SCAN,
+                ClusterEngine.Type.GENERIC, ClusterEngine.Type.HEAP };
+        for (ClusterEngine.Type type : types) {
+            CapturingCheckpointer capturer = new CapturingCheckpointer(checkFile, 15);
+            TestParms parms = new TestParms(ClusterMergeMethod.AVERAGE, -1.0).setCheckpointer(capturer);
+            ClusterEngine engine = type.create(parms);
+            engine.load(source);
+            engine.cluster();
+            MergeList expected = engine.getMerges();
+            writeCheckpoint(checkFile, parms, engine.getDataPoints(), capturer.getCaptured());
+            RecordingCheckpointer recorder = new RecordingCheckpointer(checkFile);
+            MergeList resumed = runEngine(type, parms.setCheckpointer(recorder), source);
+            EngineTestUtils.assertMergesEqual(expected, resumed, type + " replay");
+            assertEquals(16, recorder.getSmallest(), type + " smallest checkpoint");
+        }
+        checkFile.delete();
+    }
+
+    @Test
+    public void testMismatch() throws Exception {
+        File checkFile = File.createTempFile("merges", ".ckpt");
+        checkFile.deleteOnExit();
+        ListSimilaritySource source = EngineTestUtils.randomSource(new Random(1300), 20, 1.0);
+        TestParms parms = new TestParms(ClusterMergeMethod.AVERAGE, 0.0).setMaxSize(10);
+        ClusterEngine engine = ClusterEngine.Type.SCAN.create(parms);
+        engine.load(source);
+        engine.cluster();
+        MergeList merges = engine.getMerges();
+        List<String> ids = engine.getDataPoints();
+        writeCheckpoint(checkFile, parms, ids, merges);
+        // Each of the parameters must match.
+        TestParms[] others = new TestParms[] { new TestParms(ClusterMergeMethod.COMPLETE, 0.0).setMaxSize(10),
+                new TestParms(ClusterMergeMethod.AVERAGE, 0.1).setMaxSize(10),
+                new TestParms(ClusterMergeMethod.AVERAGE, 0.0).setMaxSize(9) };
+        for (TestParms other : others) {
+            ClusterEngine resumed = ClusterEngine.Type.SCAN.create(
+                    other.setCheckpointer(new Checkpointer(checkFile, 5, 60, true)));
+            assertThrows(IOException.class, () -> resumed.load(source));
+        }
+        // The input data must match.
+        ListSimilaritySource source2 = new ListSimilaritySource();
+        for (int i = 0; i < source.size(); i++)
+            source2.add(source.getId1(i) + "x", source.getId2(i) + "x", source.getScore(i));
+        ClusterEngine resumed = ClusterEngine.Type.SCAN.create(
+                parms.setCheckpointer(new Checkpointer(checkFile, 5, 60, true)));
+        assertThrows(IOException.class, () -> resumed.load(source2));
+        // With the same parameters and data, the resume succeeds.
+        ClusterEngine good = ClusterEngine.Type.SCAN.create(
+                parms.setCheckpointer(new Checkpointer(checkFile, 5, 60, true)));
+        good.load(source);
+        good.cluster();
+        EngineTestUtils.assertMergesEqual(merges, good.getMerges(), "matching resume");
+        checkFile.delete();
+    }
+
+}
@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for cutting a single merge tree at several thresholds.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ClusterCutTest {
+
+    @Test
+    public void testCuts() throws Exception {
+        Random rand = new Random(1000);
+        for (ClusterMergeMethod method : METHODS) {
+            for (int t = 0; t < TRIALS; t++) {
+                ListSimilaritySource source = randomSource(rand, 2 + rand.nextInt(30), 1.0);
+                double[] thresholds = new double[] { 0.6, 0.3, 0.0, -0.2 };
+                ClusterEngine engine = ClusterEngine.Type.HEAP.create(new TestParms(method, -0.2));
+                engine.load(source);
+                List<List<ClusterResult>> results = engine.cluster(thresholds);
+                for (int i = 0; i < thresholds.length; i++)
+                    assertEquals(reference(source, method, thresholds[i], Integer.MAX_VALUE),
+                            ListSimilaritySource.clusterSets(results.get(i)), method + " trial " + t + " cut " + i);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for clustering the connected components separately.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ComponentClusterEngineTest {
+
+    /** matrix engines that can be used on components */
+    private static final ClusterEngine.Type[] TYPES = new ClusterEngine.Type[] { ClusterEngine.Type.SCAN,
+            ClusterEngine.Type.GENERIC, ClusterEngine.Type.HEAP };
+
+    @Test
+    public void testReference() throws Exception {
+        for (ClusterEngine.Type type : TYPES) {
+            for (ClusterMergeMethod method : METHODS) {
+                checkEngine(type, method, false, true, 600);
+                checkEngine(type, method, true, true, 700);
+            }
+        }
+        for (ClusterMergeMethod method : METHODS)
+            checkEngine(ClusterEngine.Type.CHAIN, method, false, true, 800);
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        // The merge tree must not depend on the number of threads.
+        Random rand = new Random(850);
+        for (int t = 0; t < TRIALS; t++) {
+            ListSimilaritySource source = randomSource(rand, 10 + rand.nextInt(40), 0.1);
+            MergeList expected = null;
+            for (int threads = 1; threads <= 4; threads++) {
+                ClusterEngine engine = new ComponentClusterEngine(new TestParms(ClusterMergeMethod.AVERAGE, 0.0)
+                        .setSparse(true).setThreads(threads), ClusterEngine.Type.HEAP);
+                runEngine(engine, source);
+                if (expected == null)
+                    expected = engine.getMerges();
+                else
+                    assertMergesEqual(expected, engine.getMerges(), "trial " + t + " with " + threads + " threads");
+            }
+        }
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        // Each component numbers its members in the same order as the full set, so tied scores must produce the
+        // same merges as clustering the full set with the SCAN engine.  Merges from different components can be
+        // listed in a different order when their scores are tied, so the merges are compared as sets.
+        Random rand = new Random(870);
+        for (ClusterEngine.Type type : TYPES) {
+            for (ClusterMergeMethod method : METHODS) {
+                for (int t = 0; t < TRIALS; t++) {
+                    ListSimilaritySource source = tiedSource(rand, 2 + rand.nextInt(40), 0.15);
+                    final double minScore = (rand.nextInt(3) + 1) / 5.0;
+                    final int maxSize = (t % 2 == 0 ? Integer.MAX_VALUE : 4);
+                    TestParms parms = new TestParms(method, minScore).setMaxSize(maxSize).setSparse(true)
+                            .setThreads(3);
+                    ClusterEngine expected = ClusterEngine.Type.SCAN.create(parms);
+                    Set<Set<String>> expectedClusters = runEngine(expected, source);
+                    ClusterEngine engine = new ComponentClusterEngine(parms, type);
+                    String label = type + " " + method + " tied trial " + t + " (min = " + minScore + ", max = "
+                            + maxSize + ")";
+                    assertEquals(expectedClusters, runEngine(engine, source), label);
+                    assertEquals(mergeSet(expected.getMerges()), mergeSet(engine.getMerges()), label);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the merges in a merge list as a set of strings
+     *
+     * @param merges	merge list to convert
+     */
+    private static Set<String> mergeSet(MergeList merges) {
+        Set<String> retVal = new HashSet<String>();
+        for (int i = 0; i < merges.size(); i++)
+            retVal.add(merges.getLeft(i) + " " + merges.getRight(i) + " " + merges.getScore(i));
+        return retVal;
+    }
+
+}
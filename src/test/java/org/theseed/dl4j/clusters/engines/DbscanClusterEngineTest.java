@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the DBSCAN clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DbscanClusterEngineTest {
+
+    @Test
+    public void testUnion() throws Exception {
+        // With a minimum of one point, every data point is a core point, so the clusters are the connected
+        // components.
+        Random rand = new Random(2500);
+        for (int t = 0; t < TRIALS; t++) {
+            final double density = (t % 2 == 0 ? 1.0 : 0.2);
+            ListSimilaritySource source = randomSource(rand, 2 + rand.nextInt(40), density);
+            final double minScore = rand.nextDouble() * 0.8;
+            TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, minScore).setSparse(true).setMinPoints(1);
+            assertEquals(runEngine(ClusterEngine.Type.UNION.create(parms), source),
+                    runEngine(ClusterEngine.Type.DBSCAN.create(parms), source), "trial " + t);
+        }
+    }
+
+    @Test
+    public void testBorders() throws Exception {
+        // Two cliques of five core points each.  The point "x" has only three neighbors, so it is a border point,
+        // and it joins the cluster of its more similar core neighbor.  The point "y" is only next to "x", which is
+        // not a core point, so it is noise.
+        ListSimilaritySource source = new ListSimilaritySource();
+        for (int i = 0; i < 5; i++) {
+            for (int j = i + 1; j < 5; j++) {
+                source.add("a" + i, "a" + j, 0.9);
+                source.add("b" + i, "b" + j, 0.9);
+            }
+        }
+        source.add("x", "a0", 0.6).add("b0", "x", 0.7).add("y", "x", 0.8).add("y", "a1", 0.4);
+        TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, 0.5).setMinPoints(5);
+        Set<Set<String>> expected = Set.of(Set.of("a0", "a1", "a2", "a3", "a4"),
+                Set.of("b0", "b1", "b2", "b3", "b4", "x"), Set.of("y"));
+        assertEquals(expected, runEngine(ClusterEngine.Type.DBSCAN.create(parms), source));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        Random rand = new Random(2550);
+        for (int t = 0; t < TRIALS; t++) {
+            final double density = (t % 2 == 0 ? 0.5 : 0.15);
+            ListSimilaritySource source = randomSource(rand, 10 + rand.nextInt(60), density);
+            final double minScore = rand.nextDouble() * 0.6;
+            final int minPoints = 2 + rand.nextInt(4);
+            TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, minScore).setSparse(true)
+                    .setMinPoints(minPoints);
+            String label = "trial " + t + " (min = " + minScore + ", minPts = " + minPoints + ")";
+            ClusterEngine engine = ClusterEngine.Type.DBSCAN.create(parms);
+            engine.load(source);
+            List<ClusterResult> clusters = engine.cluster();
+            checkClusters(source, minScore, minPoints, clusters, label);
+            ClusterEngine engine4 = ClusterEngine.Type.DBSCAN.create(parms.setThreads(4));
+            assertEquals(ListSimilaritySource.clusterSets(clusters), runEngine(engine4, source), label + " threads");
+        }
+    }
+
+    /**
+     * Verify the DBSCAN rules for a set of clusters.  The core points must be grouped by the connected components
+     * of the core graph, each border point must be in the cluster of one of its most similar core neighbors, and
+     * each noise point must be a singleton.
+     *
+     * @param source		source of the similarities
+     * @param minScore		minimum similarity for neighbors
+     * @param minPoints		minimum neighborhood size for a core point, including the point itself
+     * @param clusters		clusters to check
+     * @param label			label for failure messages
+     */
+    private static void checkClusters(ListSimilaritySource source, double minScore, int minPoints,
+            List<ClusterResult> clusters, String label) {
+        // Compute the neighbors of each data point.
+        Map<String, Map<String, Double>> neighbors = new HashMap<String, Map<String, Double>>();
+        for (int i = 0; i < source.size(); i++) {
+            String id1 = source.getId1(i);
+            String id2 = source.getId2(i);
+            neighbors.computeIfAbsent(id1, k -> new HashMap<String, Double>());
+            neighbors.computeIfAbsent(id2, k -> new HashMap<String, Double>());
+            if (source.getScore(i) >= minScore) {
+                neighbors.get(id1).put(id2, source.getScore(i));
+                neighbors.get(id2).put(id1, source.getScore(i));
+            }
+        }
+        Set<String> cores = new HashSet<String>();
+        for (Map.Entry<String, Map<String, Double>> entry : neighbors.entrySet()) {
+            if (entry.getValue().size() + 1 >= minPoints)
+                cores.add(entry.getKey());
+        }
+        // Map each data point to its cluster.
+        Map<String, ClusterResult> clusterMap = new HashMap<String, ClusterResult>();
+        for (ClusterResult cluster : clusters) {
+            for (String member : cluster.getMembers())
+                assertNull(clusterMap.put(member, cluster), label + " repeats " + member);
+        }
+        assertEquals(neighbors.keySet(), clusterMap.keySet(), label + " data points");
+        // Two core neighbors must be in the same cluster, and the core points of a cluster must be connected.
+        UnionFind coreGraph = new UnionFind(neighbors.size());
+        List<String> ids = List.copyOf(neighbors.keySet());
+        Map<String, Integer> idx = new HashMap<String, Integer>();
+        coreGraph.ensureSize(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+            idx.put(ids.get(i), i);
+        for (String core : cores) {
+            for (String other : neighbors.get(core).keySet()) {
+                if (cores.contains(other))
+                    coreGraph.union(idx.get(core), idx.get(other));
+            }
+        }
+        for (String core : cores) {
+            for (String other : cores) {
+                boolean connected = (coreGraph.find(idx.get(core)) == coreGraph.find(idx.get(other)));
+                assertEquals(connected, clusterMap.get(core) == clusterMap.get(other),
+                        label + " core points " + core + " and " + other);
+            }
+        }
+        // Check the border and noise points.
+        for (String id : ids) {
+            if (! cores.contains(id)) {
+                double best = Double.NEGATIVE_INFINITY;
+                Set<ClusterResult> bestClusters = new HashSet<ClusterResult>();
+                for (Map.Entry<String, Double> entry : neighbors.get(id).entrySet()) {
+                    if (cores.contains(entry.getKey())) {
+                        double score = entry.getValue();
+                        if (score > best) {
+                            best = score;
+                            bestClusters.clear();
+                        }
+                        if (score == best)
+                            bestClusters.add(clusterMap.get(entry.getKey()));
+                    }
+                }
+                if (bestClusters.isEmpty())
+                    assertEquals(1, clusterMap.get(id).size(), label + " noise point " + id);
+                else
+                    assertTrue(bestClusters.contains(clusterMap.get(id)), label + " border point " + id);
+            }
+        }
+    }
+
+}
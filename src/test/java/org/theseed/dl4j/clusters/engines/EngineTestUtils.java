@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.DoubleUnaryOperator;
+
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Utilities shared by the clustering engine tests.  The engines are run on random similarity sets, and their
+ * clusters are compared to those of a simple reference implementation that repeatedly merges the most similar pair
+ * of clusters, or their merge lists are compared to each other.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class EngineTestUtils {
+
+    /** reducible merge methods supported by the matrix engines */
+    static final ClusterMergeMethod[] METHODS = new ClusterMergeMethod[] { ClusterMergeMethod.SINGLE,
+            ClusterMergeMethod.COMPLETE, ClusterMergeMethod.AVERAGE };
+    /** number of random similarity sets for each test */
+    static final int TRIALS = 40;
+
+    /**
+     * Create a random set of similarities.  The scores are between -1 and 1 with six decimal places, each pair
+     * is listed once in a random direction, and the pairs are in random order.
+     *
+     * @param rand		random number generator
+     * @param n			number of data points
+     * @param density	fraction of the pairs to include
+     *
+     * @return a similarity source containing the random similarities
+     */
+    static ListSimilaritySource randomSource(Random rand, int n, double density) {
+        List<String[]> pairs = new ArrayList<String[]>();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (rand.nextDouble() < density) {
+                    String score = Double.toString(Math.round((rand.nextDouble() * 2 - 1) * 1e6) / 1e6);
+                    if (rand.nextBoolean())
+                        pairs.add(new String[] { "p" + i, "p" + j, score });
+                    else
+                        pairs.add(new String[] { "p" + j, "p" + i, score });
+                }
+            }
+        }
+        Collections.shuffle(pairs, rand);
+        ListSimilaritySource retVal = new ListSimilaritySource();
+        for (String[] pair : pairs)
+            retVal.add(pair[0], pair[1], Double.parseDouble(pair[2]));
+        return retVal;
+    }
+
+    /**
+     * Create a random set of similarities with many ties.  The scores are rounded to multiples of 0.2, so the
+     * choices among tied pairs decide the merges.
+     *
+     * @param rand		random number generator
+     * @param n			number of data points
+     * @param density	fraction of the pairs to include
+     *
+     * @return a similarity source containing the random similarities
+     */
+    static ListSimilaritySource tiedSource(Random rand, int n, double density) {
+        return transform(randomSource(rand, n, density), x -> Math.round(x * 5) / 5.0);
+    }
+
+    /**
+     * Verify that an engine performs exactly the same merges as the SCAN engine on random similarity sets with
+     * many tied scores.  Half of the sets have all the pairs, and the other half are sparse.
+     *
+     * @param type		type of engine to test
+     * @param method	merge method
+     * @param maxSize	maximum cluster size
+     * @param seed		random number seed
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    static void checkTies(ClusterEngine.Type type, ClusterMergeMethod method, int maxSize, long seed)
+            throws IOException, ParseFailureException {
+        Random rand = new Random(seed);
+        for (int t = 0; t < TRIALS; t++) {
+            final int n = 2 + rand.nextInt(30);
+            final double density = (t % 2 == 0 ? 1.0 : 0.3);
+            ListSimilaritySource source = tiedSource(rand, n, density);
+            final double minScore = (rand.nextInt(5) - 2) / 5.0;
+            TestParms parms = new TestParms(method, minScore).setMaxSize(maxSize).setSparse(density < 1.0);
+            ClusterEngine expected = ClusterEngine.Type.SCAN.create(parms);
+            Set<Set<String>> expectedClusters = runEngine(expected, source);
+            ClusterEngine engine = type.create(parms);
+            String label = type + " " + method + " tied trial " + t + " (n = " + n + ", min = " + minScore
+                    + ", max = " + maxSize + ")";
+            assertEquals(expectedClusters, runEngine(engine, source), label);
+            assertMergesEqual(expected.getMerges(), engine.getMerges(), label);
+        }
+    }
+
+    /**
+     * Verify that a compact storage type performs exactly the same merges as double precision.  The compact
+     * storage types round the scores.  If the input scores are already rounded, the SINGLE and COMPLETE methods
+     * only ever store input scores, so the merges must be the same, including the choices among tied pairs.  The
+     * AVERAGE method computes new scores, so it is only exact in double precision.
+     *
+     * @param storage	storage type to test
+     * @param rounder	function that rounds a score the way the storage type does
+     * @param seed		random number seed
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    static void checkStorage(SimilarityMatrix.Type storage, DoubleUnaryOperator rounder, long seed)
+            throws IOException, ParseFailureException {
+        Random rand = new Random(seed);
+        for (int t = 0; t < TRIALS; t++) {
+            final int n = 2 + rand.nextInt(30);
+            final double density = (t % 2 == 0 ? 1.0 : 0.3);
+            ListSimilaritySource source = transform(randomSource(rand, n, density), rounder);
+            final double minScore = rand.nextDouble() - 0.3;
+            final int maxSize = (t % 4 < 2 ? Integer.MAX_VALUE : 2 + rand.nextInt(6));
+            for (ClusterMergeMethod method : new ClusterMergeMethod[] { ClusterMergeMethod.SINGLE,
+                    ClusterMergeMethod.COMPLETE }) {
+                TestParms parms = new TestParms(method, minScore).setMaxSize(maxSize).setSparse(density < 1.0);
+                ClusterEngine expected = ClusterEngine.Type.SCAN.create(parms);
+                Set<Set<String>> expectedClusters = runEngine(expected, source);
+                ClusterEngine engine = ClusterEngine.Type.SCAN.create(parms.setStorage(storage));
+                String label = storage + " " + method + " trial " + t;
+                assertEquals(expectedClusters, runEngine(engine, source), label);
+                assertMergesEqual(expected.getMerges(), engine.getMerges(), label);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of a similarity source with the scores transformed
+     *
+     * @param source	source to copy
+     * @param function	function to apply to each score
+     */
+    static ListSimilaritySource transform(ListSimilaritySource source, DoubleUnaryOperator function) {
+        ListSimilaritySource retVal = new ListSimilaritySource();
+        for (int i = 0; i < source.size(); i++)
+            retVal.add(source.getId1(i), source.getId2(i), function.applyAsDouble(source.getScore(i)));
+        return retVal;
+    }
+
+    /**
+     * @return a copy of a similarity source in square form, grouped by the first data point ID with each pair
+     * 		   listed in both directions, as required by the SLINK engine
+     *
+     * @param source	source to copy
+     * @param rand		random number generator for ordering the groups
+     */
+    static ListSimilaritySource squareSource(ListSimilaritySource source, Random rand) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < source.size(); i++) {
+            groups.computeIfAbsent(source.getId1(i), k -> new ArrayList<Integer>()).add(i);
+            groups.computeIfAbsent(source.getId2(i), k -> new ArrayList<Integer>()).add(i);
+        }
+        List<String> ids = new ArrayList<String>(groups.keySet());
+        Collections.shuffle(ids, rand);
+        ListSimilaritySource retVal = new ListSimilaritySource();
+        for (String id : ids) {
+            for (int i : groups.get(id)) {
+                String other = (id.equals(source.getId1(i)) ? source.getId2(i) : source.getId1(i));
+                retVal.add(id, other, source.getScore(i));
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the expected clusters by repeatedly merging the most similar pair of clusters whose combined size
+     * is within the limit.  Missing similarities are treated as negative infinity.
+     *
+     * @param source	source of the similarities
+     * @param method	merge method
+     * @param minScore	minimum similarity for a merge
+     * @param maxSize	maximum cluster size
+     *
+     * @return the set of clusters, each represented by its set of members
+     */
+    static Set<Set<String>> reference(ListSimilaritySource source, ClusterMergeMethod method,
+            double minScore, int maxSize) {
+        PointDictionary points = new PointDictionary(10);
+        for (int i = 0; i < source.size(); i++) {
+            points.intern(source.getId1(i));
+            points.intern(source.getId2(i));
+        }
+        final int n = points.size();
+        double[][] sims = new double[n][n];
+        for (double[] row : sims)
+            Arrays.fill(row, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < source.size(); i++) {
+            int p1 = points.find(source.getId1(i));
+            int p2 = points.find(source.getId2(i));
+            sims[p1][p2] = source.getScore(i);
+            sims[p2][p1] = source.getScore(i);
+        }
+        List<Set<String>> clusters = new ArrayList<Set<String>>(n);
+        boolean[] alive = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            clusters.add(new TreeSet<String>(List.of(points.get(i))));
+            alive[i] = true;
+        }
+        boolean done = false;
+        while (! done) {
+            int best1 = -1;
+            int best2 = -1;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    if (alive[i] && alive[j] && clusters.get(i).size() + clusters.get(j).size() <= maxSize
+                            && sims[i][j] > best) {
+                        best = sims[i][j];
+                        best1 = i;
+                        best2 = j;
+                    }
+                }
+            }
+            if (best1 < 0 || best < minScore)
+                done = true;
+            else {
+                final int size1 = clusters.get(best1).size();
+                final int size2 = clusters.get(best2).size();
+                for (int k = 0; k < n; k++) {
+                    if (alive[k] && k != best1 && k != best2) {
+                        double merged = SimilarityMatrix.mergedScore(method, sims[best1][k], size1, sims[best2][k],
+                                size2);
+                        sims[best1][k] = merged;
+                        sims[k][best1] = merged;
+                    }
+                }
+                alive[best2] = false;
+                clusters.get(best1).addAll(clusters.get(best2));
+            }
+        }
+        Set<Set<String>> retVal = new HashSet<Set<String>>();
+        for (int i = 0; i < n; i++) {
+            if (alive[i])
+                retVal.add(clusters.get(i));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the clusters produced by an engine
+     *
+     * @param engine	engine to run
+     * @param source	source of the similarities
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    static Set<Set<String>> runEngine(ClusterEngine engine, SimilaritySource source)
+            throws IOException, ParseFailureException {
+        engine.load(source);
+        List<ClusterResult> clusters = engine.cluster();
+        // Verify that the clusters are a partition of the data points.
+        Set<String> found = new HashSet<String>();
+        int count = 0;
+        for (ClusterResult cluster : clusters) {
+            found.addAll(cluster.getMembers());
+            count += cluster.size();
+        }
+        assertEquals(engine.size(), count);
+        assertEquals(engine.size(), found.size());
+        return ListSimilaritySource.clusterSets(clusters);
+    }
+
+    /**
+     * Compare an engine to the reference implementation on random similarity sets.  Half of the sets have all
+     * the pairs, and the other half are sparse.
+     *
+     * @param type			type of engine to test
+     * @param method		merge method
+     * @param maxLimit		TRUE to test random size limits, else FALSE
+     * @param components	TRUE to cluster the connected components separately
+     * @param seed			random number seed
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    static void checkEngine(ClusterEngine.Type type, ClusterMergeMethod method, boolean maxLimit,
+            boolean components, long seed) throws IOException, ParseFailureException {
+        Random rand = new Random(seed);
+        for (int t = 0; t < TRIALS; t++) {
+            final int n = 2 + rand.nextInt(30);
+            final double density = (t % 2 == 0 ? 1.0 : 0.3);
+            ListSimilaritySource source = randomSource(rand, n, density);
+            final double minScore = rand.nextDouble() - 0.3;
+            final int maxSize = (maxLimit ? 2 + rand.nextInt(6) : Integer.MAX_VALUE);
+            TestParms parms = new TestParms(method, minScore).setMaxSize(maxSize).setSparse(density < 1.0)
+                    .setThreads(3);
+            ClusterEngine engine = (components ? new ComponentClusterEngine(parms, type) : type.create(parms));
+            SimilaritySource input = (type == ClusterEngine.Type.SLINK ? squareSource(source, rand) : source);
+            String label = type + " " + method + " trial " + t + " (n = " + n + ", min = " + minScore + ", max = "
+                    + maxSize + ")";
+            assertEquals(reference(source, method, minScore, maxSize), runEngine(engine, input), label);
+        }
+    }
+
+    /**
+     * Verify that two merge lists are identical.
+     *
+     * @param expected	expected merge list
+     * @param actual	actual merge list
+     * @param label		label for failure messages
+     */
+    static void assertMergesEqual(MergeList expected, MergeList actual, String label) {
+        assertEquals(expected.size(), actual.size(), label + " merge count");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getLeft(i), actual.getLeft(i), label + " merge " + i + " left");
+            assertEquals(expected.getRight(i), actual.getRight(i), label + " merge " + i + " right");
+            assertEquals(expected.getScore(i), actual.getScore(i), label + " merge " + i + " score");
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the GENERIC clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class GenericClusterEngineTest {
+
+    @Test
+    public void testReference() throws Exception {
+        for (ClusterMergeMethod method : METHODS) {
+            checkEngine(ClusterEngine.Type.GENERIC, method, false, false, 100);
+            checkEngine(ClusterEngine.Type.GENERIC, method, true, false, 200);
+        }
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        // With tied scores, the engine must make the same choices as the SCAN engine.
+        for (ClusterMergeMethod method : METHODS) {
+            checkTies(ClusterEngine.Type.GENERIC, method, Integer.MAX_VALUE, 1800);
+            checkTies(ClusterEngine.Type.GENERIC, method, 4, 1810);
+            checkTies(ClusterEngine.Type.GENERIC, method, 7, 1820);
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the HEAP clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class HeapClusterEngineTest {
+
+    @Test
+    public void testReference() throws Exception {
+        for (ClusterMergeMethod method : METHODS) {
+            checkEngine(ClusterEngine.Type.HEAP, method, false, false, 110);
+            checkEngine(ClusterEngine.Type.HEAP, method, true, false, 210);
+        }
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        // With tied scores, the engine must make the same choices as the SCAN engine.
+        for (ClusterMergeMethod method : METHODS) {
+            checkTies(ClusterEngine.Type.HEAP, method, Integer.MAX_VALUE, 1900);
+            checkTies(ClusterEngine.Type.HEAP, method, 4, 1910);
+            checkTies(ClusterEngine.Type.HEAP, method, 7, 1920);
+        }
+    }
+
+}
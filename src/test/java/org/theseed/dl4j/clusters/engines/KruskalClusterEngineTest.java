@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the KRUSKAL clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class KruskalClusterEngineTest {
+
+    @Test
+    public void testReference() throws Exception {
+        checkEngine(ClusterEngine.Type.KRUSKAL, ClusterMergeMethod.SINGLE, false, false, 400);
+        checkEngine(ClusterEngine.Type.KRUSKAL, ClusterMergeMethod.SINGLE, true, false, 500);
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.KRUSKAL.create(
+                new TestParms(ClusterMergeMethod.COMPLETE, 0.5)));
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        // Without a size limit, the order of tied edges does not affect the clusters.
+        Random rand = new Random(1700);
+        for (int t = 0; t < TRIALS; t++) {
+            final int n = 2 + rand.nextInt(30);
+            final double density = (t % 2 == 0 ? 1.0 : 0.3);
+            ListSimilaritySource source = tiedSource(rand, n, density);
+            final double minScore = (rand.nextInt(5) - 2) / 5.0;
+            TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, minScore).setSparse(density < 1.0);
+            assertEquals(runEngine(ClusterEngine.Type.SCAN.create(parms), source),
+                    runEngine(ClusterEngine.Type.KRUSKAL.create(parms), source), "tied trial " + t);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * This is an in-memory similarity source for testing the clustering engines.  The similarities are returned in the
+ * order they were added.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class ListSimilaritySource extends SimilaritySource {
+
+    // FIELDS
+    /** first data point ID of each similarity */
+    private List<String> ids1;
+    /** second data point ID of each similarity */
+    private List<String> ids2;
+    /** score of each similarity */
+    private List<Double> scores;
+
+    /**
+     * Construct an empty similarity source.
+     */
+    public ListSimilaritySource() {
+        this.ids1 = new ArrayList<String>();
+        this.ids2 = new ArrayList<String>();
+        this.scores = new ArrayList<Double>();
+    }
+
+    /**
+     * Add a similarity.
+     *
+     * @param id1		first data point ID
+     * @param id2		second data point ID
+     * @param score		similarity score
+     *
+     * @return this object, for chaining
+     */
+    public ListSimilaritySource add(String id1, String id2, double score) {
+        this.ids1.add(id1);
+        this.ids2.add(id2);
+        this.scores.add(score);
+        return this;
+    }
+
+    /**
+     * @return the number of similarities added
+     */
+    public int size() {
+        return this.scores.size();
+    }
+
+    /**
+     * @return the first data point ID of a similarity
+     *
+     * @param i		index of the similarity
+     */
+    public String getId1(int i) {
+        return this.ids1.get(i);
+    }
+
+    /**
+     * @return the second data point ID of a similarity
+     *
+     * @param i		index of the similarity
+     */
+    public String getId2(int i) {
+        return this.ids2.get(i);
+    }
+
+    /**
+     * @return the score of a similarity
+     *
+     * @param i		index of the similarity
+     */
+    public double getScore(int i) {
+        return this.scores.get(i);
+    }
+
+    @Override
+    public long scan(PointDictionary points, Visitor visitor) {
+        long retVal = 0;
+        final int n = this.scores.size();
+        for (int i = 0; i < n; i++) {
+            int p1 = points.intern(this.ids1.get(i));
+            int p2 = points.intern(this.ids2.get(i));
+            double score = this.scores.get(i);
+            if (p1 != p2 && Double.isFinite(score)) {
+                visitor.accept(p1, p2, score);
+                retVal++;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the clusters in a cluster list as a set of member sets, for comparison
+     *
+     * @param clusters	list of clusters to convert
+     */
+    public static Set<Set<String>> clusterSets(List<ClusterResult> clusters) {
+        Set<Set<String>> retVal = new HashSet<Set<String>>();
+        for (ClusterResult cluster : clusters)
+            retVal.add(new TreeSet<String>(cluster.getMembers()));
+        return retVal;
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the LOUVAIN clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LouvainClusterEngineTest {
+
+    /** thresholds for the random tests */
+    private static final double[] THRESHOLDS = new double[] { 0.5, 0.2, 0.0 };
+
+    @Test
+    public void testCliques() throws Exception {
+        // Two cliques joined by a single weaker similarity form two communities.  The similarity below the
+        // threshold is ignored.
+        ListSimilaritySource source = new ListSimilaritySource();
+        for (int i = 0; i < 6; i++) {
+            for (int j = i + 1; j < 6; j++) {
+                source.add("a" + i, "a" + j, 0.9);
+                source.add("b" + i, "b" + j, 0.9);
+            }
+        }
+        source.add("a0", "b0", 0.6).add("a1", "b1", 0.3);
+        Set<Set<String>> expected = Set.of(Set.of("a0", "a1", "a2", "a3", "a4", "a5"),
+                Set.of("b0", "b1", "b2", "b3", "b4", "b5"));
+        ClusterEngine engine = ClusterEngine.Type.LOUVAIN.create(new TestParms(ClusterMergeMethod.SINGLE, 0.5));
+        assertEquals(expected, runEngine(engine, source));
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.LOUVAIN.create(
+                new TestParms(ClusterMergeMethod.SINGLE, 0.5).setMaxSize(4)));
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        // The result must be the same with one thread and with four, and every cluster must be connected by
+        // positive similarities at or above its threshold.
+        Random rand = new Random(2400);
+        for (int t = 0; t < TRIALS; t++) {
+            ListSimilaritySource source = randomSource(rand, 10 + rand.nextInt(80), (t % 2 == 0 ? 0.5 : 0.1));
+            TestParms parms = new TestParms(ClusterMergeMethod.AVERAGE, 0.0).setSparse(true);
+            List<List<ClusterResult>> expected = runThresholds(parms.setThreads(1), source);
+            List<List<ClusterResult>> actual = runThresholds(parms.setThreads(4), source);
+            for (int i = 0; i < THRESHOLDS.length; i++) {
+                String label = "trial " + t + " threshold " + THRESHOLDS[i];
+                List<ClusterResult> expectedList = expected.get(i);
+                List<ClusterResult> actualList = actual.get(i);
+                assertEquals(expectedList.size(), actualList.size(), label + " cluster count");
+                for (int k = 0; k < expectedList.size(); k++) {
+                    assertEquals(expectedList.get(k).getMembers(), actualList.get(k).getMembers(),
+                            label + " cluster " + k);
+                    assertEquals(expectedList.get(k).getScore(), actualList.get(k).getScore(),
+                            label + " cluster " + k + " score");
+                }
+                checkConnected(source, THRESHOLDS[i], actualList, label);
+            }
+        }
+    }
+
+    /**
+     * @return the clusters at each of the test thresholds
+     *
+     * @param parms		engine parameters
+     * @param source	source of the similarities
+     *
+     * @throws Exception
+     */
+    private static List<List<ClusterResult>> runThresholds(TestParms parms, ListSimilaritySource source)
+            throws Exception {
+        ClusterEngine engine = ClusterEngine.Type.LOUVAIN.create(parms);
+        engine.load(source);
+        return engine.cluster(THRESHOLDS);
+    }
+
+    /**
+     * Verify that every cluster is connected by positive similarities at or above the threshold, and that each
+     * data point is in exactly one cluster.
+     *
+     * @param source		source of the similarities
+     * @param threshold		minimum similarity for an edge
+     * @param clusters		list of clusters to check
+     * @param label			label for failure messages
+     */
+    private static void checkConnected(ListSimilaritySource source, double threshold, List<ClusterResult> clusters,
+            String label) {
+        Map<String, Set<String>> neighbors = new HashMap<String, Set<String>>();
+        for (int i = 0; i < source.size(); i++) {
+            double score = source.getScore(i);
+            if (score >= threshold && score > 0.0) {
+                neighbors.computeIfAbsent(source.getId1(i), k -> new HashSet<String>()).add(source.getId2(i));
+                neighbors.computeIfAbsent(source.getId2(i), k -> new HashSet<String>()).add(source.getId1(i));
+            }
+        }
+        Set<String> found = new HashSet<String>();
+        for (ClusterResult cluster : clusters) {
+            Set<String> members = new HashSet<String>(cluster.getMembers());
+            for (String member : members)
+                assertTrue(found.add(member), label + " repeats " + member);
+            Set<String> reached = new HashSet<String>();
+            Queue<String> queue = new ArrayDeque<String>();
+            String first = cluster.getMembers().get(0);
+            reached.add(first);
+            queue.add(first);
+            while (! queue.isEmpty()) {
+                String id = queue.remove();
+                for (String other : neighbors.getOrDefault(id, Set.of())) {
+                    if (members.contains(other) && reached.add(other))
+                        queue.add(other);
+                }
+            }
+            assertEquals(members, reached, label + " cluster " + cluster.getId() + " is not connected");
+        }
+    }
+
+}
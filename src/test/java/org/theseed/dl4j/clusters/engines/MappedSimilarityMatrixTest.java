@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the memory-mapped similarity matrix.  The data point estimate in the test parameters is smaller than
+ * most of the random similarity sets, so the mapped file must also grow.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MappedSimilarityMatrixTest {
+
+    @Test
+    public void testMerges() throws Exception {
+        checkStorage(SimilarityMatrix.Type.MAPPED, x -> (float) x, 910);
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for saving and loading merge tree files.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MergeTreeFileTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        double[] thresholds = new double[] { 0.8, 0.5, 0.2, 0.0, -0.3 };
+        ClusterMergeMethod[] methods = new ClusterMergeMethod[] { ClusterMergeMethod.SINGLE,
+                ClusterMergeMethod.COMPLETE, ClusterMergeMethod.AVERAGE };
+        Random rand = new Random(1100);
+        File treeFile = File.createTempFile("merges", ".tree");
+        treeFile.deleteOnExit();
+        for (int t = 0; t < 20; t++) {
+            final ClusterMergeMethod method = methods[t % methods.length];
+            final int maxSize = (t % 2 == 0 ? Integer.MAX_VALUE : 3 + rand.nextInt(5));
+            final double floor = thresholds[thresholds.length - 1];
+            ListSimilaritySource source = EngineTestUtils.randomSource(rand, 5 + rand.nextInt(40), 0.5);
+            ClusterEngine engine = ClusterEngine.Type.HEAP.create(new TestParms(method, floor).setMaxSize(maxSize)
+                    .setSparse(true));
+            engine.load(source);
+            List<List<ClusterResult>> original = engine.cluster(thresholds);
+            MergeTreeFile.save(treeFile, method, floor, maxSize, engine.getDataPoints(), engine.getMerges());
+            MergeTreeFile tree = new MergeTreeFile(treeFile);
+            String label = method + " trial " + t;
+            assertEquals(method, tree.getMethod(), label);
+            assertEquals(floor, tree.getFloorScore(), label);
+            assertEquals(maxSize, tree.getMaxSize(), label);
+            assertEquals(engine.getDataPoints(), tree.getDataPoints(), label);
+            EngineTestUtils.assertMergesEqual(engine.getMerges(), tree.getMerges(), label);
+            for (int i = 0; i < thresholds.length; i++) {
+                List<ClusterResult> recut = tree.getClusters(thresholds[i], maxSize);
+                assertEquals(ListSimilaritySource.clusterSets(original.get(i)), ListSimilaritySource.clusterSets(recut),
+                        label + " cut at " + thresholds[i]);
+            }
+            // A cut with a tighter size limit never produces a larger cluster.
+            for (ClusterResult cluster : tree.getClusters(floor, 2))
+                assertTrue(cluster.size() <= 2, label);
+        }
+        treeFile.delete();
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the MST clustering engine.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MstClusterEngineTest {
+
+    @Test
+    public void testReference() throws Exception {
+        checkEngine(ClusterEngine.Type.MST, ClusterMergeMethod.SINGLE, false, false, 400);
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.MST.create(
+                new TestParms(ClusterMergeMethod.COMPLETE, 0.5)));
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.MST.create(
+                new TestParms(ClusterMergeMethod.SINGLE, 0.5).setMaxSize(4)));
+    }
+
+    @Test
+    public void testTies() throws Exception {
+        // The SINGLE clusters do not depend on which of several tied edges is in the spanning forest, and the
+        // merge tree must not depend on the number of threads.
+        Random rand = new Random(1600);
+        for (int t = 0; t < TRIALS; t++) {
+            final int n = 2 + rand.nextInt(60);
+            final double density = (t % 2 == 0 ? 1.0 : 0.2);
+            ListSimilaritySource source = tiedSource(rand, n, density);
+            final double minScore = (rand.nextInt(5) - 2) / 5.0;
+            TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, minScore).setSparse(density < 1.0);
+            String label = "tied trial " + t;
+            assertEquals(runEngine(ClusterEngine.Type.SCAN.create(parms), source),
+                    runEngine(ClusterEngine.Type.MST.create(parms), source), label);
+            MergeList expected = null;
+            for (int threads = 1; threads <= 4; threads++) {
+                ClusterEngine engine = ClusterEngine.Type.MST.create(parms.setThreads(threads));
+                runEngine(engine, source);
+                if (expected == null)
+                    expected = engine.getMerges();
+                else
+                    assertMergesEqual(expected, engine.getMerges(), label + " with " + threads + " threads");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the parallel similarity file reader.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelFileSimilaritySourceTest {
+
+    /** score strings that exercise the unusual cases of the number parser */
+    private static final String[] SCORES = new String[] { "0.5", "-0.25", "+0.125", "0", "-0", "0.0", "-0.000", "1",
+            "5.", ".5", "-.5", "007.250", "1e-3", "1E+2", "-2.5e-7", "3.0E10", "4e0", "6.02214076e23", "1e22", "1e23",
+            "1e-22", "1e-23", "1e-400", "1e400", "-1e400", "0.1234567890123456789", "123456789012345",
+            "1234567890123456", "12345678901234567890", "0.30000000000000004", "9007199254740993",
+            "123456789012345678901234567890e-30", "0.000000000000000000000001234", "2.2250738585072012e-308",
+            "4.9e-324", "NaN", "-NaN", "+NaN", "", "abc", "1.5.2", "1e", "1e+", "-", "+", ".", "e5", "Infinity",
+            "-Infinity", "1.5d", "2.5f", "0x1.8p1", "1_000", "0.5 ", " 0.5", "1,5" };
+
+    /**
+     * Write a similarity file.
+     *
+     * @param file		output file
+     * @param scores	list of score strings
+     * @param rand		random number generator for the data point IDs
+     *
+     * @throws IOException
+     */
+    private static void writeFile(File file, List<String> scores, Random rand) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(file.toPath())))) {
+            writer.println("id1\tid2\tscore");
+            for (String score : scores) {
+                int p1 = rand.nextInt(2000);
+                // Some of the pairs relate a data point to itself.
+                int p2 = (rand.nextInt(50) == 0 ? p1 : rand.nextInt(2000));
+                writer.println("pt" + p1 + "\tpt" + p2 + "\t" + score);
+            }
+        }
+    }
+
+    /**
+     * @return a list of the similarities from a source, formatted with the exact bits of each score
+     *
+     * @param source	source to read
+     *
+     * @throws IOException
+     */
+    private static List<String> readAll(SimilaritySource source) throws IOException {
+        PointDictionary points = new PointDictionary(100);
+        List<String> retVal = new ArrayList<String>();
+        long count = source.scan(points, (p1, p2, score) -> retVal.add(points.get(p1) + "\t" + points.get(p2)
+                + "\t" + Long.toHexString(Double.doubleToLongBits(score))));
+        assertEquals(retVal.size(), count);
+        return retVal;
+    }
+
+    @Test
+    public void testParseDouble() {
+        Random rand = new Random(1400);
+        List<String> tests = new ArrayList<String>(List.of(SCORES));
+        for (int i = 0; i < 10000; i++) {
+            double value = (rand.nextDouble() * 2 - 1) * Math.pow(10, rand.nextInt(40) - 20);
+            tests.add(Double.toString(value));
+            tests.add(String.format(Locale.ROOT, "%." + rand.nextInt(20) + "f", value));
+            tests.add(String.format(Locale.ROOT, "%." + rand.nextInt(20) + "e", value));
+        }
+        for (String test : tests) {
+            double expected = FileSimilaritySource.parseScore(test);
+            byte[] bytes = ("x" + test + "y").getBytes(StandardCharsets.UTF_8);
+            double actual = ParallelFileSimilaritySource.parseDouble(ByteBuffer.wrap(bytes), 1, bytes.length - 1);
+            assertEquals(expected, actual, "\"" + test + "\"");
+        }
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        Random rand = new Random(1500);
+        List<String> scores = new ArrayList<String>();
+        for (String score : SCORES) {
+            for (int i = 0; i < 3; i++)
+                scores.add(score);
+        }
+        // Add enough random scores to split the file into several chunks.
+        while (scores.size() < 800000) {
+            double value = rand.nextDouble() * 2 - 1;
+            switch (rand.nextInt(4)) {
+            case 0 :
+                scores.add(Double.toString(value));
+                break;
+            case 1 :
+                scores.add(String.format(Locale.ROOT, "%.6f", value));
+                break;
+            case 2 :
+                scores.add(String.format(Locale.ROOT, "%.3e", value));
+                break;
+            default :
+                scores.add(SCORES[rand.nextInt(SCORES.length)]);
+            }
+        }
+        File simFile = File.createTempFile("sims", ".tbl");
+        simFile.deleteOnExit();
+        writeFile(simFile, scores, rand);
+        List<String> expected = readAll(new FileSimilaritySource(simFile, "id1", "id2", "score"));
+        assertTrue(expected.size() < scores.size());
+        for (int threads = 1; threads <= 4; threads += 3) {
+            List<String> actual = readAll(new ParallelFileSimilaritySource(simFile, "1", "id2", "3", threads));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i), actual.get(i), "similarity " + i + " with " + threads + " threads");
+        }
+        simFile.delete();
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the parallel similarity update of the matrix engines.  The minimum stripe size is lowered so that
+ * small matrices are divided into stripes.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelMergeTest {
+
+    @Test
+    public void testStripes() throws Exception {
+        ClusterEngine.Type[] types = new ClusterEngine.Type[] { ClusterEngine.Type.CHAIN, ClusterEngine.Type.SCAN,
+                ClusterEngine.Type.GENERIC, ClusterEngine.Type.HEAP };
+        Random rand = new Random(2100);
+        for (ClusterEngine.Type type : types) {
+            for (ClusterMergeMethod method : METHODS) {
+                for (int t = 0; t < TRIALS; t++) {
+                    final double density = (t % 2 == 0 ? 1.0 : 0.3);
+                    ListSimilaritySource source = randomSource(rand, 2 + rand.nextInt(40), density);
+                    final int maxSize = (type == ClusterEngine.Type.CHAIN || t % 4 < 2 ? Integer.MAX_VALUE
+                            : 2 + rand.nextInt(6));
+                    TestParms parms = new TestParms(method, rand.nextDouble() - 0.5).setMaxSize(maxSize)
+                            .setSparse(density < 1.0);
+                    MergeList expected = runStriped(type, parms.setThreads(1), source);
+                    for (int threads = 2; threads <= 4; threads++) {
+                        MergeList actual = runStriped(type, parms.setThreads(threads), source);
+                        assertMergesEqual(expected, actual, type + " " + method + " trial " + t + " with "
+                                + threads + " threads");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the merges from a matrix engine whose similarity updates use stripes of two rows
+     *
+     * @param type		type of matrix engine
+     * @param parms		engine parameters
+     * @param source	source of the similarities
+     *
+     * @throws Exception
+     */
+    private static MergeList runStriped(ClusterEngine.Type type, TestParms parms, SimilaritySource source)
+            throws Exception {
+        MatrixClusterEngine engine = (MatrixClusterEngine) type.create(parms);
+        engine.load(source);
+        engine.matrix.setStripeRows(2);
+        engine.cluster();
+        return engine.getMerges();
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the 16-bit and 8-bit fixed-point similarity matrices.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class QuantizedSimilarityMatrixTest {
+
+    @Test
+    public void testMerges() throws Exception {
+        checkStorage(SimilarityMatrix.Type.SHORT, x -> Math.round(x * Short.MAX_VALUE) / (double) Short.MAX_VALUE,
+                920);
+        checkStorage(SimilarityMatrix.Type.BYTE, x -> Math.round(x * Byte.MAX_VALUE) / (double) Byte.MAX_VALUE, 930);
+    }
+
+    @Test
+    public void testThreshold() throws Exception {
+        // In BYTE storage, 0.7999 rounds up to 102/127, so the pair is merged at a minimum score of 0.8.
+        ListSimilaritySource source = new ListSimilaritySource().add("a", "b", 0.7999).add("b", "c", 0.1);
+        Set<Set<String>> split = Set.of(Set.of("a"), Set.of("b"), Set.of("c"));
+        Set<Set<String>> merged = Set.of(Set.of("a", "b"), Set.of("c"));
+        assertEquals(split, cluster(SimilarityMatrix.Type.DOUBLE, 0.8, source));
+        assertEquals(split, cluster(SimilarityMatrix.Type.SHORT, 0.8, source));
+        assertEquals(merged, cluster(SimilarityMatrix.Type.BYTE, 0.8, source));
+        // In the other direction, 0.7905 rounds down to 100/127, so the pair is not merged at 0.79.
+        ListSimilaritySource source2 = new ListSimilaritySource().add("a", "b", 0.7905).add("b", "c", 0.1);
+        assertEquals(merged, cluster(SimilarityMatrix.Type.DOUBLE, 0.79, source2));
+        assertEquals(merged, cluster(SimilarityMatrix.Type.SHORT, 0.79, source2));
+        assertEquals(split, cluster(SimilarityMatrix.Type.BYTE, 0.79, source2));
+    }
+
+    /**
+     * @return the SINGLE clusters produced by the SCAN engine with the specified storage
+     *
+     * @param storage	storage type
+     * @param minScore	minimum similarity for a merge
+     * @param source	source of the similarities
+     *
+     * @throws Exception
+     */
+    private static Set<Set<String>> cluster(SimilarityMatrix.Type storage, double minScore,
+            ListSimilaritySource source) throws Exception {
+        TestParms parms = new TestParms(ClusterMergeMethod.SINGLE, minScore).setStorage(storage);
+        return runEngine(ClusterEngine.Type.SCAN.create(parms), source);
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the SCAN clustering engine and its condensed matrix storage.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ScanClusterEngineTest {
+
+    @Test
+    public void testReference() throws Exception {
+        for (ClusterMergeMethod method : METHODS) {
+            checkEngine(ClusterEngine.Type.SCAN, method, false, false, 100);
+            checkEngine(ClusterEngine.Type.SCAN, method, true, false, 200);
+        }
+    }
+
+    @Test
+    public void testFloatStorage() throws Exception {
+        checkStorage(SimilarityMatrix.Type.FLOAT, x -> (float) x, 900);
+    }
+
+}
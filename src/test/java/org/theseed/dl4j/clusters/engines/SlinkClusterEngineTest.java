@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.theseed.dl4j.clusters.engines.EngineTestUtils.*;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * Tests for the SLINK engine, including its checks on the grouping of the input.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SlinkClusterEngineTest {
+
+    /**
+     * @return the clusters produced by an engine of the specified type
+     *
+     * @param type		engine type
+     * @param source	source of the similarities
+     *
+     * @throws ParseFailureException
+     * @throws IOException
+     */
+    private static Set<Set<String>> runEngine(ClusterEngine.Type type, SimilaritySource source)
+            throws ParseFailureException, IOException {
+        ClusterEngine engine = type.create(new TestParms(ClusterMergeMethod.SINGLE, 0.5));
+        engine.load(source);
+        return ListSimilaritySource.clusterSets(engine.cluster());
+    }
+
+    @Test
+    public void testReference() throws Exception {
+        checkEngine(ClusterEngine.Type.SLINK, ClusterMergeMethod.SINGLE, false, false, 400);
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.SLINK.create(
+                new TestParms(ClusterMergeMethod.COMPLETE, 0.5)));
+        assertThrows(ParseFailureException.class, () -> ClusterEngine.Type.SLINK.create(
+                new TestParms(ClusterMergeMethod.SINGLE, 0.5).setMaxSize(4)));
+    }
+
+    @Test
+    public void testUngroupedInput() throws Exception {
+        // Here the similarity between "a" and "b" is only listed in the group for "a", so the group for "b" is
+        // missing it.  The engine must reject this rather than lose the similarity.
+        ListSimilaritySource source = new ListSimilaritySource().add("a", "b", 0.9).add("b", "c", 0.1)
+                .add("c", "a", 0.2);
+        assertEquals(Set.of(Set.of("a", "b"), Set.of("c")), runEngine(ClusterEngine.Type.SCAN, source));
+        assertThrows(IOException.class, () -> runEngine(ClusterEngine.Type.SLINK, source));
+        // A group that lists a partner not in the skipped similarities is rejected the same way.
+        ListSimilaritySource source2 = new ListSimilaritySource().add("a", "b", 0.9).add("c", "a", 0.2)
+                .add("b", "c", 0.1);
+        assertThrows(IOException.class, () -> runEngine(ClusterEngine.Type.SLINK, source2));
+        // A data point that is skipped but has no group of its own is also rejected.
+        ListSimilaritySource source3 = new ListSimilaritySource().add("a", "b", 0.9).add("a", "c", 0.2);
+        assertThrows(IOException.class, () -> runEngine(ClusterEngine.Type.SLINK, source3));
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        // Each group repeats its partner more times than the initial capacity.
+        ListSimilaritySource source = new ListSimilaritySource();
+        for (int i = 0; i < 12; i++)
+            source.add("a", "b", 0.9);
+        for (int i = 0; i < 12; i++)
+            source.add("b", "a", 0.9);
+        Set<Set<String>> expected = Set.of(Set.of("a", "b"));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SCAN, source));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SLINK, source));
+        // A repeated partner with a different score uses the last score, as the matrix engines do.
+        ListSimilaritySource source2 = new ListSimilaritySource();
+        for (int i = 0; i < 12; i++)
+            source2.add("a", "b", 0.9);
+        source2.add("a", "c", 0.3).add("b", "a", 0.9).add("b", "c", 0.1).add("c", "a", 0.3).add("c", "b", 0.1)
+                .add("c", "a", 0.8);
+        expected = Set.of(Set.of("a", "b", "c"));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SCAN, source2));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SLINK, source2));
+    }
+
+    @Test
+    public void testGroupedInput() throws Exception {
+        // A full square matrix in row order.
+        String[] ids = { "a", "b", "c", "d", "e" };
+        double[][] scores = { { 1.0, 0.9, 0.1, 0.2, 0.3 }, { 0.9, 1.0, 0.6, 0.1, 0.0 }, { 0.1, 0.6, 1.0, 0.2, 0.4 },
+                { 0.2, 0.1, 0.2, 1.0, 0.7 }, { 0.3, 0.0, 0.4, 0.7, 1.0 } };
+        ListSimilaritySource square = new ListSimilaritySource();
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < ids.length; j++)
+                square.add(ids[i], ids[j], scores[i][j]);
+        }
+        Set<Set<String>> expected = Set.of(Set.of("a", "b", "c"), Set.of("d", "e"));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SCAN, square));
+        assertEquals(expected, runEngine(ClusterEngine.Type.SLINK, square));
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.theseed.dl4j.clusters.engines;
+
+import java.io.File;
+
+import org.theseed.clusters.methods.ClusterMergeMethod;
+
+/**
+ * This is a simple parameter object for testing the clustering engines.  The parameters default to the command
+ * processor defaults and can be changed with the setters, which return the object so they can be chained.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class TestParms implements ClusterEngine.IParms {
+
+    // FIELDS
+    /** clustering method */
+    private ClusterMergeMethod method;
+    /** minimum similarity for a merge */
+    private double floorScore;
+    /** maximum cluster size */
+    private int maxSize;
+    /** TRUE if the similarities are presumed to be incomplete */
+    private boolean sparse;
+    /** storage type for similarity matrices */
+    private SimilarityMatrix.Type storage;
+    /** checkpoint manager, or NULL if there are no checkpoints */
+    private Checkpointer checkpointer;
+    /** number of threads */
+    private int threads;
+    /** minimum neighborhood size for a core point */
+    private int minPoints;
+
+    /**
+     * Construct a parameter object.
+     *
+     * @param method		clustering method
+     * @param floorScore	minimum similarity for a merge
+     */
+    public TestParms(ClusterMergeMethod method, double floorScore) {
+        this.method = method;
+        this.floorScore = floorScore;
+        this.maxSize = Integer.MAX_VALUE;
+        this.sparse = false;
+        this.storage = SimilarityMatrix.Type.DOUBLE;
+        this.checkpointer = null;
+        this.threads = 1;
+        this.minPoints = 4;
+    }
+
+    @Override
+    public ClusterMergeMethod getMethod() {
+        return this.method;
+    }
+
+    @Override
+    public double getFloorScore() {
+        return this.floorScore;
+    }
+
+    @Override
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    @Override
+    public boolean isSparse() {
+        return this.sparse;
+    }
+
+    @Override
+    public int getPointEstimate() {
+        return 10;
+    }
+
+    @Override
+    public SimilarityMatrix.Type getStorage() {
+        return this.storage;
+    }
+
+    @Override
+    public File getTempDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Override
+    public Checkpointer getCheckpointer() {
+        return this.checkpointer;
+    }
+
+    @Override
+    public int getThreads() {
+        return this.threads;
+    }
+
+    @Override
+    public int getMinPoints() {
+        return this.minPoints;
+    }
+
+    /**
+     * Specify the maximum cluster size.
+     *
+     * @param maxSize 	the maximum cluster size
+     */
+    public TestParms setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Specify whether the similarities are incomplete.
+     *
+     * @param sparse 	TRUE if the similarities are presumed to be incomplete
+     */
+    public TestParms setSparse(boolean sparse) {
+        this.sparse = sparse;
+        return this;
+    }
+
+    /**
+     * Specify the similarity matrix storage type.
+     *
+     * @param storage 	the storage type
+     */
+    public TestParms setStorage(SimilarityMatrix.Type storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    /**
+     * Specify the checkpoint manager.
+     *
+     * @param checkpointer 	the checkpoint manager, or NULL for no checkpoints
+     */
+    public TestParms setCheckpointer(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+        return this;
+    }
+
+    /**
+     * Specify the number of threads.
+     *
+     * @param threads 	the number of threads
+     */
+    public TestParms setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Specify the minimum neighborhood size for a core point.
+     *
+     * @param minPoints	the minimum number of points, including itself, in a core point's neighborhood
+     */
+    public TestParms setMinPoints(int minPoints) {
+        this.minPoints = minPoints;
+        return this;
+    }
+
+}